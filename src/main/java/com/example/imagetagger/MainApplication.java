@@ -1,6 +1,7 @@
 package com.example.imagetagger;
 
 import com.example.imagetagger.persistence.DatabaseManager;
+import com.example.imagetagger.ui.controller.MainViewController;
 import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
@@ -15,6 +16,7 @@ import java.util.Objects;
 public class MainApplication extends Application {
 
     private static final Logger logger = LoggerFactory.getLogger(MainApplication.class);
+    private MainViewController mainViewController;
 
     @Override
     public void init() throws Exception {
@@ -38,6 +40,7 @@ public class MainApplication extends Application {
         try {
             FXMLLoader loader = new FXMLLoader(Objects.requireNonNull(getClass().getResource("/com/example/imagetagger/fxml/MainView.fxml")));
             Parent root = loader.load();
+            mainViewController = loader.getController();
 
             Scene scene = new Scene(root, 1024, 768); // Зададим начальные размеры окна
             primaryStage.setTitle("Image Tagger");
@@ -58,7 +61,10 @@ public class MainApplication extends Application {
     public void stop() throws Exception {
         super.stop();
         logger.info("Application stopping.");
-        // Здесь можно добавить логику очистки ресурсов, если необходимо
+        if (mainViewController != null) {
+            mainViewController.shutdown();
+        }
+        DatabaseManager.shutdown();
     }
 
     public static void main(String[] args) {
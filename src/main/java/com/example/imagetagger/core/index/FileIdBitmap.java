@@ -0,0 +1,621 @@
+package com.example.imagetagger.core.index;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Сжатое множество ID файлов в стиле Roaring bitmap.
+ * ID делится на старшие и младшие 16 бит: по старшим выбирается контейнер, младшие хранятся в нем.
+ * Разреженный контейнер - отсортированный char[] (до {@value #ARRAY_LIMIT} значений, 2 байта на ID),
+ * плотный - битовая карта из 1024 long (8 КБ на 65536 ID). Пересечение и объединение идут по контейнерам,
+ * для битовых карт - по 64 ID за операцию.
+ * <p>
+ * Класс не потокобезопасен: синхронизацией занимается {@link TagBitmapIndex}.
+ */
+public final class FileIdBitmap {
+
+    static final int ARRAY_LIMIT = 4096; // При большем числе значений битовая карта компактнее массива
+    private static final int BITMAP_WORDS = 1024;
+    private static final int DENSE_ARRAY = 1024; // С массивами крупнее этого пересечение идет через временную битовую карту
+
+    private char[] keys = new char[4];
+    private Container[] containers = new Container[4];
+    private int size;
+
+    public static FileIdBitmap of(int... ids) {
+        FileIdBitmap bitmap = new FileIdBitmap();
+        for (int id : ids) {
+            bitmap.add(id);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Преобразует ID из БД в ключ битовой карты.
+     *
+     * @throws IllegalArgumentException Если ID не помещается в int (индекс такие ID не поддерживает).
+     */
+    public static int toIndexId(long fileId) {
+        if (fileId <= 0 || fileId > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("File id out of bitmap range: " + fileId);
+        }
+        return (int) fileId;
+    }
+
+    public boolean add(int id) {
+        char high = (char) (id >>> 16);
+        int index = findKey(high);
+        if (index < 0) {
+            index = -index - 1;
+            insertContainer(index, high, new ArrayContainer());
+        }
+        Container container = containers[index];
+        int before = container.cardinality();
+        containers[index] = container.add((char) id);
+        return containers[index].cardinality() != before;
+    }
+
+    public boolean remove(int id) {
+        int index = findKey((char) (id >>> 16));
+        if (index < 0) {
+            return false;
+        }
+        Container container = containers[index];
+        int before = container.cardinality();
+        Container updated = container.remove((char) id);
+        if (updated.cardinality() == 0) {
+            removeContainer(index);
+        } else {
+            containers[index] = updated;
+        }
+        return updated.cardinality() != before;
+    }
+
+    public boolean contains(int id) {
+        int index = findKey((char) (id >>> 16));
+        return index >= 0 && containers[index].contains((char) id);
+    }
+
+    public boolean contains(long fileId) {
+        return fileId > 0 && fileId <= Integer.MAX_VALUE && contains((int) fileId);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getCardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            cardinality += containers[i].cardinality();
+        }
+        return cardinality;
+    }
+
+    /**
+     * Пересечение; аргументы не изменяются.
+     */
+    public FileIdBitmap and(FileIdBitmap other) {
+        FileIdBitmap result = new FileIdBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                result.appendIfNotEmpty(keys[i], containers[i].and(other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Объединение; аргументы не изменяются.
+     */
+    public FileIdBitmap or(FileIdBitmap other) {
+        FileIdBitmap result = new FileIdBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size || j < other.size) {
+            if (j == other.size || (i < size && keys[i] < other.keys[j])) {
+                result.appendIfNotEmpty(keys[i], containers[i].copy());
+                i++;
+            } else if (i == size || keys[i] > other.keys[j]) {
+                result.appendIfNotEmpty(other.keys[j], other.containers[j].copy());
+                j++;
+            } else {
+                result.appendIfNotEmpty(keys[i], containers[i].or(other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Объединение нескольких множеств за один проход по ключам: контейнеры одного ключа сливаются
+     * сразу в одну битовую карту, без промежуточных результатов попарного {@link #or(FileIdBitmap)}.
+     */
+    public static FileIdBitmap union(List<FileIdBitmap> bitmaps) {
+        FileIdBitmap result = new FileIdBitmap();
+        int[] positions = new int[bitmaps.size()];
+        while (true) {
+            int minKey = Integer.MAX_VALUE;
+            for (int b = 0; b < bitmaps.size(); b++) {
+                FileIdBitmap bitmap = bitmaps.get(b);
+                if (positions[b] < bitmap.size) {
+                    minKey = Math.min(minKey, bitmap.keys[positions[b]]);
+                }
+            }
+            if (minKey == Integer.MAX_VALUE) {
+                return result;
+            }
+            Container merged = null;
+            BitmapContainer accumulator = null;
+            for (int b = 0; b < bitmaps.size(); b++) {
+                FileIdBitmap bitmap = bitmaps.get(b);
+                if (positions[b] >= bitmap.size || bitmap.keys[positions[b]] != minKey) {
+                    continue;
+                }
+                Container container = bitmap.containers[positions[b]++];
+                if (accumulator != null) {
+                    accumulator.orInPlace(container);
+                } else if (merged == null) {
+                    merged = container.copy();
+                } else if (merged.cardinality() + container.cardinality() > ARRAY_LIMIT) {
+                    accumulator = new BitmapContainer();
+                    accumulator.orInPlace(merged);
+                    accumulator.orInPlace(container);
+                } else {
+                    merged = merged.or(container);
+                }
+            }
+            result.appendIfNotEmpty((char) minKey, accumulator != null ? accumulator.normalize() : merged);
+        }
+    }
+
+    /**
+     * Разность (ID из этого множества, которых нет в other); аргументы не изменяются.
+     */
+    public FileIdBitmap andNot(FileIdBitmap other) {
+        FileIdBitmap result = new FileIdBitmap();
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            while (j < other.size && other.keys[j] < keys[i]) {
+                j++;
+            }
+            if (j < other.size && other.keys[j] == keys[i]) {
+                result.appendIfNotEmpty(keys[i], containers[i].andNot(other.containers[j]));
+            } else {
+                result.appendIfNotEmpty(keys[i], containers[i].copy());
+            }
+        }
+        return result;
+    }
+
+    public FileIdBitmap copy() {
+        FileIdBitmap result = new FileIdBitmap();
+        for (int i = 0; i < size; i++) {
+            result.appendIfNotEmpty(keys[i], containers[i].copy());
+        }
+        return result;
+    }
+
+    /**
+     * Перебирает ID по возрастанию.
+     */
+    public void forEach(IntConsumer consumer) {
+        for (int i = 0; i < size; i++) {
+            containers[i].forEach(keys[i] << 16, consumer);
+        }
+    }
+
+    public int[] toArray() {
+        int[] ids = new int[getCardinality()];
+        int[] position = {0};
+        forEach(id -> ids[position[0]++] = id);
+        return ids;
+    }
+
+    /**
+     * Примерный объем памяти в байтах (для логов).
+     */
+    public long getSizeInBytes() {
+        long bytes = size * 6L;
+        for (int i = 0; i < size; i++) {
+            bytes += containers[i].sizeInBytes();
+        }
+        return bytes;
+    }
+
+    private int findKey(char key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private void insertContainer(int index, char key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(containers, index, containers, index + 1, size - index);
+        keys[index] = key;
+        containers[index] = container;
+        size++;
+    }
+
+    private void removeContainer(int index) {
+        System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+        System.arraycopy(containers, index + 1, containers, index, size - index - 1);
+        containers[--size] = null;
+    }
+
+    /**
+     * Добавляет контейнер в конец (ключи операций идут по возрастанию).
+     */
+    private void appendIfNotEmpty(char key, Container container) {
+        if (container.cardinality() > 0) {
+            insertContainer(size, key, container);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FileIdBitmap{cardinality=" + getCardinality() + ", containers=" + size + '}';
+    }
+
+    /**
+     * Младшие 16 бит ID одного старшего ключа. Изменяющие операции возвращают контейнер,
+     * которым нужно заменить текущий (массив и битовая карта переходят друг в друга по {@value #ARRAY_LIMIT}).
+     */
+    private abstract static sealed class Container permits ArrayContainer, BitmapContainer {
+        abstract Container add(char value);
+
+        abstract Container remove(char value);
+
+        abstract boolean contains(char value);
+
+        abstract int cardinality();
+
+        abstract Container and(Container other);
+
+        abstract Container or(Container other);
+
+        abstract Container andNot(Container other);
+
+        abstract Container copy();
+
+        abstract void forEach(int base, IntConsumer consumer);
+
+        abstract long sizeInBytes();
+    }
+
+    private static final class ArrayContainer extends Container {
+        private char[] values;
+        private int cardinality;
+
+        ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char value) {
+            int index = Arrays.binarySearch(values, 0, cardinality, value);
+            if (index >= 0) {
+                return this;
+            }
+            if (cardinality == ARRAY_LIMIT) {
+                return toBitmap().add(value);
+            }
+            index = -index - 1;
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, cardinality * 2));
+            }
+            System.arraycopy(values, index, values, index + 1, cardinality - index);
+            values[index] = value;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            int index = Arrays.binarySearch(values, 0, cardinality, value);
+            if (index >= 0) {
+                System.arraycopy(values, index + 1, values, index, cardinality - index - 1);
+                cardinality--;
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        Container and(Container other) {
+            char[] result = new char[cardinality];
+            int count = 0;
+            if (other instanceof ArrayContainer array && (cardinality < DENSE_ARRAY || array.cardinality < DENSE_ARRAY)) {
+                int i = 0;
+                int j = 0;
+                while (i < cardinality && j < array.cardinality) {
+                    if (values[i] < array.values[j]) {
+                        i++;
+                    } else if (values[i] > array.values[j]) {
+                        j++;
+                    } else {
+                        result[count++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                other = other instanceof ArrayContainer array ? array.toBitmap() : other;
+                for (int i = 0; i < cardinality; i++) {
+                    if (other.contains(values[i])) {
+                        result[count++] = values[i];
+                    }
+                }
+            }
+            return new ArrayContainer(result, count);
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer bitmap) {
+                return bitmap.or(this);
+            }
+            ArrayContainer array = (ArrayContainer) other;
+            if (cardinality + array.cardinality > ARRAY_LIMIT) {
+                BitmapContainer result = toBitmap();
+                for (int j = 0; j < array.cardinality; j++) {
+                    result.set(array.values[j]);
+                }
+                return result.normalize();
+            }
+            char[] result = new char[cardinality + array.cardinality];
+            int count = 0;
+            int i = 0;
+            int j = 0;
+            while (i < cardinality || j < array.cardinality) {
+                if (j == array.cardinality || (i < cardinality && values[i] < array.values[j])) {
+                    result[count++] = values[i++];
+                } else if (i == cardinality || values[i] > array.values[j]) {
+                    result[count++] = array.values[j++];
+                } else {
+                    result[count++] = values[i];
+                    i++;
+                    j++;
+                }
+            }
+            return new ArrayContainer(result, count);
+        }
+
+        @Override
+        Container andNot(Container other) {
+            char[] result = new char[cardinality];
+            int count = 0;
+            if (other instanceof ArrayContainer array && array.cardinality < DENSE_ARRAY) {
+                int j = 0;
+                for (int i = 0; i < cardinality; i++) {
+                    while (j < array.cardinality && array.values[j] < values[i]) {
+                        j++;
+                    }
+                    if (j == array.cardinality || array.values[j] != values[i]) {
+                        result[count++] = values[i];
+                    }
+                }
+            } else {
+                // Для крупного массива проверка по временной битовой карте быстрее слияния с ветвлениями
+                other = other instanceof ArrayContainer array ? array.toBitmap() : other;
+                for (int i = 0; i < cardinality; i++) {
+                    if (!other.contains(values[i])) {
+                        result[count++] = values[i];
+                    }
+                }
+            }
+            return new ArrayContainer(result, count);
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(cardinality, 1)), cardinality);
+        }
+
+        @Override
+        void forEach(int base, IntConsumer consumer) {
+            for (int i = 0; i < cardinality; i++) {
+                consumer.accept(base | values[i]);
+            }
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 16L + values.length * 2L;
+        }
+
+        private BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < cardinality; i++) {
+                bitmap.set(values[i]);
+            }
+            return bitmap;
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        private final long[] words;
+        private int cardinality;
+
+        BitmapContainer() {
+            this(new long[BITMAP_WORDS], 0);
+        }
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        void set(char value) {
+            long before = words[value >>> 6];
+            long after = before | (1L << value);
+            if (before != after) {
+                words[value >>> 6] = after;
+                cardinality++;
+            }
+        }
+
+        @Override
+        Container add(char value) {
+            set(value);
+            return this;
+        }
+
+        void clear(char value) {
+            long before = words[value >>> 6];
+            long after = before & ~(1L << value);
+            if (before != after) {
+                words[value >>> 6] = after;
+                cardinality--;
+            }
+        }
+
+        @Override
+        Container remove(char value) {
+            clear(value);
+            return normalize();
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer array) {
+                return array.and(this);
+            }
+            long[] otherWords = ((BitmapContainer) other).words;
+            long[] result = new long[BITMAP_WORDS];
+            int count = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                result[i] = words[i] & otherWords[i];
+                count += Long.bitCount(result[i]);
+            }
+            return new BitmapContainer(result, count).normalize();
+        }
+
+        @Override
+        Container or(Container other) {
+            BitmapContainer result = new BitmapContainer(words.clone(), cardinality);
+            if (other instanceof ArrayContainer array) {
+                for (int j = 0; j < array.cardinality; j++) {
+                    result.set(array.values[j]);
+                }
+                return result;
+            }
+            long[] otherWords = ((BitmapContainer) other).words;
+            int count = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                result.words[i] |= otherWords[i];
+                count += Long.bitCount(result.words[i]);
+            }
+            result.cardinality = count;
+            return result;
+        }
+
+        /**
+         * Добавляет значения другого контейнера в этот (для {@link #union(List)}).
+         */
+        void orInPlace(Container other) {
+            if (other instanceof ArrayContainer array) {
+                for (int j = 0; j < array.cardinality; j++) {
+                    set(array.values[j]);
+                }
+                return;
+            }
+            long[] otherWords = ((BitmapContainer) other).words;
+            int count = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                words[i] |= otherWords[i];
+                count += Long.bitCount(words[i]);
+            }
+            cardinality = count;
+        }
+
+        @Override
+        Container andNot(Container other) {
+            BitmapContainer result = new BitmapContainer(words.clone(), cardinality);
+            if (other instanceof ArrayContainer array) {
+                for (int j = 0; j < array.cardinality; j++) {
+                    result.clear(array.values[j]);
+                }
+                return result.normalize();
+            }
+            long[] otherWords = ((BitmapContainer) other).words;
+            int count = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                result.words[i] &= ~otherWords[i];
+                count += Long.bitCount(result.words[i]);
+            }
+            result.cardinality = count;
+            return result.normalize();
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(words.clone(), cardinality);
+        }
+
+        @Override
+        void forEach(int base, IntConsumer consumer) {
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    consumer.accept(base | (i << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 16L + BITMAP_WORDS * 8L;
+        }
+
+        /**
+         * Возвращает массив, если значений стало не больше {@value #ARRAY_LIMIT}.
+         */
+        Container normalize() {
+            if (cardinality > ARRAY_LIMIT) {
+                return this;
+            }
+            char[] values = new char[Math.max(cardinality, 1)];
+            int[] count = {0};
+            forEach(0, value -> values[count[0]++] = (char) value);
+            return new ArrayContainer(values, cardinality);
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package com.example.imagetagger.core.index;
+
+import com.example.imagetagger.core.model.Tag;
+import com.example.imagetagger.core.query.TagQuery;
+import com.example.imagetagger.persistence.dao.FileTagLinkDAO;
+import com.example.imagetagger.persistence.dao.TagDAO;
+import com.example.imagetagger.persistence.dao.TrackedFileDAO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Инвертированный индекс в памяти: ID тега -> {@link FileIdBitmap} отмеченных им файлов.
+ * Строится один раз из file_tag_links ({@link #load()}) и дальше обновляется TrackedFileService
+ * и TagService вместе с записью в БД, поэтому фильтр по тегам вычисляется без обращения к диску.
+ * <p>
+ * Изменения, пришедшие во время загрузки, откладываются и применяются после нее: загрузка читает
+ * БД без блокировки, а связь могла успеть измениться уже после того, как ее прочитали.
+ * Пока индекс не загружен, {@link #evaluate(TagQuery)} возвращает Optional.empty() и фильтр идет через SQL.
+ */
+public class TagBitmapIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(TagBitmapIndex.class);
+
+    /**
+     * Содержимое индекса; заменяется целиком после загрузки.
+     */
+    private static final class State {
+        final Map<Long, FileIdBitmap> filesByTag = new HashMap<>();
+        final Map<String, Set<Long>> tagIdsByName = new HashMap<>(); // Имя в нижнем регистре -> ID ("Кот" и "кот" - два тега)
+        final FileIdBitmap allFiles = new FileIdBitmap(); // Нужно для NOT
+    }
+
+    private final TrackedFileDAO trackedFileDAO;
+    private final FileTagLinkDAO fileTagLinkDAO;
+    private final TagDAO tagDAO;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private State state; // null - индекс не загружен; под lock
+    private List<Consumer<State>> pendingChanges; // Не null во время загрузки; под lock
+
+    public TagBitmapIndex() {
+        this(new TrackedFileDAO(), new FileTagLinkDAO(), new TagDAO());
+    }
+
+    public TagBitmapIndex(TrackedFileDAO trackedFileDAO, FileTagLinkDAO fileTagLinkDAO, TagDAO tagDAO) {
+        this.trackedFileDAO = trackedFileDAO;
+        this.fileTagLinkDAO = fileTagLinkDAO;
+        this.tagDAO = tagDAO;
+    }
+
+    /**
+     * Загружает индекс из БД (синхронно; вызывать в фоновом потоке).
+     *
+     * @return true, если индекс загружен и готов к использованию.
+     */
+    public boolean load() {
+        lock.writeLock().lock();
+        try {
+            if (pendingChanges != null) {
+                logger.warn("Tag index is already loading.");
+                return false;
+            }
+            pendingChanges = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        long start = System.nanoTime();
+        State loaded = new State();
+        boolean complete;
+        try {
+            for (Tag tag : tagDAO.getAll()) {
+                addTagName(loaded, tag);
+            }
+            long[] linkCount = {0};
+            // Связи идут по порядку (tag_id, file_id): bitmap тега заполняется последовательно
+            complete = fileTagLinkDAO.forEachLink((fileId, tagId) -> {
+                loaded.filesByTag.computeIfAbsent(tagId, id -> new FileIdBitmap()).add(FileIdBitmap.toIndexId(fileId));
+                linkCount[0]++;
+            }) && trackedFileDAO.forEachFileId(fileId -> loaded.allFiles.add(FileIdBitmap.toIndexId(fileId)));
+            if (complete) {
+                logger.info("Tag index loaded in {} ms: {} files, {} tags, {} links, ~{} KB.",
+                        (System.nanoTime() - start) / 1_000_000, loaded.allFiles.getCardinality(),
+                        loaded.filesByTag.size(), linkCount[0], estimateBytes(loaded) / 1024);
+            }
+        } catch (IllegalArgumentException e) {
+            logger.warn("Tag index disabled: {}", e.getMessage());
+            complete = false;
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (complete) {
+                try {
+                    pendingChanges.forEach(change -> change.accept(loaded));
+                    state = loaded;
+                } catch (IllegalArgumentException e) {
+                    logger.warn("Tag index disabled: {}", e.getMessage());
+                    complete = false;
+                }
+            }
+            if (!complete) {
+                logger.warn("Tag index is not available, tag filters will use SQL queries.");
+            }
+            pendingChanges = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return complete;
+    }
+
+    public boolean isLoaded() {
+        lock.readLock().lock();
+        try {
+            return state != null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Вычисляет выражение над тегами. Пересечение начинается с самого редкого тега.
+     *
+     * @return Множество ID подходящих файлов или Optional.empty(), если индекс не загружен.
+     */
+    public Optional<FileIdBitmap> evaluate(TagQuery query) {
+        lock.readLock().lock();
+        try {
+            if (state == null) {
+                return Optional.empty();
+            }
+            FileIdBitmap result = evaluate(state, query);
+            // Тег без операций (или пустое пересечение) - это bitmap самого индекса, наружу отдаем копию
+            return Optional.of(query instanceof TagQuery.TagTerm || result.isEmpty() ? result.copy() : result);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static FileIdBitmap evaluate(State state, TagQuery query) {
+        return switch (query) {
+            case TagQuery.TagTerm term -> {
+                List<FileIdBitmap> operands = new ArrayList<>();
+                for (long tagId : state.tagIdsByName.getOrDefault(TagQuery.normalize(term.name()), Set.of())) {
+                    FileIdBitmap files = state.filesByTag.get(tagId);
+                    if (files != null) {
+                        operands.add(files);
+                    }
+                }
+                yield switch (operands.size()) {
+                    case 0 -> new FileIdBitmap();
+                    case 1 -> operands.get(0);
+                    default -> FileIdBitmap.union(operands); // Все теги с этим именем без учета регистра
+                };
+            }
+            case TagQuery.Or or -> {
+                List<FileIdBitmap> operands = new ArrayList<>();
+                for (TagQuery operand : or.operands()) {
+                    operands.add(evaluate(state, operand));
+                }
+                yield FileIdBitmap.union(operands);
+            }
+            case TagQuery.Not not -> state.allFiles.andNot(evaluate(state, not.operand()));
+            case TagQuery.And and -> {
+                List<FileIdBitmap> included = new ArrayList<>();
+                List<FileIdBitmap> excluded = new ArrayList<>();
+                for (TagQuery operand : and.operands()) {
+                    if (operand instanceof TagQuery.Not not) {
+                        excluded.add(evaluate(state, not.operand()));
+                    } else {
+                        included.add(evaluate(state, operand));
+                    }
+                }
+                included.sort((a, b) -> Integer.compare(a.getCardinality(), b.getCardinality()));
+                FileIdBitmap result = included.isEmpty() ? state.allFiles : included.get(0);
+                for (int i = 1; i < included.size() && !result.isEmpty(); i++) {
+                    result = result.and(included.get(i));
+                }
+                for (int i = 0; i < excluded.size() && !result.isEmpty(); i++) {
+                    result = result.andNot(excluded.get(i));
+                }
+                yield result;
+            }
+        };
+    }
+
+    /**
+     * Число файлов с тегом, или -1, если индекс не загружен.
+     */
+    public int getFileCount(long tagId) {
+        lock.readLock().lock();
+        try {
+            if (state == null) {
+                return -1;
+            }
+            FileIdBitmap files = state.filesByTag.get(tagId);
+            return files != null ? files.getCardinality() : 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void onFilesAdded(Collection<Long> fileIds) {
+        List<Long> ids = List.copyOf(fileIds);
+        apply(state -> ids.forEach(id -> state.allFiles.add(FileIdBitmap.toIndexId(id))));
+    }
+
+    public void onTagLinked(long fileId, Tag tag) {
+        apply(state -> link(state, fileId, tag));
+    }
+
+    public void onTagUnlinked(long fileId, long tagId) {
+        apply(state -> {
+            FileIdBitmap files = state.filesByTag.get(tagId);
+            if (files != null) {
+                files.remove(FileIdBitmap.toIndexId(fileId));
+            }
+        });
+    }
+
+    /**
+     * Набор тегов файла заменен целиком (TrackedFileService.setTagsForFile).
+     */
+    public void onTagsReplaced(long fileId, Collection<Tag> tags) {
+        List<Tag> newTags = List.copyOf(tags);
+        apply(state -> {
+            int id = FileIdBitmap.toIndexId(fileId);
+            for (FileIdBitmap files : state.filesByTag.values()) {
+                files.remove(id);
+            }
+            newTags.forEach(tag -> link(state, fileId, tag));
+        });
+    }
+
+    public void onTagDeleted(long tagId) {
+        apply(state -> {
+            state.filesByTag.remove(tagId);
+            state.tagIdsByName.values().removeIf(tagIds -> tagIds.remove(tagId) && tagIds.isEmpty());
+        });
+    }
+
+    private static void link(State state, long fileId, Tag tag) {
+        int id = FileIdBitmap.toIndexId(fileId);
+        addTagName(state, tag);
+        state.filesByTag.computeIfAbsent(tag.getId(), tagId -> new FileIdBitmap()).add(id);
+        state.allFiles.add(id);
+    }
+
+    private static void addTagName(State state, Tag tag) {
+        state.tagIdsByName.computeIfAbsent(TagQuery.normalize(tag.getName()), name -> new HashSet<>()).add(tag.getId());
+    }
+
+    private void apply(Consumer<State> change) {
+        lock.writeLock().lock();
+        try {
+            if (pendingChanges != null) {
+                pendingChanges.add(change);
+            } else if (state != null) {
+                change.accept(state);
+            }
+        } catch (IllegalArgumentException e) {
+            // ID вне диапазона bitmap: индекс больше не соответствует БД, дальше фильтруем через SQL
+            logger.warn("Tag index disabled: {}", e.getMessage());
+            state = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static long estimateBytes(State state) {
+        long bytes = state.allFiles.getSizeInBytes();
+        for (FileIdBitmap files : state.filesByTag.values()) {
+            bytes += files.getSizeInBytes();
+        }
+        return bytes;
+    }
+}
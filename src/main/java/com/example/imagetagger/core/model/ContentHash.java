@@ -0,0 +1,90 @@
+package com.example.imagetagger.core.model;
+
+import java.util.Arrays;
+
+/**
+ * Хэш содержимого файла. Хранится как байты дайджеста (в БД - BLOB), hex-строка строится только там,
+ * где она действительно нужна: имена файлов миниатюр, логи.
+ * Неизменяемый; equals/hashCode сравнивают байты.
+ */
+public final class ContentHash {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final byte[] bytes;
+    private final int hashCode;
+
+    private ContentHash(byte[] bytes) {
+        this.bytes = bytes;
+        this.hashCode = Arrays.hashCode(bytes);
+    }
+
+    /**
+     * @param digest Байты дайджеста; копируются.
+     */
+    public static ContentHash of(byte[] digest) {
+        if (digest == null || digest.length == 0) {
+            throw new IllegalArgumentException("Content hash must not be empty");
+        }
+        return new ContentHash(digest.clone());
+    }
+
+    /**
+     * Разбирает hex-строку (в любом регистре).
+     *
+     * @throws IllegalArgumentException Если строка пустая, нечетной длины или содержит не hex-символы.
+     */
+    public static ContentHash fromHex(String hex) {
+        if (hex == null || hex.isEmpty() || hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("Invalid content hash: " + hex);
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Invalid content hash: " + hex);
+            }
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return new ContentHash(bytes);
+    }
+
+    /**
+     * Копия байтов дайджеста.
+     */
+    public byte[] toBytes() {
+        return bytes.clone();
+    }
+
+    public int length() {
+        return bytes.length;
+    }
+
+    public String toHex() {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xff;
+            hex[2 * i] = HEX_DIGITS[b >>> 4];
+            hex[2 * i + 1] = HEX_DIGITS[b & 0x0f];
+        }
+        return new String(hex);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ContentHash that)) return false;
+        return hashCode == that.hashCode && Arrays.equals(bytes, that.bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return toHex();
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.imagetagger.core.model;
+
+import com.example.imagetagger.util.HashAlgorithm;
+
+import java.util.Objects;
+
+/**
+ * Ключ содержимого файла для кэшей (например, миниатюр): хэш вместе с алгоритмом, которым он посчитан.
+ * Хэши разных алгоритмов несравнимы, а у некоторых (MD5 и MurmurHash3) совпадает даже длина,
+ * поэтому одного {@link ContentHash} для ключа недостаточно.
+ */
+public record ContentKey(HashAlgorithm algorithm, ContentHash hash) {
+
+    public ContentKey {
+        Objects.requireNonNull(algorithm, "algorithm");
+        Objects.requireNonNull(hash, "hash");
+    }
+
+    @Override
+    public String toString() {
+        return algorithm.getJcaName() + ":" + hash.toHex();
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.imagetagger.core.model;
+
+/**
+ * Состояние папки на момент последнего полного сканирования.
+ * Если дата модификации папки с тех пор не изменилась, в ней не добавлялись, не удалялись
+ * и не переименовывались файлы, и повторное сканирование можно пропустить.
+ */
+public class DirectorySnapshot {
+    private final String directoryPath;
+    private final long modifiedDate; // Дата модификации самой папки (Unix timestamp)
+    private final int entryCount;    // Сколько поддерживаемых файлов было найдено
+    private final long scannedDate;  // Когда началось сканирование (Unix timestamp)
+
+    public DirectorySnapshot(String directoryPath, long modifiedDate, int entryCount, long scannedDate) {
+        this.directoryPath = directoryPath;
+        this.modifiedDate = modifiedDate;
+        this.entryCount = entryCount;
+        this.scannedDate = scannedDate;
+    }
+
+    public String getDirectoryPath() {
+        return directoryPath;
+    }
+
+    public long getModifiedDate() {
+        return modifiedDate;
+    }
+
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    public long getScannedDate() {
+        return scannedDate;
+    }
+
+    @Override
+    public String toString() {
+        return "DirectorySnapshot{" +
+               "directoryPath='" + directoryPath + '\'' +
+               ", modifiedDate=" + modifiedDate +
+               ", entryCount=" + entryCount +
+               '}';
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.imagetagger.core.model;
+
+import com.example.imagetagger.util.HashAlgorithm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Группа файлов с одинаковым содержимым (одним content_hash, посчитанным одним алгоритмом:
+ * хэши разных алгоритмов могут совпасть по длине, но не описывают одно и то же содержимое).
+ */
+public class DuplicateCluster {
+    private final HashAlgorithm hashAlgorithm;
+    private final ContentHash contentHash;
+    private final List<TrackedFile> files;
+
+    public DuplicateCluster(HashAlgorithm hashAlgorithm, ContentHash contentHash, List<TrackedFile> files) {
+        this.hashAlgorithm = hashAlgorithm;
+        this.contentHash = contentHash;
+        this.files = new ArrayList<>(files);
+    }
+
+    public HashAlgorithm getHashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    public ContentHash getContentHash() {
+        return contentHash;
+    }
+
+    public List<TrackedFile> getFiles() {
+        return files;
+    }
+
+    /**
+     * Размер одной копии (у файлов с одинаковым хэшем он совпадает).
+     */
+    public long getSizeBytes() {
+        return files.isEmpty() ? 0 : files.get(0).getSizeBytes();
+    }
+
+    /**
+     * Сколько места освободится, если оставить одну копию.
+     */
+    public long getWastedBytes() {
+        return getSizeBytes() * Math.max(0, files.size() - 1);
+    }
+
+    @Override
+    public String toString() {
+        return "DuplicateCluster{" +
+               "hashAlgorithm=" + hashAlgorithm +
+               ", contentHash=" + contentHash +
+               ", files=" + files.size() +
+               ", wastedBytes=" + getWastedBytes() +
+               '}';
+    }
+}
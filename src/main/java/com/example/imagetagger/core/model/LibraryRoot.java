@@ -0,0 +1,53 @@
+package com.example.imagetagger.core.model;
+
+import java.io.File;
+
+/**
+ * Папка, добавленная в библиотеку. Сканируется вместе с подпапками.
+ */
+public class LibraryRoot {
+    private long id; // Идентификатор из БД
+    private String absolutePath;
+    private long addedDate; // Unix timestamp
+
+    // Конструктор для новой папки (id еще не присвоен)
+    public LibraryRoot(String absolutePath, long addedDate) {
+        this.absolutePath = absolutePath;
+        this.addedDate = addedDate;
+    }
+
+    // Конструктор для папки, загруженной из БД (с id)
+    public LibraryRoot(long id, String absolutePath, long addedDate) {
+        this.id = id;
+        this.absolutePath = absolutePath;
+        this.addedDate = addedDate;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public String getAbsolutePath() {
+        return absolutePath;
+    }
+
+    public long getAddedDate() {
+        return addedDate;
+    }
+
+    public File getFile() {
+        return new File(absolutePath);
+    }
+
+    @Override
+    public String toString() {
+        return "LibraryRoot{" +
+               "id=" + id +
+               ", absolutePath='" + absolutePath + '\'' +
+               '}';
+    }
+}
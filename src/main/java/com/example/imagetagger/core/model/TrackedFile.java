@@ -1,5 +1,7 @@
 package com.example.imagetagger.core.model;
 
+import com.example.imagetagger.util.HashAlgorithm;
+
 import java.io.File;
 import java.util.HashSet;
 import java.util.Objects;
@@ -9,7 +11,9 @@ public class TrackedFile {
     private long id; // Идентификатор из БД
     private String absolutePath;
     private File file; // Для удобства доступа к самому объекту File
-    private String contentHash;
+    private ContentHash contentHash; // null, пока полный хэш не понадобился (см. fingerprint)
+    private ContentHash fingerprint; // Хэш размера, начала и конца файла; null у записей, созданных до отпечатков
+    private HashAlgorithm hashAlgorithm = HashAlgorithm.DEFAULT; // Алгоритм, которым посчитаны contentHash и fingerprint
     private long sizeBytes;
     private long modifiedDate; // Unix timestamp
     private long lastSeenDate; // Unix timestamp
@@ -17,7 +21,7 @@ public class TrackedFile {
     private Set<Tag> tags = new HashSet<>(); // Теги, присвоенные этому файлу
 
     // Конструктор для нового файла, еще не сохраненного в БД
-    public TrackedFile(String absolutePath, String contentHash, long sizeBytes, long modifiedDate) {
+    public TrackedFile(String absolutePath, ContentHash contentHash, long sizeBytes, long modifiedDate) {
         this.absolutePath = absolutePath;
         this.file = new File(absolutePath); // file создается здесь
         this.contentHash = contentHash;
@@ -27,7 +31,7 @@ public class TrackedFile {
     }
 
     // Конструктор для файла, загруженного из БД
-    public TrackedFile(long id, String absolutePath, String contentHash, long sizeBytes, long modifiedDate, long lastSeenDate) {
+    public TrackedFile(long id, String absolutePath, ContentHash contentHash, long sizeBytes, long modifiedDate, long lastSeenDate) {
         this.id = id;
         this.absolutePath = absolutePath;
         this.file = new File(absolutePath); // file создается здесь
@@ -69,14 +73,41 @@ public class TrackedFile {
         return getFile().getName();
     }
 
-    public String getContentHash() {
+    public ContentHash getContentHash() {
         return contentHash;
     }
 
-    public void setContentHash(String contentHash) {
+    public void setContentHash(ContentHash contentHash) {
         this.contentHash = contentHash;
     }
 
+    public ContentHash getFingerprint() {
+        return fingerprint;
+    }
+
+    public void setFingerprint(ContentHash fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    public HashAlgorithm getHashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    public void setHashAlgorithm(HashAlgorithm hashAlgorithm) {
+        this.hashAlgorithm = hashAlgorithm;
+    }
+
+    /**
+     * Ключ содержимого для кэшей (например, миниатюр): полный хэш, если он посчитан, иначе отпечаток, - вместе
+     * с алгоритмом. Когда полный хэш досчитывается, ключ меняется (у файлов до 128 КБ отпечаток и есть полный хэш).
+     *
+     * @return Ключ или null, если у файла нет ни хэша, ни отпечатка.
+     */
+    public ContentKey getContentKey() {
+        ContentHash hash = contentHash != null ? contentHash : fingerprint;
+        return hash != null ? new ContentKey(hashAlgorithm, hash) : null;
+    }
+
     public long getSizeBytes() {
         return sizeBytes;
     }
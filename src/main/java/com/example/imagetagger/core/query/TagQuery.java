@@ -0,0 +1,149 @@
+package com.example.imagetagger.core.query;
+
+import com.example.imagetagger.core.model.Tag;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Логическое выражение над тегами, например {@code cat AND (outdoor OR beach) AND NOT blurry}.
+ * Имена тегов сравниваются без учета регистра, как и в БД. Строка разбирается {@link TagQueryParser};
+ * в SQL выражение переводит FileTagLinkDAO.
+ */
+public sealed interface TagQuery permits TagQuery.TagTerm, TagQuery.And, TagQuery.Or, TagQuery.Not {
+
+    /**
+     * Файл отмечен тегом с этим именем.
+     */
+    record TagTerm(String name) implements TagQuery {
+        public TagTerm {
+            if (name == null || name.isBlank()) {
+                throw new IllegalArgumentException("Tag name must not be blank");
+            }
+        }
+
+        @Override
+        public boolean matchesNames(Set<String> lowerCaseTagNames) {
+            return lowerCaseTagNames.contains(normalize(name));
+        }
+
+        @Override
+        public String toString() {
+            return TagQueryParser.isPlainWord(name) ? name : '"' + name + '"';
+        }
+    }
+
+    record And(List<TagQuery> operands) implements TagQuery {
+        public And {
+            operands = List.copyOf(operands);
+        }
+
+        @Override
+        public boolean matchesNames(Set<String> lowerCaseTagNames) {
+            return operands.stream().allMatch(operand -> operand.matchesNames(lowerCaseTagNames));
+        }
+
+        @Override
+        public String toString() {
+            return operands.stream()
+                    .map(operand -> operand instanceof Or ? "(" + operand + ")" : operand.toString())
+                    .collect(Collectors.joining(" AND "));
+        }
+    }
+
+    record Or(List<TagQuery> operands) implements TagQuery {
+        public Or {
+            operands = List.copyOf(operands);
+        }
+
+        @Override
+        public boolean matchesNames(Set<String> lowerCaseTagNames) {
+            return operands.stream().anyMatch(operand -> operand.matchesNames(lowerCaseTagNames));
+        }
+
+        @Override
+        public String toString() {
+            return operands.stream().map(TagQuery::toString).collect(Collectors.joining(" OR "));
+        }
+    }
+
+    record Not(TagQuery operand) implements TagQuery {
+        @Override
+        public boolean matchesNames(Set<String> lowerCaseTagNames) {
+            return !operand.matchesNames(lowerCaseTagNames);
+        }
+
+        @Override
+        public String toString() {
+            return operand instanceof TagTerm || operand instanceof Not ? "NOT " + operand : "NOT (" + operand + ")";
+        }
+    }
+
+    /**
+     * Разбирает строку запроса.
+     *
+     * @throws TagQuerySyntaxException Если строка не является корректным запросом.
+     */
+    static TagQuery parse(String text) {
+        return new TagQueryParser(text).parse();
+    }
+
+    /**
+     * Запрос "хотя бы один из тегов" (прежний режим фильтра по выбранным тегам).
+     */
+    static TagQuery anyOf(Collection<Tag> tags) {
+        List<TagQuery> terms = new ArrayList<>();
+        for (Tag tag : tags) {
+            terms.add(new TagTerm(tag.getName()));
+        }
+        if (terms.isEmpty()) {
+            throw new IllegalArgumentException("At least one tag is required");
+        }
+        return terms.size() == 1 ? terms.get(0) : new Or(terms);
+    }
+
+    /**
+     * Проверяет выражение на наборе имен тегов одного файла (в нижнем регистре).
+     */
+    boolean matchesNames(Set<String> lowerCaseTagNames);
+
+    /**
+     * Проверяет выражение на тегах файла без обращения к БД (например, для файлов, пришедших от DirectoryWatchService).
+     */
+    default boolean matches(Collection<Tag> tags) {
+        Set<String> names = new HashSet<>();
+        if (tags != null) {
+            for (Tag tag : tags) {
+                names.add(normalize(tag.getName()));
+            }
+        }
+        return matchesNames(names);
+    }
+
+    /**
+     * Все имена тегов, упомянутые в запросе, в нижнем регистре.
+     */
+    default Set<String> getTagNames() {
+        Set<String> names = new HashSet<>();
+        collectTagNames(this, names);
+        return names;
+    }
+
+    private static void collectTagNames(TagQuery query, Set<String> names) {
+        switch (query) {
+            case TagTerm term -> names.add(normalize(term.name()));
+            case And and -> and.operands().forEach(operand -> collectTagNames(operand, names));
+            case Or or -> or.operands().forEach(operand -> collectTagNames(operand, names));
+            case Not not -> collectTagNames(not.operand(), names);
+        }
+    }
+
+    static String normalize(String tagName) {
+        return tagName.trim().toLowerCase(Locale.ROOT);
+    }
+}
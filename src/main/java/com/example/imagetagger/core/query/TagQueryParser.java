@@ -0,0 +1,197 @@
+package com.example.imagetagger.core.query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Разбор запроса по тегам методом рекурсивного спуска.
+ * <pre>
+ * query   := or EOF
+ * or      := and ( OR and )*
+ * and     := unary ( [AND] unary )*      -- соседние выражения без оператора означают AND
+ * unary   := NOT unary | primary
+ * primary := '(' or ')' | tag | "tag with spaces"
+ * </pre>
+ * Операторы AND, OR, NOT не зависят от регистра; также поддерживаются {@code &}, {@code |} и {@code !} / {@code -}
+ * перед выражением. Тег с именем, совпадающим с оператором или содержащим пробелы и скобки, берется в кавычки.
+ */
+public class TagQueryParser {
+
+    private enum TokenType { WORD, AND, OR, NOT, LEFT_PAREN, RIGHT_PAREN, END }
+
+    private record Token(TokenType type, String text, int position) {
+    }
+
+    private final List<Token> tokens;
+    private int current;
+
+    public TagQueryParser(String text) {
+        this.tokens = tokenize(text != null ? text : "");
+    }
+
+    /**
+     * @throws TagQuerySyntaxException Если строка пуста или не является корректным запросом.
+     */
+    public TagQuery parse() {
+        if (peek().type() == TokenType.END) {
+            throw new TagQuerySyntaxException("Tag query is empty", 0);
+        }
+        TagQuery query = parseOr();
+        Token trailing = peek();
+        if (trailing.type() != TokenType.END) {
+            throw new TagQuerySyntaxException("Unexpected '" + trailing.text() + "'", trailing.position());
+        }
+        return query;
+    }
+
+    private TagQuery parseOr() {
+        List<TagQuery> operands = new ArrayList<>();
+        operands.add(parseAnd());
+        while (peek().type() == TokenType.OR) {
+            current++;
+            operands.add(parseAnd());
+        }
+        return operands.size() == 1 ? operands.get(0) : new TagQuery.Or(operands);
+    }
+
+    private TagQuery parseAnd() {
+        List<TagQuery> operands = new ArrayList<>();
+        operands.add(parseUnary());
+        while (true) {
+            TokenType next = peek().type();
+            if (next == TokenType.AND) {
+                current++;
+            } else if (next != TokenType.WORD && next != TokenType.NOT && next != TokenType.LEFT_PAREN) {
+                break;
+            }
+            operands.add(parseUnary());
+        }
+        return operands.size() == 1 ? operands.get(0) : new TagQuery.And(operands);
+    }
+
+    private TagQuery parseUnary() {
+        Token not = peek();
+        if (not.type() == TokenType.NOT) {
+            current++;
+            TokenType next = peek().type();
+            if (next != TokenType.WORD && next != TokenType.NOT && next != TokenType.LEFT_PAREN) {
+                throw notWithoutOperand(not);
+            }
+            return new TagQuery.Not(parseUnary());
+        }
+        return parsePrimary();
+    }
+
+    /**
+     * Одиночные '-' и '!' легко принять за часть имени тега, поэтому сообщение объясняет, что это NOT,
+     * и подсказывает взять такое имя в кавычки.
+     */
+    private static TagQuerySyntaxException notWithoutOperand(Token not) {
+        if (not.text().equalsIgnoreCase("NOT")) {
+            return new TagQuerySyntaxException("NOT must be followed by a tag name or '('", not.position());
+        }
+        return new TagQuerySyntaxException("'" + not.text() + "' at the start of a word means NOT and must be followed by "
+                + "a tag name or '('; quote tag names that start with it, e.g. \"" + not.text() + "name\"", not.position());
+    }
+
+    private TagQuery parsePrimary() {
+        Token token = peek();
+        switch (token.type()) {
+            case WORD -> {
+                current++;
+                return new TagQuery.TagTerm(token.text());
+            }
+            case LEFT_PAREN -> {
+                current++;
+                TagQuery inner = parseOr();
+                Token closing = peek();
+                if (closing.type() != TokenType.RIGHT_PAREN) {
+                    throw new TagQuerySyntaxException("Missing ')'", closing.position());
+                }
+                current++;
+                return inner;
+            }
+            case END -> throw new TagQuerySyntaxException("Unexpected end of query, tag name expected", token.position());
+            default -> throw new TagQuerySyntaxException("Tag name expected instead of '" + token.text() + "'", token.position());
+        }
+    }
+
+    private Token peek() {
+        return tokens.get(current);
+    }
+
+    private static List<Token> tokenize(String text) {
+        List<Token> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '(') {
+                tokens.add(new Token(TokenType.LEFT_PAREN, "(", i++));
+            } else if (c == ')') {
+                tokens.add(new Token(TokenType.RIGHT_PAREN, ")", i++));
+            } else if (c == '&' || c == '|') {
+                int start = i;
+                while (i < text.length() && text.charAt(i) == c) {
+                    i++; // "&&" и "||" равнозначны одиночным
+                }
+                tokens.add(new Token(c == '&' ? TokenType.AND : TokenType.OR, text.substring(start, i), start));
+            } else if (c == '!' || c == '-') {
+                tokens.add(new Token(TokenType.NOT, String.valueOf(c), i++));
+            } else if (c == '"') {
+                int end = text.indexOf('"', i + 1);
+                if (end < 0) {
+                    throw new TagQuerySyntaxException("Unterminated quoted tag name", i);
+                }
+                String name = text.substring(i + 1, end).trim();
+                if (name.isEmpty()) {
+                    throw new TagQuerySyntaxException("Empty quoted tag name", i);
+                }
+                tokens.add(new Token(TokenType.WORD, name, i));
+                i = end + 1;
+            } else {
+                int start = i;
+                while (i < text.length() && isWordChar(text.charAt(i))) {
+                    i++; // '-' и '!' внутри слова - часть имени ("black-and-white")
+                }
+                String word = text.substring(start, i);
+                tokens.add(new Token(keywordType(word), word, start));
+            }
+        }
+        tokens.add(new Token(TokenType.END, "", text.length()));
+        return tokens;
+    }
+
+    private static TokenType keywordType(String word) {
+        if (word.equalsIgnoreCase("AND")) {
+            return TokenType.AND;
+        }
+        if (word.equalsIgnoreCase("OR")) {
+            return TokenType.OR;
+        }
+        if (word.equalsIgnoreCase("NOT")) {
+            return TokenType.NOT;
+        }
+        return TokenType.WORD;
+    }
+
+    private static boolean isWordChar(char c) {
+        return !Character.isWhitespace(c) && c != '(' && c != ')' && c != '"' && c != '&' && c != '|';
+    }
+
+    /**
+     * Можно ли записать имя тега в запросе без кавычек.
+     */
+    static boolean isPlainWord(String name) {
+        if (name.isEmpty() || name.charAt(0) == '!' || name.charAt(0) == '-' || keywordType(name) != TokenType.WORD) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (!isWordChar(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
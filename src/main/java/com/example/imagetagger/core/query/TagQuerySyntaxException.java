@@ -0,0 +1,23 @@
+package com.example.imagetagger.core.query;
+
+/**
+ * Ошибка разбора запроса по тегам. Позиция указывает на символ, с которого разбор не удался.
+ */
+public class TagQuerySyntaxException extends IllegalArgumentException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int position;
+
+    public TagQuerySyntaxException(String message, int position) {
+        super(message + " (at position " + (position + 1) + ")");
+        this.position = position;
+    }
+
+    /**
+     * Позиция ошибки в строке запроса, начиная с 0.
+     */
+    public int getPosition() {
+        return position;
+    }
+}
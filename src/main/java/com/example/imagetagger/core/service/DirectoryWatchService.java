@@ -0,0 +1,325 @@
+package com.example.imagetagger.core.service;
+
+import com.example.imagetagger.core.model.TrackedFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Следит за открытыми папками через {@link WatchService} и обновляет индекс по мере изменений на диске.
+ * События по одному файлу склеиваются: файл обрабатывается только после того, как по нему
+ * {@code quietPeriodMillis} не было новых событий (например, пока файл дописывается при копировании).
+ * Итоговое действие определяется состоянием файла на момент обработки, а не типом последнего события.
+ * Папка наблюдается вместе с подпапками по тем же правилам ({@link ScanOptions}), что и при сканировании;
+ * новые подпапки регистрируются по мере появления.
+ */
+public class DirectoryWatchService implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(DirectoryWatchService.class);
+    private static final long DEFAULT_QUIET_PERIOD_MILLIS = 1000;
+
+    /**
+     * Получатель изменений. Вызывается из потока наблюдателя.
+     */
+    public interface Listener {
+        /**
+         * @param updatedFiles Новые или изменившиеся файлы, уже сохраненные в БД (с тегами).
+         * @param removedPaths Абсолютные пути файлов, исчезнувших с диска.
+         */
+        void onFilesChanged(List<TrackedFile> updatedFiles, Set<String> removedPaths);
+
+        /**
+         * Очередь событий переполнилась, часть изменений потеряна - папку нужно пересканировать.
+         */
+        void onOverflow(Path directory);
+    }
+
+    private final TrackedFileService trackedFileService;
+    private final long quietPeriodMillis;
+    private final Map<WatchKey, WatchedDirectory> watchedDirectories = new ConcurrentHashMap<>();
+    private final Set<Path> watchedPaths = ConcurrentHashMap.newKeySet(); // Пути из watchedDirectories, для проверки повторов
+    private final Map<Path, Long> pendingPaths = new HashMap<>(); // Путь -> время последнего события; только поток наблюдателя
+    private volatile Listener listener;
+    private WatchService watchService;
+
+    /**
+     * Наблюдаемая папка и правила дерева, к которому она относится.
+     */
+    private record WatchedDirectory(Path path, ScanFilter filter) {
+    }
+
+    public DirectoryWatchService(TrackedFileService trackedFileService) {
+        this(trackedFileService, DEFAULT_QUIET_PERIOD_MILLIS);
+    }
+
+    public DirectoryWatchService(TrackedFileService trackedFileService, long quietPeriodMillis) {
+        this.trackedFileService = trackedFileService;
+        this.quietPeriodMillis = quietPeriodMillis;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void watch(File directory) {
+        watch(directory, new ScanOptions());
+    }
+
+    /**
+     * Начинает следить за папкой и ее подпапками (с учетом глубины, исключений и ссылок из options).
+     * Поток наблюдателя запускается при первом вызове.
+     */
+    public synchronized void watch(File directory, ScanOptions options) {
+        if (directory == null || !directory.isDirectory()) {
+            logger.warn("Cannot watch non-directory: {}", directory);
+            return;
+        }
+        Path root = directory.toPath().toAbsolutePath().normalize();
+        try {
+            ensureStarted();
+            int registered = registerTree(root, new ScanFilter(root, options), null);
+            logger.info("Watching directory for changes: {} ({} directories)", root, registered);
+        } catch (IOException e) {
+            logger.error("Failed to watch directory: {}", root, e);
+        }
+    }
+
+    /**
+     * Регистрирует папку и ее подпапки. Если передан newFiles, в него добавляются найденные файлы:
+     * это нужно для только что созданных папок, файлы в которых могли появиться до регистрации.
+     */
+    private int registerTree(Path start, ScanFilter filter, List<Path> newFiles) throws IOException {
+        int[] registered = {0};
+        int remainingDepth = filter.getMaxDepth() - filter.depthOf(start);
+        if (remainingDepth < 1) {
+            return 0;
+        }
+        Files.walkFileTree(start, filter.visitOptions(), remainingDepth, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (filter.isExcluded(dir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                if (register(dir, filter)) {
+                    registered[0]++;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (newFiles != null && attrs.isRegularFile() && isWatchedFile(file, filter)) {
+                    newFiles.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                logger.warn("Cannot watch {}: {}", file, exc.toString());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return registered[0];
+    }
+
+    private boolean register(Path dir, ScanFilter filter) throws IOException {
+        if (!watchedPaths.add(dir)) {
+            return false;
+        }
+        try {
+            WatchKey key = dir.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            watchedDirectories.put(key, new WatchedDirectory(dir, filter));
+            return true;
+        } catch (IOException | RuntimeException e) {
+            watchedPaths.remove(dir);
+            throw e;
+        }
+    }
+
+    private static boolean isWatchedFile(Path file, ScanFilter filter) {
+        return filter.acceptsFile(file);
+    }
+
+    /**
+     * Перестает следить за папкой и всеми ее подпапками.
+     */
+    public synchronized void unwatch(File directory) {
+        Path path = directory.toPath().toAbsolutePath().normalize();
+        Iterator<Map.Entry<WatchKey, WatchedDirectory>> it = watchedDirectories.entrySet().iterator();
+        int removed = 0;
+        while (it.hasNext()) {
+            Map.Entry<WatchKey, WatchedDirectory> entry = it.next();
+            if (entry.getValue().path().startsWith(path)) {
+                entry.getKey().cancel();
+                it.remove();
+                watchedPaths.remove(entry.getValue().path());
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            logger.info("Stopped watching directory: {} ({} directories)", path, removed);
+        }
+    }
+
+    public synchronized void unwatchAll() {
+        watchedDirectories.keySet().forEach(WatchKey::cancel);
+        watchedDirectories.clear();
+        watchedPaths.clear();
+    }
+
+    @Override
+    public synchronized void close() {
+        unwatchAll();
+        if (watchService != null) {
+            try {
+                watchService.close(); // Поток наблюдателя завершится по ClosedWatchServiceException
+            } catch (IOException e) {
+                logger.warn("Error closing watch service.", e);
+            }
+            watchService = null;
+        }
+    }
+
+    private void ensureStarted() throws IOException {
+        if (watchService != null) {
+            return;
+        }
+        watchService = FileSystems.getDefault().newWatchService();
+        WatchService service = watchService;
+        Thread.ofPlatform().name("directory-watcher").daemon(true).start(() -> runLoop(service));
+    }
+
+    private void runLoop(WatchService service) {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                // Пока есть отложенные пути, просыпаемся, чтобы обработать те, что "успокоились"
+                WatchKey key = pendingPaths.isEmpty()
+                        ? service.take()
+                        : service.poll(quietPeriodMillis, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    collectEvents(key);
+                }
+                processQuietPaths();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // Нормальное завершение через close()
+        }
+        logger.debug("Directory watcher stopped.");
+    }
+
+    private void collectEvents(WatchKey key) {
+        WatchedDirectory watched = watchedDirectories.get(key);
+        if (watched == null) {
+            key.cancel();
+            return;
+        }
+        Path directory = watched.path();
+        ScanFilter filter = watched.filter();
+        long now = System.currentTimeMillis();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                logger.warn("Watch event overflow in {}. A rescan is required.", directory);
+                Listener current = listener;
+                if (current != null) {
+                    current.onOverflow(filter.getRoot()); // Пересканировать нужно все дерево
+                }
+                continue;
+            }
+            Path changed = directory.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changed)
+                    && (filter.isFollowLinks() || !Files.isSymbolicLink(changed))) {
+                watchNewDirectory(changed, filter, now);
+            } else if (isWatchedFile(changed, filter)) {
+                pendingPaths.put(changed, now);
+            }
+        }
+        if (!key.reset()) {
+            watchedDirectories.remove(key);
+            watchedPaths.remove(directory);
+            logger.info("Directory is no longer accessible and will not be watched: {}", directory);
+        }
+    }
+
+    private void watchNewDirectory(Path directory, ScanFilter filter, long eventTime) {
+        if (filter.isExcluded(directory)) {
+            return;
+        }
+        List<Path> newFiles = new ArrayList<>();
+        synchronized (this) {
+            if (watchService == null) {
+                return; // Наблюдатель уже закрыт
+            }
+            try {
+                int registered = registerTree(directory, filter, newFiles);
+                logger.info("Watching new directory: {} ({} directories, {} files)", directory, registered, newFiles.size());
+            } catch (IOException e) {
+                logger.warn("Failed to watch new directory: {}", directory, e);
+            }
+        }
+        newFiles.forEach(file -> pendingPaths.put(file, eventTime));
+    }
+
+    private void processQuietPaths() {
+        if (pendingPaths.isEmpty()) {
+            return;
+        }
+        long threshold = System.currentTimeMillis() - quietPeriodMillis;
+        List<TrackedFile> updated = new ArrayList<>();
+        Set<String> removed = new HashSet<>();
+        Iterator<Map.Entry<Path, Long>> it = pendingPaths.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, Long> entry = it.next();
+            if (entry.getValue() > threshold) {
+                continue; // По файлу еще идут события
+            }
+            it.remove();
+            Path path = entry.getKey();
+            if (Files.isRegularFile(path)) {
+                trackedFileService.getOrCreateTrackedFile(path.toFile()).ifPresent(updated::add);
+            } else {
+                // Запись в БД не удаляем: теги должны пережить перемещение файла
+                removed.add(path.toString());
+            }
+        }
+        if (updated.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+        logger.info("Index updated from file system events: {} changed, {} removed.", updated.size(), removed.size());
+        Listener current = listener;
+        if (current != null) {
+            try {
+                current.onFilesChanged(updated, removed);
+            } catch (RuntimeException e) {
+                logger.error("Directory watch listener failed.", e);
+            }
+        }
+    }
+}
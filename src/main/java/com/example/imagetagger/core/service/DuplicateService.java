@@ -0,0 +1,93 @@
+package com.example.imagetagger.core.service;
+
+import com.example.imagetagger.core.index.TagBitmapIndex;
+import com.example.imagetagger.core.model.DuplicateCluster;
+import com.example.imagetagger.core.model.Tag;
+import com.example.imagetagger.persistence.dao.FileTagLinkDAO;
+import com.example.imagetagger.persistence.dao.TagDAO;
+import com.example.imagetagger.persistence.dao.TrackedFileDAO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Поиск файлов с одинаковым содержимым и перенос тегов между их копиями.
+ */
+public class DuplicateService {
+    private static final Logger logger = LoggerFactory.getLogger(DuplicateService.class);
+
+    private final TrackedFileDAO trackedFileDAO;
+    private final FileTagLinkDAO fileTagLinkDAO;
+    private final TagDAO tagDAO;
+    private volatile TagBitmapIndex tagIndex; // Необязательный индекс тегов в памяти
+
+    public DuplicateService() {
+        this.tagDAO = new TagDAO();
+        this.trackedFileDAO = new TrackedFileDAO();
+        this.fileTagLinkDAO = new FileTagLinkDAO(this.tagDAO);
+    }
+
+    // Конструктор для DI (например, для тестов)
+    public DuplicateService(TrackedFileDAO trackedFileDAO, FileTagLinkDAO fileTagLinkDAO, TagDAO tagDAO) {
+        this.trackedFileDAO = trackedFileDAO;
+        this.fileTagLinkDAO = fileTagLinkDAO;
+        this.tagDAO = tagDAO;
+    }
+
+    /**
+     * Подключает индекс тегов в памяти, в который нужно добавлять перенесенные теги.
+     */
+    public void setTagIndex(TagBitmapIndex tagIndex) {
+        this.tagIndex = tagIndex;
+    }
+
+    /**
+     * Группы дубликатов по всей БД, по убыванию занятого копиями места. Теги файлов не загружаются.
+     */
+    public List<DuplicateCluster> findDuplicates() {
+        long start = System.nanoTime();
+        List<DuplicateCluster> clusters = trackedFileDAO.getDuplicateClusters();
+        logger.info("Found {} duplicate groups ({} bytes in extra copies) in {} ms.", clusters.size(),
+                getTotalWastedBytes(clusters), (System.nanoTime() - start) / 1_000_000);
+        return clusters;
+    }
+
+    public static long getTotalWastedBytes(Collection<DuplicateCluster> clusters) {
+        long total = 0;
+        for (DuplicateCluster cluster : clusters) {
+            total += cluster.getWastedBytes();
+        }
+        return total;
+    }
+
+    /**
+     * Дает каждому файлу группы все теги, которые есть хотя бы у одной из копий. Одна транзакция на все группы.
+     *
+     * @return Количество добавленных связей файл-тег.
+     */
+    public int propagateTags(Collection<DuplicateCluster> clusters) {
+        Map<Long, Set<Long>> added = fileTagLinkDAO.propagateTagsWithinDuplicates(clusters);
+
+        int linkCount = 0;
+        TagBitmapIndex index = tagIndex;
+        Map<Long, Tag> tagsById = new HashMap<>();
+        for (Map.Entry<Long, Set<Long>> entry : added.entrySet()) {
+            for (long tagId : entry.getValue()) {
+                linkCount++;
+                if (index == null) {
+                    continue;
+                }
+                Tag tag = tagsById.computeIfAbsent(tagId, id -> tagDAO.getById(id).orElse(null));
+                if (tag != null) {
+                    index.onTagLinked(entry.getKey(), tag);
+                }
+            }
+        }
+        return linkCount;
+    }
+}
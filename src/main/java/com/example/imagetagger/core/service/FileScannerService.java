@@ -1,57 +1,567 @@
 package com.example.imagetagger.core.service;
 
+import com.example.imagetagger.core.model.DirectorySnapshot;
 import com.example.imagetagger.core.model.TrackedFile;
+import com.example.imagetagger.persistence.dao.DirectorySnapshotDAO;
+import com.example.imagetagger.util.FileHasher;
+import com.example.imagetagger.util.ImageFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Objects;
-import java.util.Optional;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
 
+/**
+ * Сканирует папки с изображениями конвейером: обход -> проверка атрибутов -> хэширование -> запись в БД.
+ * Обход рекурсивный (Files.walkFileTree) с ограничением глубины, исключениями и политикой ссылок из {@link ScanOptions}.
+ * Хэширование выполняется параллельно в пуле потоков, а запись в БД - в потоке, вызвавшем сканирование,
+ * чтобы в SQLite всегда был один писатель. Для новых и изменившихся файлов считается только отпечаток
+ * (начало и конец файла); полный хэш досчитывается при сохранении, если отпечаток совпал с другими файлами.
+ */
 public class FileScannerService {
 
     private static final Logger logger = LoggerFactory.getLogger(FileScannerService.class);
-    private static final List<String> SUPPORTED_EXTENSIONS = List.of(".png"); // Пока только PNG
 
     private final TrackedFileService trackedFileService;
+    private final DirectorySnapshotDAO directorySnapshotDAO;
+    private final ThumbnailService thumbnailService; // null - миниатюры не строятся
+    private final ScanOptions options;
 
     public FileScannerService(TrackedFileService trackedFileService) {
+        this(trackedFileService, new ScanOptions());
+    }
+
+    public FileScannerService(TrackedFileService trackedFileService, ScanOptions options) {
+        this(trackedFileService, new DirectorySnapshotDAO(), options);
+    }
+
+    public FileScannerService(TrackedFileService trackedFileService, DirectorySnapshotDAO directorySnapshotDAO, ScanOptions options) {
+        this(trackedFileService, directorySnapshotDAO, null, options);
+    }
+
+    /**
+     * @param thumbnailService Куда ставить в очередь построение миниатюр найденных файлов (может быть null).
+     */
+    public FileScannerService(TrackedFileService trackedFileService, DirectorySnapshotDAO directorySnapshotDAO,
+                              ThumbnailService thumbnailService, ScanOptions options) {
         this.trackedFileService = trackedFileService;
+        this.directorySnapshotDAO = directorySnapshotDAO;
+        this.thumbnailService = thumbnailService;
+        this.options = options;
+    }
+
+    public ScanOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * Проверяет по расширению, известен ли формат файла (см. {@link ImageFormat}).
+     */
+    public static boolean isSupportedImage(Path path) {
+        return ImageFormat.fromPath(path).isPresent();
     }
 
     public List<TrackedFile> scanDirectoryForImages(File directory) {
-        if (directory == null || !directory.isDirectory()) {
-            logger.warn("Provided path is not a directory or is null: {}", directory);
-            return Collections.emptyList();
+        return scanDirectoryForImages(directory, !options.isIncremental());
+    }
+
+    /**
+     * Сканирует папку и ее подпапки (с учетом глубины, исключений и политики ссылок из ScanOptions).
+     *
+     * @param directory Папка на диске.
+     * @param fullRescan true - обойти все папки заново, даже если по снимкам они не менялись
+     *                   (нужно, чтобы заметить изменения содержимого файлов без изменения самих папок).
+     * @return Найденные файлы, отсортированные по имени.
+     */
+    public List<TrackedFile> scanDirectoryForImages(File directory, boolean fullRescan) {
+        return scanRoots(List.of(directory), fullRescan);
+    }
+
+    /**
+     * То же, что {@link #scanDirectoryForImages(File, boolean)}, но сообщает, сколько найденных файлов не удалось записать в БД.
+     */
+    public List<TrackedFile> scanDirectoryForImages(File directory, boolean fullRescan, IntConsumer failedFilesListener) {
+        return scanRoots(List.of(directory), fullRescan, failedFilesListener);
+    }
+
+    /**
+     * Сканирует несколько корней библиотеки. Корни, вложенные в другие корни, отдельно не обходятся.
+     *
+     * @return Найденные файлы всех корней без повторов, отсортированные по имени.
+     */
+    public List<TrackedFile> scanRoots(List<File> roots, boolean fullRescan) {
+        return scanRoots(roots, fullRescan, failed -> { });
+    }
+
+    /**
+     * @param failedFilesListener Получает число файлов каждого корня, которые не удалось записать в БД (вызывается, только если они есть).
+     */
+    public List<TrackedFile> scanRoots(List<File> roots, boolean fullRescan, IntConsumer failedFilesListener) {
+        Map<String, TrackedFile> result = new LinkedHashMap<>();
+        for (Path root : outermostRoots(roots)) {
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            for (TrackedFile file : scanRoot(root, fullRescan, failedFilesListener)) {
+                result.putIfAbsent(file.getAbsolutePath(), file);
+            }
         }
+        List<TrackedFile> files = new ArrayList<>(result.values());
+        files.sort((f1, f2) -> f1.getName().compareToIgnoreCase(f2.getName())); // Сортировка по имени
+        return files;
+    }
 
-        logger.info("Scanning directory for images: {}", directory.getAbsolutePath());
-        try (Stream<Path> stream = Files.walk(directory.toPath(), 1)) { // Глубина поиска 1
-            return stream
-                    .filter(Files::isRegularFile)
-                    .filter(path -> {
-                        String fileName = path.getFileName().toString().toLowerCase();
-                        return SUPPORTED_EXTENSIONS.stream().anyMatch(fileName::endsWith);
-                    })
-                    .map(path -> {
-                        // Используем TrackedFileService для получения или создания TrackedFile
-                        Optional<TrackedFile> trackedFileOpt = trackedFileService.getOrCreateTrackedFile(path.toFile());
-                        trackedFileOpt.ifPresent(trackedFileService::updateLastSeen); // Обновляем last_seen_date
-                        return trackedFileOpt.orElse(null); // Возвращаем null, если не удалось получить/создать
-                    })
-                    .filter(Objects::nonNull) // Отфильтровываем null значения (если были ошибки)
-                    .sorted((f1, f2) -> f1.getName().compareToIgnoreCase(f2.getName())) // Сортировка по имени
-                    .collect(Collectors.toList());
+    private List<Path> outermostRoots(List<File> roots) {
+        List<Path> candidates = new ArrayList<>();
+        for (File root : roots) {
+            if (root == null || !root.isDirectory()) {
+                logger.warn("Provided path is not a directory or is null: {}", root);
+                continue;
+            }
+            candidates.add(root.toPath().toAbsolutePath().normalize());
+        }
+        List<Path> outermost = new ArrayList<>();
+        for (Path candidate : candidates) {
+            boolean nested = candidates.stream().anyMatch(other -> !other.equals(candidate) && candidate.startsWith(other));
+            if (!nested && !outermost.contains(candidate)) {
+                outermost.add(candidate);
+            }
+        }
+        return outermost;
+    }
+
+    private List<TrackedFile> scanRoot(Path root, boolean fullRescan, IntConsumer failedFilesListener) {
+        logger.info("Scanning directory for images: {}", root);
+        long startTime = System.currentTimeMillis();
+
+        // Все известные файлы под корнем загружаются заранее и раскладываются по папкам
+        Map<String, TrackedFile> knownFiles = trackedFileService.loadDirectory(root.toFile());
+        Map<String, List<TrackedFile>> knownByDirectory = new HashMap<>();
+        for (TrackedFile file : knownFiles.values()) {
+            knownByDirectory.computeIfAbsent(file.getFile().getParent(), dir -> new ArrayList<>()).add(file);
+        }
+
+        // Снимки всех папок под корнем - тоже одним запросом
+        Map<String, DirectorySnapshot> snapshots = directorySnapshotDAO.getSubtree(root.toString());
+
+        ScanFilter filter = new ScanFilter(root, options);
+        List<TrackedFile> result;
+        try (ScanPipeline pipeline = new ScanPipeline(knownFiles)) {
+            ScanVisitor visitor = new ScanVisitor(root, filter, pipeline, knownByDirectory, snapshots, fullRescan, startTime);
+            Files.walkFileTree(root, filter.visitOptions(), filter.getMaxDepth(), visitor);
+            if (visitor.interrupted != null) {
+                throw visitor.interrupted;
+            }
+            result = pipeline.finish();
+            // Снимки сохраняем только после успешного прохода, когда last_seen_date уже записаны.
+            // Считаются только сохраненные файлы: отброшенные по заголовку не должны заставлять пересканировать папку
+            directorySnapshotDAO.saveAll(visitor.buildSnapshots(result));
+            visitor.staleSnapshots().forEach(directorySnapshotDAO::delete);
+            result.addAll(visitor.reusedFiles);
+            logger.info("Scanned {} images under {} in {} ms ({} directories reused from snapshots, {} excluded).",
+                    result.size(), root, System.currentTimeMillis() - startTime,
+                    visitor.unchangedDirectories, visitor.excludedEntries);
+            if (pipeline.failedFiles > 0) {
+                logger.warn("{} images under {} could not be saved to the database.", pipeline.failedFiles, root);
+                failedFilesListener.accept(pipeline.failedFiles);
+            }
         } catch (IOException e) {
-            logger.error("Error scanning directory: {}", directory.getAbsolutePath(), e);
+            logger.error("Error scanning directory: {}", root, e);
             return Collections.emptyList();
+        } catch (InterruptedException e) {
+            logger.warn("Scanning of {} was interrupted.", root);
+            Thread.currentThread().interrupt();
+            return Collections.emptyList();
+        }
+        return result;
+    }
+
+    /**
+     * Обходчик дерева. Исключенные папки отсекаются в preVisitDirectory целиком, без обхода содержимого.
+     * Папки, не изменившиеся по снимку, не читаются: их файлы берутся из БД, а обход продолжается
+     * отдельно в их подпапки, известные по снимкам (новая или удаленная подпапка изменила бы дату папки).
+     */
+    private class ScanVisitor extends SimpleFileVisitor<Path> {
+        private final Path root;
+        private final ScanFilter filter;
+        private final ScanPipeline pipeline;
+        private final Map<String, List<TrackedFile>> knownByDirectory;
+        private final Map<String, DirectorySnapshot> snapshots;
+        private final Map<String, List<Path>> snapshotChildren = new HashMap<>();
+        private final boolean fullRescan;
+        private final long scanStarted;
+        private final Map<Path, Long> directoryModifiedDates = new HashMap<>();
+        // Папки, прочитанные не полностью сами или в одной из подпапок. Снимок им не положен: неизменившаяся
+        // папка обходит только подпапки со снимками и иначе больше не заглянула бы в недочитанную подпапку
+        private final Set<Path> incompleteDirectories = new HashSet<>();
+        private final Map<String, Long> scannedDirectories = new HashMap<>(); // Полностью прочитанные папки -> дата модификации
+        final List<TrackedFile> reusedFiles = new ArrayList<>();
+        int unchangedDirectories = 0;
+        int excludedEntries = 0;
+        InterruptedException interrupted;
+
+        ScanVisitor(Path root, ScanFilter filter, ScanPipeline pipeline, Map<String, List<TrackedFile>> knownByDirectory,
+                    Map<String, DirectorySnapshot> snapshots, boolean fullRescan, long scanStarted) {
+            this.root = root;
+            this.filter = filter;
+            this.pipeline = pipeline;
+            this.knownByDirectory = knownByDirectory;
+            this.snapshots = snapshots;
+            this.fullRescan = fullRescan;
+            this.scanStarted = scanStarted;
+            for (String directoryPath : snapshots.keySet()) {
+                Path directory = Path.of(directoryPath);
+                Path parent = directory.getParent();
+                if (parent != null) {
+                    snapshotChildren.computeIfAbsent(parent.toString(), key -> new ArrayList<>()).add(directory);
+                }
+            }
+        }
+
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+            if (Thread.currentThread().isInterrupted()) {
+                interrupted = new InterruptedException("Scan cancelled");
+                return FileVisitResult.TERMINATE;
+            }
+            if (filter.isExcluded(dir)) {
+                excludedEntries++;
+                return FileVisitResult.SKIP_SUBTREE; // Поддерево не читается вовсе
+            }
+            long modifiedDate = attrs.lastModifiedTime().toMillis();
+            String dirPath = dir.toString();
+            List<TrackedFile> known = knownByDirectory.getOrDefault(dirPath, List.of());
+            List<TrackedFile> unchanged = fullRescan ? null : findUnchangedDirectoryFiles(snapshots.get(dirPath), modifiedDate, known);
+            if (unchanged != null) {
+                unchangedDirectories++;
+                reusedFiles.addAll(unchanged);
+                unchanged.forEach(file -> pipeline.forget(file.getAbsolutePath()));
+                // Содержимое папки не читаем, но подпапки обходим: их изменения не меняют дату родительской папки
+                return visitSnapshotChildren(dir);
+            }
+            directoryModifiedDates.put(dir, modifiedDate);
+            return FileVisitResult.CONTINUE;
+        }
+
+        /**
+         * Обходит подпапки неизменившейся папки отдельными проходами с оставшейся глубиной.
+         */
+        private FileVisitResult visitSnapshotChildren(Path dir) throws IOException {
+            int childDepth = dir.getNameCount() - root.getNameCount() + 1;
+            if (childDepth < filter.getMaxDepth()) {
+                for (Path child : snapshotChildren.getOrDefault(dir.toString(), List.of())) {
+                    Files.walkFileTree(child, filter.visitOptions(), filter.getMaxDepth() - childDepth, this);
+                    if (interrupted != null) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                }
+            }
+            if (incompleteDirectories.contains(dir)) {
+                markParentIncomplete(dir); // postVisitDirectory для пропущенной папки не вызывается
+            }
+            return FileVisitResult.SKIP_SUBTREE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            if (attrs.isSymbolicLink() || !attrs.isRegularFile()) {
+                // Без FOLLOW_LINKS ссылки приходят сюда как есть и пропускаются
+                return FileVisitResult.CONTINUE;
+            }
+            if (!filter.acceptsFile(file)) {
+                if (isSupportedImage(file)) {
+                    excludedEntries++;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+            try {
+                pipeline.accept(file, attrs);
+            } catch (InterruptedException e) {
+                interrupted = e;
+                return FileVisitResult.TERMINATE;
+            }
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException exc) {
+            // Нет доступа, файл исчез во время обхода или цикл ссылок (FileSystemLoopException)
+            logger.warn("Skipping unreadable entry {}: {}", file, exc.toString());
+            markParentIncomplete(file);
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+            if (exc != null) {
+                logger.warn("Directory {} was not fully read: {}", dir, exc.toString());
+                incompleteDirectories.add(dir);
+            }
+            Long modifiedDate = directoryModifiedDates.remove(dir);
+            if (incompleteDirectories.contains(dir)) {
+                markParentIncomplete(dir); // Без снимка папка будет пересканирована в следующий раз
+            } else if (modifiedDate != null) {
+                scannedDirectories.put(dir.toString(), modifiedDate);
+            }
+            return FileVisitResult.CONTINUE;
+        }
+
+        private void markParentIncomplete(Path path) {
+            Path parent = path.getParent();
+            if (parent != null) {
+                incompleteDirectories.add(parent);
+            }
+        }
+
+        /**
+         * Прежние снимки папок, которые в этот раз обойдены не полностью и должны быть прочитаны заново.
+         */
+        List<String> staleSnapshots() {
+            List<String> stale = new ArrayList<>();
+            for (Path dir : incompleteDirectories) {
+                if (snapshots.containsKey(dir.toString())) {
+                    stale.add(dir.toString());
+                }
+            }
+            return stale;
+        }
+
+        List<DirectorySnapshot> buildSnapshots(List<TrackedFile> storedFiles) {
+            Map<String, Integer> imageCounts = new HashMap<>();
+            for (TrackedFile file : storedFiles) {
+                imageCounts.merge(file.getFile().getParent(), 1, Integer::sum);
+            }
+            List<DirectorySnapshot> snapshots = new ArrayList<>(scannedDirectories.size());
+            scannedDirectories.forEach((dir, modifiedDate) -> snapshots.add(
+                    new DirectorySnapshot(dir, modifiedDate, imageCounts.getOrDefault(dir, 0), scanStarted)));
+            return snapshots;
+        }
+    }
+
+    /**
+     * Проверяет снимок папки (null - снимка нет). Если папка не менялась, возвращает ее файлы из БД без чтения содержимого папки.
+     * Файлы, которые были на месте при последнем полном сканировании, имеют last_seen_date не раньше его начала;
+     * их количество должно совпасть с числом из снимка.
+     *
+     * @return Файлы папки или null, если папку нужно сканировать.
+     */
+    private List<TrackedFile> findUnchangedDirectoryFiles(DirectorySnapshot snapshot, long directoryModified,
+                                                          List<TrackedFile> knownFiles) {
+        if (snapshot == null || snapshot.getModifiedDate() != directoryModified) {
+            return null;
+        }
+        List<TrackedFile> files = new ArrayList<>();
+        for (TrackedFile file : knownFiles) {
+            if (file.getLastSeenDate() >= snapshot.getScannedDate()) {
+                files.add(file);
+            }
+        }
+        if (files.size() != snapshot.getEntryCount()) {
+            logger.debug("Snapshot of {} expects {} files, DB has {}. Rescanning.",
+                    snapshot.getDirectoryPath(), snapshot.getEntryCount(), files.size());
+            return null;
+        }
+        return files;
+    }
+
+    private ExecutorService newHashExecutor() {
+        if (options.isUseVirtualThreads()) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("scan-hash-", 0).factory());
+        }
+        return Executors.newFixedThreadPool(options.getHashThreads(),
+                Thread.ofPlatform().name("scan-hash-", 0).daemon(true).factory());
+    }
+
+    /**
+     * Файл, прошедший проверку атрибутов. hashes == null означает, что отпечаток не понадобился
+     * (файл не менялся) или его не удалось посчитать.
+     */
+    private record ScannedFile(Path path, long sizeBytes, long modifiedDate, TrackedFile existing,
+                               FileHasher.Fingerprint hashes) {
+    }
+
+    /**
+     * Один проход сканирования. Не потокобезопасен: accept/finish вызываются из одного потока,
+     * в нем же выполняется запись в БД. Параллельно работает только хэширование.
+     */
+    private class ScanPipeline implements AutoCloseable {
+        private final ExecutorService hashExecutor = newHashExecutor();
+        private final CompletionService<ScannedFile> hashCompletion = new ExecutorCompletionService<>(hashExecutor);
+        private final List<TrackedFile> scannedFiles = new ArrayList<>();
+        private final List<TrackedFile> pendingChanged = new ArrayList<>();
+        private final List<TrackedFile> pendingUnchanged = new ArrayList<>();
+        private final Map<String, TrackedFile> knownFiles; // Файлы папки из БД, загруженные заранее
+        private int pendingHashes = 0;
+        int failedFiles = 0; // Файлы, которые не удалось записать в БД
+
+        ScanPipeline(Map<String, TrackedFile> knownFiles) {
+            this.knownFiles = knownFiles;
+        }
+
+        /**
+         * Файл обработан вне конвейера (взят из снимка папки) и не должен считаться пропавшим.
+         */
+        void forget(String absolutePath) {
+            knownFiles.remove(absolutePath);
+        }
+
+        void accept(Path path, BasicFileAttributes attrs) throws InterruptedException {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException("Scan cancelled");
+            }
+
+            // Этап 2: проверка атрибутов (атрибуты уже прочитаны обходчиком)
+            long size = attrs.size();
+            long modifiedDate = attrs.lastModifiedTime().toMillis();
+            TrackedFile existing = knownFiles.remove(path.toAbsolutePath().toString());
+            if (existing != null && TrackedFileService.isUnchanged(existing, size, modifiedDate)) {
+                store(new ScannedFile(path, size, modifiedDate, existing, null));
+                drainCompleted();
+                return;
+            }
+
+            // Этап 3: хэширование в пуле. Если очередь заполнена, сначала сохраняем готовые результаты
+            while (pendingHashes >= options.getMaxPendingHashes()) {
+                store(take(hashCompletion.take()));
+            }
+            hashCompletion.submit(() -> hashFile(path, size, modifiedDate, existing));
+            pendingHashes++;
+            drainCompleted();
+        }
+
+        /**
+         * Выполняется в пуле хэширования. Заголовок для проверки формата берется из того же чтения, что и отпечаток.
+         *
+         * @return null, если файл не похож на изображение и индексироваться не должен.
+         */
+        private ScannedFile hashFile(Path path, long size, long modifiedDate, TrackedFile existing) {
+            FileHasher.Fingerprint hashed = FileHasher.calculateFingerprint(path.toFile()).orElse(null);
+            if (hashed == null) {
+                return new ScannedFile(path, size, modifiedDate, existing, null);
+            }
+            if (!options.isVerifyFormatHeaders()) {
+                return new ScannedFile(path, size, modifiedDate, existing, hashed);
+            }
+            ImageFormat detected = hashed.detectedFormat();
+            if (detected == null) {
+                logger.warn("File {} does not look like a supported image. Skipping.", path);
+                return null;
+            }
+            if (!ImageFormat.fromPath(path).map(detected::equals).orElse(false)) {
+                logger.debug("File {} has a misleading extension, actual format is {}.", path, detected);
+            }
+            return new ScannedFile(path, size, modifiedDate, existing, hashed);
+        }
+
+        List<TrackedFile> finish() throws InterruptedException {
+            while (pendingHashes > 0) {
+                store(take(hashCompletion.take()));
+            }
+            flush();
+            if (!knownFiles.isEmpty()) {
+                // Все, что осталось в knownFiles, на диске больше не найдено
+                logger.info("{} tracked files under the scanned tree are no longer present on disk.", knownFiles.size());
+            }
+            return scannedFiles;
+        }
+
+        private void drainCompleted() throws InterruptedException {
+            Future<ScannedFile> done;
+            while ((done = hashCompletion.poll()) != null) {
+                store(take(done));
+            }
+        }
+
+        private ScannedFile take(Future<ScannedFile> future) throws InterruptedException {
+            pendingHashes--;
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                logger.error("Hashing task failed.", e.getCause());
+                return null;
+            }
+        }
+
+        // Этап 4: запись в БД. Результаты копятся и сохраняются пачками в одной транзакции
+        private void store(ScannedFile scannedFile) {
+            if (scannedFile == null) {
+                return;
+            }
+            TrackedFile existing = scannedFile.existing();
+            FileHasher.Fingerprint hashes = scannedFile.hashes();
+            if (hashes == null) {
+                if (existing == null) {
+                    logger.error("Could not calculate fingerprint for new file: {}", scannedFile.path());
+                    return;
+                }
+                // Файл не менялся (или отпечаток не удалось посчитать) - оставляем данные из БД
+                pendingUnchanged.add(existing);
+            } else if (existing != null) {
+                logger.info("File {} has changed on disk. Updating metadata.", scannedFile.path());
+                existing.setSizeBytes(scannedFile.sizeBytes());
+                existing.setModifiedDate(scannedFile.modifiedDate());
+                TrackedFileService.applyHashes(existing, hashes);
+                pendingChanged.add(existing);
+            } else {
+                TrackedFile file = new TrackedFile(scannedFile.path().toAbsolutePath().toString(), hashes.contentHash(),
+                        scannedFile.sizeBytes(), scannedFile.modifiedDate());
+                TrackedFileService.applyHashes(file, hashes);
+                pendingChanged.add(file);
+            }
+            if (pendingChanged.size() + pendingUnchanged.size() >= options.getDbBatchSize()) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            if (pendingChanged.isEmpty() && pendingUnchanged.isEmpty()) {
+                return;
+            }
+            List<TrackedFile> saved = trackedFileService.saveScanResults(pendingChanged, pendingUnchanged, hashExecutor);
+            failedFiles += pendingChanged.size() + pendingUnchanged.size() - saved.size();
+            scannedFiles.addAll(saved);
+            requestThumbnails(saved);
+            pendingChanged.clear();
+            pendingUnchanged.clear();
+        }
+
+        /**
+         * Миниатюры строятся в отдельном фоновом потоке и не задерживают сканирование.
+         * Для уже существующих миниатюр это только отметка об использовании.
+         */
+        private void requestThumbnails(List<TrackedFile> files) {
+            if (thumbnailService == null || !options.isGenerateThumbnails()) {
+                return;
+            }
+            for (TrackedFile file : files) {
+                thumbnailService.requestThumbnail(file.getFile(), file.getContentKey());
+            }
+        }
+
+        @Override
+        public void close() {
+            // Незавершенные задачи (например, при отмене) больше не нужны
+            hashExecutor.shutdownNow();
         }
     }
-}
\ No newline at end of file
+}
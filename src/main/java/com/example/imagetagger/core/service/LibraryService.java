@@ -0,0 +1,75 @@
+package com.example.imagetagger.core.service;
+
+import com.example.imagetagger.core.model.LibraryRoot;
+import com.example.imagetagger.core.model.TrackedFile;
+import com.example.imagetagger.persistence.dao.LibraryRootDAO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.IntConsumer;
+
+/**
+ * Библиотека - набор корневых папок, которые индексируются целиком (рекурсивно).
+ */
+public class LibraryService {
+    private static final Logger logger = LoggerFactory.getLogger(LibraryService.class);
+
+    private final LibraryRootDAO libraryRootDAO;
+    private final FileScannerService fileScannerService;
+
+    public LibraryService(FileScannerService fileScannerService) {
+        this(new LibraryRootDAO(), fileScannerService);
+    }
+
+    // Конструктор для DI (например, для тестов)
+    public LibraryService(LibraryRootDAO libraryRootDAO, FileScannerService fileScannerService) {
+        this.libraryRootDAO = libraryRootDAO;
+        this.fileScannerService = fileScannerService;
+    }
+
+    public Optional<LibraryRoot> registerRoot(File directory) {
+        if (directory == null || !directory.isDirectory()) {
+            logger.warn("Cannot add non-directory to library: {}", directory);
+            return Optional.empty();
+        }
+        String absolutePath = directory.toPath().toAbsolutePath().normalize().toString();
+        return libraryRootDAO.create(new LibraryRoot(absolutePath, System.currentTimeMillis()));
+    }
+
+    public boolean unregisterRoot(LibraryRoot root) {
+        return libraryRootDAO.delete(root.getAbsolutePath());
+    }
+
+    public List<LibraryRoot> getRoots() {
+        return libraryRootDAO.getAll();
+    }
+
+    /**
+     * Сканирует все папки библиотеки за один проход. Вложенные корни не сканируются повторно.
+     *
+     * @param fullRescan true - не доверять снимкам папок.
+     */
+    public List<TrackedFile> scanAll(boolean fullRescan) {
+        return scanAll(fullRescan, failed -> { });
+    }
+
+    /**
+     * @param failedFilesListener Получает число файлов, которые не удалось записать в БД (см. {@link FileScannerService#scanRoots(List, boolean, IntConsumer)}).
+     */
+    public List<TrackedFile> scanAll(boolean fullRescan, IntConsumer failedFilesListener) {
+        List<File> roots = new ArrayList<>();
+        for (LibraryRoot root : getRoots()) {
+            roots.add(root.getFile());
+        }
+        if (roots.isEmpty()) {
+            logger.info("Library has no folders to scan.");
+            return new ArrayList<>();
+        }
+        logger.info("Scanning {} library roots.", roots.size());
+        return fileScannerService.scanRoots(roots, fullRescan, failedFilesListener);
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.imagetagger.core.service;
+
+import com.example.imagetagger.util.ImageFormat;
+
+import java.nio.file.FileSystem;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Правила обхода одного корня сканирования, собранные из {@link ScanOptions}:
+ * исключения по glob-шаблонам, ограничение глубины и политика символических ссылок.
+ * Используется и сканером, и наблюдателем за папками, чтобы они видели одно и то же дерево.
+ */
+class ScanFilter {
+
+    private final Path root;
+    private final ScanOptions options;
+    private final List<PathMatcher> nameMatchers = new ArrayList<>();
+    private final List<PathMatcher> relativePathMatchers = new ArrayList<>();
+
+    ScanFilter(Path root, ScanOptions options) {
+        this.root = root;
+        this.options = options;
+        FileSystem fileSystem = root.getFileSystem();
+        for (String glob : options.getExcludeGlobs()) {
+            if (glob == null || glob.isBlank()) {
+                continue;
+            }
+            PathMatcher matcher = fileSystem.getPathMatcher("glob:" + glob.trim());
+            if (glob.contains("/")) {
+                relativePathMatchers.add(matcher);
+            } else {
+                nameMatchers.add(matcher);
+            }
+        }
+    }
+
+    Path getRoot() {
+        return root;
+    }
+
+    int getMaxDepth() {
+        return options.getMaxDepth();
+    }
+
+    boolean isFollowLinks() {
+        return options.getSymlinkPolicy() == ScanOptions.SymlinkPolicy.FOLLOW;
+    }
+
+    Set<FileVisitOption> visitOptions() {
+        return isFollowLinks() ? EnumSet.of(FileVisitOption.FOLLOW_LINKS) : EnumSet.noneOf(FileVisitOption.class);
+    }
+
+    /**
+     * Проверяет, исключен ли путь шаблонами. Корень никогда не исключается.
+     */
+    boolean isExcluded(Path path) {
+        if (path.equals(root) || !path.startsWith(root)) {
+            return false;
+        }
+        Path name = path.getFileName();
+        for (PathMatcher matcher : nameMatchers) {
+            if (matcher.matches(name)) {
+                return true;
+            }
+        }
+        if (!relativePathMatchers.isEmpty()) {
+            Path relative = root.relativize(path);
+            for (PathMatcher matcher : relativePathMatchers) {
+                if (matcher.matches(relative)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Проверяет, нужно ли индексировать файл: формат по расширению включен и путь не исключен.
+     */
+    boolean acceptsFile(Path file) {
+        return ImageFormat.fromPath(file).map(options.getFormats()::contains).orElse(false) && !isExcluded(file);
+    }
+
+    /**
+     * Глубина пути относительно корня (0 - сам корень).
+     */
+    int depthOf(Path path) {
+        return path.equals(root) ? 0 : root.relativize(path).getNameCount();
+    }
+}
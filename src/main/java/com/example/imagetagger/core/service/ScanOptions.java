@@ -0,0 +1,175 @@
+package com.example.imagetagger.core.service;
+
+import com.example.imagetagger.util.ImageFormat;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Настройки сканирования папок для {@link FileScannerService}.
+ */
+public class ScanOptions {
+
+    /**
+     * Что делать с символическими ссылками при обходе.
+     */
+    public enum SymlinkPolicy {
+        SKIP,   // Ссылки на файлы и папки пропускаются
+        FOLLOW  // Ссылки разыменовываются; циклы обнаруживаются и пропускаются
+    }
+
+    private int maxDepth = Integer.MAX_VALUE;
+    private List<String> excludeGlobs = new ArrayList<>(List.of(".*")); // Скрытые файлы и папки
+    private SymlinkPolicy symlinkPolicy = SymlinkPolicy.SKIP;
+    private Set<ImageFormat> formats = EnumSet.allOf(ImageFormat.class);
+    private boolean verifyFormatHeaders = true;
+    private boolean generateThumbnails = true;
+    private int hashThreads = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private boolean useVirtualThreads = false;
+    private int maxPendingHashes = hashThreads * 4;
+    private int dbBatchSize = 500;
+    private boolean incremental = true;
+
+    public int getHashThreads() {
+        return hashThreads;
+    }
+
+    /**
+     * Количество потоков платформы для хэширования (игнорируется для виртуальных потоков).
+     */
+    public void setHashThreads(int hashThreads) {
+        if (hashThreads < 1) {
+            throw new IllegalArgumentException("hashThreads must be positive: " + hashThreads);
+        }
+        this.hashThreads = hashThreads;
+    }
+
+    public boolean isUseVirtualThreads() {
+        return useVirtualThreads;
+    }
+
+    /**
+     * Если true, каждый файл хэшируется в отдельном виртуальном потоке,
+     * а параллелизм ограничивается только {@link #getMaxPendingHashes()}.
+     */
+    public void setUseVirtualThreads(boolean useVirtualThreads) {
+        this.useVirtualThreads = useVirtualThreads;
+    }
+
+    public int getMaxPendingHashes() {
+        return maxPendingHashes;
+    }
+
+    /**
+     * Сколько файлов может одновременно ждать или проходить хэширование.
+     * Когда лимит достигнут, обход папки ждет, пока освободится место (backpressure).
+     */
+    public void setMaxPendingHashes(int maxPendingHashes) {
+        if (maxPendingHashes < 1) {
+            throw new IllegalArgumentException("maxPendingHashes must be positive: " + maxPendingHashes);
+        }
+        this.maxPendingHashes = maxPendingHashes;
+    }
+
+    public int getDbBatchSize() {
+        return dbBatchSize;
+    }
+
+    /**
+     * Сколько результатов сканирования накапливать перед записью в БД одной транзакцией.
+     */
+    public void setDbBatchSize(int dbBatchSize) {
+        if (dbBatchSize < 1) {
+            throw new IllegalArgumentException("dbBatchSize must be positive: " + dbBatchSize);
+        }
+        this.dbBatchSize = dbBatchSize;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * Если true, папки, не изменившиеся с прошлого сканирования (по дате модификации папки),
+     * не обходятся заново, а их файлы берутся из БД.
+     * Изменения содержимого файлов без изменения папки при этом не замечаются - для них нужен полный пересмотр.
+     * Он же нужен после смены глубины, исключений или политики ссылок: в неизменившейся папке обходятся
+     * только подпапки, уже известные по снимкам.
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Максимальная глубина обхода: 1 - только сама папка, Integer.MAX_VALUE - без ограничений.
+     */
+    public void setMaxDepth(int maxDepth) {
+        if (maxDepth < 1) {
+            throw new IllegalArgumentException("maxDepth must be positive: " + maxDepth);
+        }
+        this.maxDepth = maxDepth;
+    }
+
+    public List<String> getExcludeGlobs() {
+        return excludeGlobs;
+    }
+
+    /**
+     * Glob-шаблоны исключений. Шаблон без '/' сравнивается с именем файла или папки ("*.tmp", "@eaDir"),
+     * шаблон с '/' - с путем относительно корня сканирования ("raw/**"). Исключенные папки не обходятся вовсе.
+     */
+    public void setExcludeGlobs(List<String> excludeGlobs) {
+        this.excludeGlobs = excludeGlobs != null ? new ArrayList<>(excludeGlobs) : new ArrayList<>();
+    }
+
+    public SymlinkPolicy getSymlinkPolicy() {
+        return symlinkPolicy;
+    }
+
+    public void setSymlinkPolicy(SymlinkPolicy symlinkPolicy) {
+        this.symlinkPolicy = symlinkPolicy != null ? symlinkPolicy : SymlinkPolicy.SKIP;
+    }
+
+    public Set<ImageFormat> getFormats() {
+        return formats;
+    }
+
+    /**
+     * Какие форматы индексировать. Файлы с другими расширениями пропускаются без чтения.
+     */
+    public void setFormats(Set<ImageFormat> formats) {
+        if (formats == null || formats.isEmpty()) {
+            throw new IllegalArgumentException("At least one image format must be enabled");
+        }
+        this.formats = EnumSet.copyOf(formats);
+    }
+
+    public boolean isVerifyFormatHeaders() {
+        return verifyFormatHeaders;
+    }
+
+    /**
+     * Если true, у новых и измененных файлов проверяется заголовок (читается тем же проходом, что и хэш).
+     * Файлы, заголовок которых не похож ни на одно изображение, не индексируются.
+     */
+    public void setVerifyFormatHeaders(boolean verifyFormatHeaders) {
+        this.verifyFormatHeaders = verifyFormatHeaders;
+    }
+
+    public boolean isGenerateThumbnails() {
+        return generateThumbnails;
+    }
+
+    /**
+     * Если true и сканеру передан {@link ThumbnailService}, для найденных файлов в фоне строятся миниатюры.
+     */
+    public void setGenerateThumbnails(boolean generateThumbnails) {
+        this.generateThumbnails = generateThumbnails;
+    }
+}
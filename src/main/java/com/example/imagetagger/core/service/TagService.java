@@ -1,5 +1,6 @@
 package com.example.imagetagger.core.service;
 
+import com.example.imagetagger.core.index.TagBitmapIndex;
 import com.example.imagetagger.core.model.Tag;
 import com.example.imagetagger.persistence.dao.TagDAO;
 import org.slf4j.Logger;
@@ -12,6 +13,7 @@ import java.util.Optional;
 public class TagService {
     private static final Logger logger = LoggerFactory.getLogger(TagService.class);
     private final TagDAO tagDAO;
+    private volatile TagBitmapIndex tagIndex; // Необязательный индекс тегов в памяти
 
     public TagService() {
         this.tagDAO = new TagDAO(); // В более сложных приложениях можно использовать DI
@@ -22,6 +24,13 @@ public class TagService {
         this.tagDAO = tagDAO;
     }
 
+    /**
+     * Подключает индекс тегов в памяти, из которого нужно убирать удаленные теги.
+     */
+    public void setTagIndex(TagBitmapIndex tagIndex) {
+        this.tagIndex = tagIndex;
+    }
+
     /**
      * Создает новый тег. Если тег с таким именем (регистронезависимо) уже существует,
      * возвращает существующий тег.
@@ -63,7 +72,12 @@ public class TagService {
         }
         // Дополнительная логика (например, проверка, используется ли тег) может быть здесь
         // Но так как у нас ON DELETE CASCADE, это не так критично для целостности данных.
-        return tagDAO.delete(tagId);
+        boolean deleted = tagDAO.delete(tagId);
+        TagBitmapIndex index = tagIndex;
+        if (deleted && index != null) {
+            index.onTagDeleted(tagId); // Связи удалены каскадно вместе с тегом
+        }
+        return deleted;
     }
 
     public Optional<Tag> findTagByName(String name) {
@@ -0,0 +1,389 @@
+package com.example.imagetagger.core.service;
+
+import com.example.imagetagger.core.model.ContentKey;
+import com.example.imagetagger.persistence.DatabaseManager;
+import com.example.imagetagger.util.HashAlgorithm;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Хранилище миниатюр на диске: {@code ~/.ImageTagger/thumbnails/ab/abcdef....jpg}.
+ * Ключ - хэш содержимого файла с его алгоритмом ({@link com.example.imagetagger.core.model.TrackedFile#getContentKey()}),
+ * поэтому одинаковые файлы в разных папках делят одну миниатюру,
+ * а перемещение файла не требует ее пересоздания. Когда у файла досчитывается полный хэш, ключ меняется
+ * и миниатюра перестраивается (см. {@link #replaceKey}).
+ * <p>
+ * Миниатюры строятся через ImageIO с прореживанием при чтении (source subsampling),
+ * так что полноразмерный буфер пикселей оригинала не создается.
+ * Общий размер папки ограничен: при превышении удаляются миниатюры, которые дольше всего не читались
+ * (дата модификации файла миниатюры обновляется при каждом обращении).
+ */
+public class ThumbnailService implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThumbnailService.class);
+
+    public static final int DEFAULT_THUMBNAIL_SIZE = 256;
+    public static final long DEFAULT_MAX_BYTES = 512L * 1024 * 1024;
+    private static final String THUMBNAIL_FOLDER_NAME = "thumbnails";
+    private static final String THUMBNAIL_EXTENSION = ".jpg";
+    private static final float JPEG_QUALITY = 0.85f;
+
+    private final Path folder;
+    private final int thumbnailSize;
+    private final long maxBytes;
+    private final ExecutorService generatorExecutor;
+    private final Map<ContentKey, CompletableFuture<Optional<Path>>> inFlight = new ConcurrentHashMap<>();
+    private final Set<ContentKey> failedKeys = ConcurrentHashMap.newKeySet(); // Не читаются ImageIO - не пробуем повторно
+    private final AtomicLong totalBytes = new AtomicLong(-1); // -1 - еще не подсчитан
+    private final Object evictionLock = new Object();
+
+    public ThumbnailService() {
+        this(DatabaseManager.getAppDataFolder().resolve(THUMBNAIL_FOLDER_NAME), DEFAULT_THUMBNAIL_SIZE, DEFAULT_MAX_BYTES);
+    }
+
+    public ThumbnailService(Path folder, int thumbnailSize, long maxBytes) {
+        if (thumbnailSize < 16) {
+            throw new IllegalArgumentException("thumbnailSize is too small: " + thumbnailSize);
+        }
+        this.folder = folder;
+        this.thumbnailSize = thumbnailSize;
+        this.maxBytes = maxBytes;
+        // Один фоновый поток: миниатюры не должны отнимать диск и процессор у сканирования и UI.
+        // Очередь LIFO: при прокрутке сетки сначала строятся миниатюры, запрошенные последними, - те, что сейчас на экране
+        this.generatorExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LifoQueue(),
+                Thread.ofPlatform().name("thumbnail-generator").daemon(true).priority(Thread.MIN_PRIORITY).factory());
+    }
+
+    public int getThumbnailSize() {
+        return thumbnailSize;
+    }
+
+    /**
+     * Миниатюры SHA-256 называются одним hex хэша, как до появления других алгоритмов, чтобы старый кэш
+     * оставался действительным; у остальных к имени добавляется ID алгоритма.
+     */
+    public Path getThumbnailPath(ContentKey key) {
+        String hex = key.hash().toHex();
+        String name = key.algorithm() == HashAlgorithm.SHA_256 ? hex : hex + "-" + key.algorithm().getId();
+        return folder.resolve(hex.substring(0, 2)).resolve(name + THUMBNAIL_EXTENSION);
+    }
+
+    /**
+     * Ищет готовую миниатюру, не трогая оригинал.
+     */
+    public Optional<Path> findThumbnail(ContentKey key) {
+        if (key == null) {
+            return Optional.empty();
+        }
+        Path path = getThumbnailPath(key);
+        try {
+            // Отмечаем обращение для вытеснения давно не используемых
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+            return Optional.of(path);
+        } catch (IOException e) {
+            return Optional.empty(); // Миниатюры нет
+        }
+    }
+
+    public boolean hasThumbnail(ContentKey key) {
+        return key != null && Files.exists(getThumbnailPath(key));
+    }
+
+    /**
+     * Ставит построение миниатюры в фоновую очередь. Повторные запросы того же ключа получают ту же задачу.
+     *
+     * @return Future с путем к миниатюре, или Optional.empty(), если оригинал не удалось прочитать.
+     */
+    public CompletableFuture<Optional<Path>> requestThumbnail(File source, ContentKey key) {
+        if (key == null || failedKeys.contains(key)) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        Optional<Path> existing = findThumbnail(key);
+        if (existing.isPresent()) {
+            return CompletableFuture.completedFuture(existing);
+        }
+        // Future попадает в inFlight до запуска задачи и по завершении удаляет из карты только себя:
+        // быстро завершившаяся задача не может ни остаться в карте, ни убрать чужую
+        CompletableFuture<Optional<Path>> future = new CompletableFuture<>();
+        CompletableFuture<Optional<Path>> running = inFlight.putIfAbsent(key, future);
+        if (running != null) {
+            return running;
+        }
+        future.whenComplete((path, error) -> inFlight.remove(key, future));
+        try {
+            CompletableFuture.supplyAsync(() -> getOrCreateThumbnail(source, key), generatorExecutor)
+                    .whenComplete((path, error) -> {
+                        if (error != null) {
+                            future.completeExceptionally(error);
+                        } else {
+                            future.complete(path);
+                        }
+                    });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e); // Сервис уже закрыт
+        }
+        return future;
+    }
+
+    /**
+     * Переводит миниатюру файла на новый ключ, когда у файла досчитан полный хэш вместо отпечатка
+     * или хэши пересчитаны другим алгоритмом. Миниатюру по старому ключу нельзя просто переименовать:
+     * полный хэш досчитывается как раз тогда, когда отпечаток совпал у нескольких файлов, и она может
+     * изображать другой из них. Поэтому она удаляется, а если была, новая строится в фоне.
+     */
+    public void replaceKey(ContentKey oldKey, ContentKey newKey, File source) {
+        if (oldKey == null || oldKey.equals(newKey)) {
+            return;
+        }
+        Path oldPath = getThumbnailPath(oldKey);
+        boolean existed;
+        try {
+            long size = Files.size(oldPath);
+            existed = Files.deleteIfExists(oldPath);
+            if (existed && totalBytes.get() >= 0) {
+                totalBytes.addAndGet(-size);
+            }
+        } catch (IOException e) {
+            existed = false; // Миниатюры по старому ключу нет
+        }
+        failedKeys.remove(oldKey);
+        if (existed && newKey != null) {
+            requestThumbnail(source, newKey);
+        }
+    }
+
+    /**
+     * Возвращает миниатюру, при необходимости строит ее в текущем потоке.
+     */
+    public Optional<Path> getOrCreateThumbnail(File source, ContentKey key) {
+        Optional<Path> existing = findThumbnail(key);
+        if (existing.isPresent() || failedKeys.contains(key)) {
+            return existing;
+        }
+        Path target = getThumbnailPath(key);
+        try {
+            BufferedImage thumbnail = readScaled(source);
+            if (thumbnail == null) {
+                failedKeys.add(key);
+                logger.debug("No ImageIO reader for {}, thumbnail skipped.", source);
+                return Optional.empty();
+            }
+            Files.createDirectories(target.getParent());
+            Path temp = Files.createTempFile(target.getParent(), key.hash().toHex(), ".tmp");
+            try {
+                writeJpeg(thumbnail, temp);
+                moveIntoPlace(temp, target);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            onThumbnailWritten(Files.size(target));
+            return Optional.of(target);
+        } catch (IOException | RuntimeException e) {
+            // RuntimeException: декодеры ImageIO бросают их на поврежденных файлах
+            failedKeys.add(key);
+            logger.warn("Failed to create thumbnail for {}: {}", source, e.toString());
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public void close() {
+        generatorExecutor.shutdownNow();
+    }
+
+    /**
+     * Читает изображение с прореживанием: каждый N-й пиксель по обеим осям, чтобы результат
+     * был не меньше двух размеров миниатюры, затем плавно уменьшает до размера миниатюры.
+     *
+     * @return Миниатюра или null, если формат не поддерживается ImageIO.
+     */
+    private BufferedImage readScaled(File source) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(source)) {
+            if (in == null) {
+                throw new IOException("Cannot open " + source);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                int subsampling = Math.max(1, Math.max(width, height) / (thumbnailSize * 2));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                BufferedImage decoded = reader.read(0, param);
+                return scaleToFit(decoded);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private BufferedImage scaleToFit(BufferedImage image) {
+        double scale = Math.min(1.0, (double) thumbnailSize / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+        // JPEG без альфа-канала: прозрачные области заливаются белым
+        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = result.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, width, height);
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return result;
+    }
+
+    private static void writeJpeg(BufferedImage image, Path target) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(target.toFile())) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private static void moveIntoPlace(Path temp, Path target) throws IOException {
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void onThumbnailWritten(long size) {
+        if (totalBytes.get() < 0) {
+            totalBytes.compareAndSet(-1, computeFolderSize());
+        } else {
+            totalBytes.addAndGet(size);
+        }
+        if (totalBytes.get() > maxBytes) {
+            evictLeastRecentlyUsed();
+        }
+    }
+
+    /**
+     * Удаляет давно не использованные миниатюры, пока папка не станет меньше 90% лимита
+     * (с запасом, чтобы не запускать вытеснение на каждую новую миниатюру).
+     */
+    private void evictLeastRecentlyUsed() {
+        synchronized (evictionLock) {
+            List<StoredThumbnail> thumbnails = new ArrayList<>();
+            long size = 0;
+            try (DirectoryStream<Path> shards = Files.newDirectoryStream(folder, Files::isDirectory)) {
+                for (Path shard : shards) {
+                    try (DirectoryStream<Path> files = Files.newDirectoryStream(shard, "*" + THUMBNAIL_EXTENSION)) {
+                        for (Path file : files) {
+                            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                            thumbnails.add(new StoredThumbnail(file, attrs.size(), attrs.lastModifiedTime()));
+                            size += attrs.size();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                logger.warn("Failed to list thumbnails for eviction.", e);
+                return;
+            }
+            thumbnails.sort(Comparator.comparing(StoredThumbnail::lastUsed));
+            long target = maxBytes * 9 / 10;
+            int removed = 0;
+            for (StoredThumbnail thumbnail : thumbnails) {
+                if (size <= target) {
+                    break;
+                }
+                try {
+                    Files.deleteIfExists(thumbnail.path());
+                    size -= thumbnail.size();
+                    removed++;
+                } catch (IOException e) {
+                    logger.debug("Failed to delete thumbnail {}", thumbnail.path(), e);
+                }
+            }
+            totalBytes.set(size);
+            logger.info("Evicted {} thumbnails, cache size is now {} MB.", removed, size / (1024 * 1024));
+        }
+    }
+
+    /**
+     * Очередь задач, из которой первой берется последняя добавленная.
+     */
+    private static class LifoQueue extends LinkedBlockingDeque<Runnable> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public boolean offer(Runnable task) {
+            return offerFirst(task);
+        }
+    }
+
+    private record StoredThumbnail(Path path, long size, FileTime lastUsed) {
+    }
+
+    private long computeFolderSize() {
+        if (!Files.isDirectory(folder)) {
+            return 0;
+        }
+        try (Stream<Path> files = Files.walk(folder)) {
+            return files.filter(Files::isRegularFile).mapToLong(path -> {
+                try {
+                    return Files.size(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).sum();
+        } catch (IOException | UncheckedIOException e) {
+            logger.warn("Failed to compute thumbnail folder size.", e);
+            return 0;
+        }
+    }
+}
@@ -1,11 +1,17 @@
 package com.example.imagetagger.core.service;
 
+import com.example.imagetagger.core.index.FileIdBitmap;
+import com.example.imagetagger.core.index.TagBitmapIndex;
+import com.example.imagetagger.core.model.ContentHash;
+import com.example.imagetagger.core.model.ContentKey;
 import com.example.imagetagger.core.model.Tag;
 import com.example.imagetagger.core.model.TrackedFile;
+import com.example.imagetagger.core.query.TagQuery;
 import com.example.imagetagger.persistence.dao.FileTagLinkDAO;
 import com.example.imagetagger.persistence.dao.TagDAO;
 import com.example.imagetagger.persistence.dao.TrackedFileDAO;
 import com.example.imagetagger.util.FileHasher; // Убедитесь, что FileHasher создан и импортирован
+import com.example.imagetagger.util.HashAlgorithm;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,15 +19,38 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 public class TrackedFileService {
     private static final Logger logger = LoggerFactory.getLogger(TrackedFileService.class);
+    private static final int INDEX_ID_LOOKUP_LIMIT = 20_000; // Больше совпадений в папке - читаем папку целиком
 
     private final TrackedFileDAO trackedFileDAO;
     private final FileTagLinkDAO fileTagLinkDAO;
     private final TagDAO tagDAO; // Нужен для создания/получения тегов по имени
+    private volatile TagBitmapIndex tagIndex; // Необязательный индекс тегов в памяти
+    private volatile ThumbnailService thumbnailService; // Необязательный: миниатюры переводятся на новые ключи
+    // Полные хэши при совпадении отпечатков досчитываются здесь, в одном фоновом потоке с низким приоритетом
+    private final ExecutorService hashConfirmationExecutor = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().name("content-hash-confirmation").daemon(true).priority(Thread.MIN_PRIORITY).factory());
+    private final Set<Long> queuedHashIds = ConcurrentHashMap.newKeySet();
 
     public TrackedFileService() {
         // В реальном приложении здесь была бы инъекция зависимостей
@@ -37,10 +66,27 @@ public class TrackedFileService {
         this.tagDAO = tagDAO;
     }
 
+    /**
+     * Подключает индекс тегов в памяти: изменения тегов будут отражаться в нем,
+     * а фильтры по тегам вычисляться по нему, как только он загружен.
+     */
+    public void setTagIndex(TagBitmapIndex tagIndex) {
+        this.tagIndex = tagIndex;
+    }
+
+    /**
+     * Подключает хранилище миниатюр: когда у файлов досчитываются полные хэши, их миниатюры
+     * переводятся с ключа-отпечатка на новый ключ (см. {@link ThumbnailService#replaceKey}).
+     */
+    public void setThumbnailService(ThumbnailService thumbnailService) {
+        this.thumbnailService = thumbnailService;
+    }
+
     /**
      * Получает или создает TrackedFile для указанного файла на диске.
      * Если файл уже есть в БД по пути, он загружается.
-     * Если файла нет, он создается, вычисляется хэш, и файл сохраняется в БД.
+     * Если файла нет, вычисляется отпечаток; перемещенный файл получает свою прежнюю запись (с тегами),
+     * иначе создается новая.
      * Теги для файла также загружаются.
      *
      * @param diskFile Файл на диске.
@@ -53,77 +99,618 @@ public class TrackedFileService {
         }
 
         String absolutePath = diskFile.getAbsolutePath();
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(diskFile.toPath(), BasicFileAttributes.class);
+        } catch (IOException e) {
+            logger.error("Could not read file attributes for {}: {}", absolutePath, e.getMessage());
+            // Без атрибутов можем вернуть только то, что уже есть в БД
+            return findByPathWithTags(absolutePath);
+        }
+        long currentSize = attrs.size();
+        long currentModDate = attrs.lastModifiedTime().toMillis();
 
         // 1. Попытка найти файл в БД по пути
-        Optional<TrackedFile> existingFileOpt = trackedFileDAO.getByPath(absolutePath);
+        TrackedFile existing = trackedFileDAO.getByPath(absolutePath).orElse(null);
+        if (existing != null && isUnchanged(existing, currentSize, currentModDate)) {
+            return saveScanResult(absolutePath, currentSize, currentModDate, existing, null);
+        }
 
-        if (existingFileOpt.isPresent()) {
-            TrackedFile trackedFile = existingFileOpt.get();
-            // Проверка, не изменился ли файл (размер, дата модификации)
-            // (Эту логику можно усложнить, как мы обсуждали ранее, с хэшами и т.д.)
-            try {
-                BasicFileAttributes attrs = Files.readAttributes(diskFile.toPath(), BasicFileAttributes.class);
-                long currentSize = attrs.size();
-                long currentModDate = attrs.lastModifiedTime().toMillis();
-
-                boolean needsUpdate = false;
-                if (trackedFile.getSizeBytes() != currentSize || trackedFile.getModifiedDate() != currentModDate) {
-                    logger.info("File {} has changed on disk. Updating metadata.", absolutePath);
-                    trackedFile.setSizeBytes(currentSize);
-                    trackedFile.setModifiedDate(currentModDate);
-                    // Пересчитываем хэш, если файл изменился
-                    FileHasher.calculateSHA256(diskFile).ifPresent(trackedFile::setContentHash);
-                    needsUpdate = true;
-                }
-                trackedFile.setLastSeenDate(System.currentTimeMillis());
-                if (needsUpdate) {
-                    trackedFileDAO.update(trackedFile);
+        // 2. Файл новый или изменился на диске - нужен отпечаток (полный хэш - только при совпадении отпечатков)
+        Optional<FileHasher.Fingerprint> fingerprintOpt = FileHasher.calculateFingerprint(diskFile);
+        if (fingerprintOpt.isEmpty()) {
+            logger.error("Could not calculate fingerprint for file: {}", absolutePath);
+            // Новый файл без отпечатка создать нельзя, а для существующего оставляем данные из БД
+            return existing == null ? Optional.empty() : saveScanResult(absolutePath, existing.getSizeBytes(), existing.getModifiedDate(), existing, null);
+        }
+        return saveScanResult(absolutePath, currentSize, currentModDate, existing, fingerprintOpt.get());
+    }
+
+    public Optional<TrackedFile> findByPath(String absolutePath) {
+        return trackedFileDAO.getByPath(absolutePath);
+    }
+
+    /**
+     * Загружает из БД все файлы папки (включая подпапки) вместе с тегами двумя запросами,
+     * вместо пары запросов на каждый файл.
+     *
+     * @param directory Папка на диске.
+     * @return Map: абсолютный путь -> TrackedFile с загруженными тегами.
+     */
+    public Map<String, TrackedFile> loadDirectory(File directory) {
+        String directoryPath = directory.getAbsolutePath();
+        List<TrackedFile> files = trackedFileDAO.getByDirectory(directoryPath);
+        Map<Long, Set<Tag>> tagsByFile = files.isEmpty() ? Map.of() : fileTagLinkDAO.getTagsForFilesInDirectory(directoryPath);
+
+        Map<String, TrackedFile> filesByPath = new HashMap<>(files.size() * 2);
+        for (TrackedFile file : files) {
+            Set<Tag> tags = tagsByFile.get(file.getId());
+            if (tags != null) {
+                file.setTags(tags);
+            }
+            filesByPath.put(file.getAbsolutePath(), file);
+        }
+        logger.debug("Prefetched {} tracked files ({} with tags) under {}", files.size(), tagsByFile.size(), directoryPath);
+        return filesByPath;
+    }
+
+    /**
+     * Ищет файлы по тегам на стороне БД и загружает теги только для найденных файлов.
+     *
+     * @param tags Теги фильтра.
+     * @param matchAll true - нужны все теги, false - хотя бы один.
+     * @param directory Папка (вместе с подпапками) или null - вся библиотека.
+     * @return Найденные файлы с тегами, отсортированные по пути.
+     */
+    public List<TrackedFile> findFilesByTags(Set<Tag> tags, boolean matchAll, File directory) {
+        if (tags == null || tags.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<Long> tagIds = new ArrayList<>(tags.size());
+        for (Tag tag : tags) {
+            tagIds.add(tag.getId());
+        }
+        String directoryPath = directory != null ? directory.getAbsolutePath() : null;
+        List<TrackedFile> files = fileTagLinkDAO.getFilesWithTags(tagIds, matchAll, directoryPath);
+        attachTags(files);
+        logger.debug("Tag filter {} (matchAll={}) under {} matched {} files.", tagIds, matchAll, directoryPath, files.size());
+        return files;
+    }
+
+    /**
+     * Ищет файлы по логическому выражению над тегами (AND/OR/NOT) запросом к БД. Теги найденных файлов загружаются.
+     *
+     * @param directory Папка (вместе с подпапками), в которой искать, или null - по всей библиотеке.
+     */
+    public List<TrackedFile> findFilesByQuery(TagQuery query, File directory) {
+        if (query == null) {
+            return new ArrayList<>();
+        }
+        long start = System.nanoTime();
+        String directoryPath = directory != null ? directory.getAbsolutePath() : null;
+        TagBitmapIndex index = tagIndex;
+        Optional<FileIdBitmap> matched = index != null ? index.evaluate(query) : Optional.empty();
+        List<TrackedFile> files;
+        if (matched.isPresent()) {
+            files = loadMatchedFiles(matched.get(), directoryPath);
+        } else {
+            files = fileTagLinkDAO.getFilesMatching(query, directoryPath);
+        }
+        attachTags(files);
+        logger.debug("Tag query '{}' under {} matched {} files in {} ms (index: {}).", query, directoryPath, files.size(),
+                (System.nanoTime() - start) / 1_000_000, matched.isPresent());
+        return files;
+    }
+
+    /**
+     * Загружает строки файлов, найденных индексом. Если совпадений много, а поиск ограничен папкой,
+     * дешевле прочитать папку по диапазону путей и отфильтровать ее по bitmap, чем искать каждый ID.
+     */
+    private List<TrackedFile> loadMatchedFiles(FileIdBitmap matched, String directoryPath) {
+        if (matched.isEmpty()) {
+            return new ArrayList<>();
+        }
+        if (directoryPath != null && matched.getCardinality() > INDEX_ID_LOOKUP_LIMIT) {
+            List<TrackedFile> files = new ArrayList<>();
+            for (TrackedFile file : trackedFileDAO.getByDirectory(directoryPath)) {
+                if (matched.contains(file.getId())) {
+                    files.add(file);
                 }
-            } catch (IOException e) {
-                logger.error("Could not read file attributes for {}: {}", absolutePath, e.getMessage());
-                // Продолжаем с тем, что есть в БД, или можно вернуть empty
+            }
+            return files;
+        }
+        List<Long> ids = new ArrayList<>(matched.getCardinality());
+        matched.forEach(id -> ids.add((long) id));
+        List<TrackedFile> files = trackedFileDAO.getByIds(ids, directoryPath);
+        files.sort(Comparator.comparing(TrackedFile::getAbsolutePath));
+        return files;
+    }
+
+    private void attachTags(List<TrackedFile> files) {
+        if (files.isEmpty()) {
+            return;
+        }
+        List<Long> fileIds = new ArrayList<>(files.size());
+        for (TrackedFile file : files) {
+            fileIds.add(file.getId());
+        }
+        Map<Long, Set<Tag>> tagsByFile = fileTagLinkDAO.getTagsForFiles(fileIds);
+        for (TrackedFile file : files) {
+            file.setTags(tagsByFile.getOrDefault(file.getId(), new HashSet<>()));
+        }
+    }
+
+    /**
+     * Файл считается неизменным, если совпадают размер и дата модификации (хэш в этом случае не пересчитываем).
+     */
+    public static boolean isUnchanged(TrackedFile trackedFile, long sizeBytes, long modifiedDate) {
+        return trackedFile.getSizeBytes() == sizeBytes && trackedFile.getModifiedDate() == modifiedDate;
+    }
+
+    /**
+     * Сохраняет в БД результат сканирования одного файла.
+     * Для существующей записи обновляются last_seen_date и, если передан новый отпечаток, размер/дата/хэши;
+     * теги загружаются. Для нового пути (existing == null) отпечаток обязателен: если это перемещенный файл,
+     * переносится его прежняя запись, иначе создается новая. Если отпечаток совпал с другими файлами,
+     * для них в фоне досчитываются полные хэши.
+     *
+     * @param absolutePath Абсолютный путь к файлу.
+     * @param sizeBytes Текущий размер файла.
+     * @param modifiedDate Текущая дата модификации файла.
+     * @param existing Запись из БД для этого пути или null, если ее нет.
+     * @param hashes Новый отпечаток (и полный хэш, если файл прочитан целиком) или null, если файл не менялся.
+     * @return Optional с сохраненным TrackedFile, или Optional.empty() если произошла ошибка.
+     */
+    public Optional<TrackedFile> saveScanResult(String absolutePath, long sizeBytes, long modifiedDate,
+                                                TrackedFile existing, FileHasher.Fingerprint hashes) {
+        if (existing != null) {
+            if (hashes != null) {
+                logger.info("File {} has changed on disk. Updating metadata.", absolutePath);
+                existing.setSizeBytes(sizeBytes);
+                existing.setModifiedDate(modifiedDate);
+                applyHashes(existing, hashes);
+            }
+            existing.setLastSeenDate(System.currentTimeMillis());
+            if (trackedFileDAO.update(existing) && hashes != null) {
+                resolveFingerprintCollisions(List.of(existing));
             }
 
             // Загружаем теги для существующего файла
-            trackedFile.setTags(fileTagLinkDAO.getTagsForFile(trackedFile.getId()));
-            logger.debug("Found existing TrackedFile: {} with {} tags", trackedFile, trackedFile.getTags().size());
-            return Optional.of(trackedFile);
-        } else {
-            // 2. Файла нет в БД по этому пути, создаем новый
-            logger.info("File {} not found in DB by path. Creating new entry.", absolutePath);
-            Optional<String> hashOpt = FileHasher.calculateSHA256(diskFile);
-            if (hashOpt.isEmpty()) {
-                logger.error("Could not calculate hash for new file: {}", absolutePath);
-                return Optional.empty(); // Не можем создать файл без хэша
+            existing.setTags(fileTagLinkDAO.getTagsForFile(existing.getId()));
+            logger.debug("Found existing TrackedFile: {} with {} tags", existing, existing.getTags().size());
+            return Optional.of(existing);
+        }
+
+        if (hashes == null) {
+            logger.error("Cannot create TrackedFile without fingerprint: {}", absolutePath);
+            return Optional.empty();
+        }
+        TrackedFile newTrackedFile = new TrackedFile(absolutePath, hashes.contentHash(), sizeBytes, modifiedDate);
+        applyHashes(newTrackedFile, hashes);
+        TrackedFile moved = findMovedFile(newTrackedFile);
+        if (moved != null) {
+            newTrackedFile.setId(moved.getId());
+            keepStoredHashes(newTrackedFile, moved);
+            if (!trackedFileDAO.relocateAll(List.of(newTrackedFile)).isEmpty()) {
+                newTrackedFile.setTags(fileTagLinkDAO.getTagsForFile(newTrackedFile.getId()));
+                logger.info("File {} was moved from {}. Keeping its entry and {} tags.", absolutePath, moved.getAbsolutePath(),
+                        newTrackedFile.getTags().size());
+                return Optional.of(newTrackedFile);
+            }
+            newTrackedFile.setId(0); // Перенос не удался - сохраняем как новый файл
+        }
+        logger.info("File {} not found in DB by path. Creating new entry.", absolutePath);
+        // Попытка сохранить в БД
+        Optional<TrackedFile> createdFileOpt = trackedFileDAO.create(newTrackedFile);
+        if (createdFileOpt.isPresent()) {
+            resolveFingerprintCollisions(List.of(createdFileOpt.get()));
+            TagBitmapIndex index = tagIndex;
+            if (index != null) {
+                index.onFilesAdded(List.of(createdFileOpt.get().getId()));
+            }
+            // Новый файл по определению не имеет тегов, так что getTagsForFile не нужен
+            logger.info("Created new TrackedFile: {}", createdFileOpt.get());
+            return createdFileOpt;
+        }
+        // Это может случиться, если при создании возникла гонка или другая ошибка
+        // Попробуем еще раз найти по пути, вдруг его кто-то создал параллельно
+        return findByPathWithTags(absolutePath);
+    }
+
+    /**
+     * Сохраняет результаты сканирования пачкой: перемещенные файлы переносятся на новый путь,
+     * остальные новые и изменившиеся - одним upsert, неизменившиеся - одним обновлением last_seen_date.
+     * Для файлов, чьи отпечатки совпали с другими, затем в фоне досчитываются полные хэши.
+     * Теги существующих файлов не перечитываются: они должны быть загружены заранее через {@link #loadDirectory(File)};
+     * теги перемещенных файлов загружаются.
+     *
+     * @param changedFiles Новые (id == 0) и изменившиеся файлы с актуальными размером, датой и отпечатком.
+     * @param unchangedFiles Файлы из БД, которые не менялись на диске.
+     * @return Все успешно сохраненные файлы; файлы, которые записать не удалось, в него не попадают.
+     */
+    public List<TrackedFile> saveScanResults(List<TrackedFile> changedFiles, List<TrackedFile> unchangedFiles) {
+        return saveScanResults(changedFiles, unchangedFiles, Runnable::run);
+    }
+
+    /**
+     * То же, что {@link #saveScanResults(List, List)}, но работа с диском при поиске перемещенных файлов
+     * (проверка старых путей и хэширование для подтверждения) выполняется в diskExecutor, например
+     * в пуле хэширования сканера, а не в потоке записи.
+     */
+    public List<TrackedFile> saveScanResults(List<TrackedFile> changedFiles, List<TrackedFile> unchangedFiles,
+                                             Executor diskExecutor) {
+        long now = System.currentTimeMillis();
+        List<TrackedFile> saved = new ArrayList<>(changedFiles.size() + unchangedFiles.size());
+
+        if (!changedFiles.isEmpty()) {
+            for (TrackedFile file : changedFiles) {
+                file.setLastSeenDate(now);
+            }
+            List<TrackedFile> remaining = new ArrayList<>(changedFiles.size());
+            saved.addAll(relocateMovedFiles(changedFiles, remaining, diskExecutor));
+            List<TrackedFile> upserted = trackedFileDAO.upsertAll(remaining);
+            if (upserted.size() < remaining.size()) {
+                logger.warn("{} of {} scanned files could not be saved.", remaining.size() - upserted.size(), remaining.size());
             }
+            resolveFingerprintCollisions(upserted);
+            saved.addAll(upserted);
+            TagBitmapIndex index = tagIndex;
+            if (index != null && !upserted.isEmpty()) {
+                List<Long> ids = new ArrayList<>(upserted.size());
+                for (TrackedFile file : upserted) {
+                    ids.add(file.getId());
+                }
+                index.onFilesAdded(ids);
+            }
+        }
 
+        if (!unchangedFiles.isEmpty()) {
+            List<Long> ids = new ArrayList<>(unchangedFiles.size());
+            for (TrackedFile file : unchangedFiles) {
+                file.setLastSeenDate(now);
+                ids.add(file.getId());
+            }
+            trackedFileDAO.touchLastSeen(ids, now);
+            saved.addAll(unchangedFiles);
+        }
+        logger.debug("Saved scan batch: {} changed/new, {} unchanged.", changedFiles.size(), unchangedFiles.size());
+        return saved;
+    }
+
+    /**
+     * Находит новые файлы пачки, которые на самом деле перемещены или переименованы, и переносит их записи.
+     * Кандидаты для всей пачки выбираются одним запросом, подтверждение (см. {@link #confirmedCandidates})
+     * идет в diskExecutor параллельно для всех новых файлов.
+     *
+     * @param remaining Сюда попадают файлы, которые нужно сохранить обычным upsert.
+     * @return Перенесенные файлы с прежними ID и тегами.
+     */
+    private List<TrackedFile> relocateMovedFiles(List<TrackedFile> changedFiles, List<TrackedFile> remaining,
+                                                 Executor diskExecutor) {
+        List<TrackedFile> newFiles = new ArrayList<>();
+        for (TrackedFile file : changedFiles) {
+            if (file.getId() <= 0) {
+                newFiles.add(file);
+            }
+        }
+        Map<List<Long>, List<TrackedFile>> candidatesByKey = new HashMap<>();
+        if (!newFiles.isEmpty()) {
+            for (TrackedFile candidate : trackedFileDAO.getBySizeAndModifiedDates(newFiles)) {
+                candidatesByKey.computeIfAbsent(List.of(candidate.getSizeBytes(), candidate.getModifiedDate()),
+                        key -> new ArrayList<>()).add(candidate);
+            }
+        }
+        Map<TrackedFile, CompletableFuture<List<TrackedFile>>> confirmations = new HashMap<>();
+        for (TrackedFile file : newFiles) {
+            List<TrackedFile> candidates = candidatesByKey.get(List.of(file.getSizeBytes(), file.getModifiedDate()));
+            if (candidates != null) {
+                confirmations.put(file, CompletableFuture.supplyAsync(() -> confirmedCandidates(file, candidates), diskExecutor));
+            }
+        }
+
+        List<TrackedFile> moved = new ArrayList<>();
+        Set<Long> claimedIds = new HashSet<>();
+        for (TrackedFile file : changedFiles) {
+            CompletableFuture<List<TrackedFile>> confirmation = confirmations.get(file);
+            TrackedFile previous = confirmation != null ? firstUnclaimed(file, confirmation, claimedIds) : null;
+            if (previous != null) {
+                logger.info("File {} was moved from {}.", file.getAbsolutePath(), previous.getAbsolutePath());
+                claimedIds.add(previous.getId());
+                file.setId(previous.getId());
+                keepStoredHashes(file, previous);
+                moved.add(file);
+                continue;
+            }
+            remaining.add(file);
+        }
+        if (moved.isEmpty()) {
+            return moved;
+        }
+        List<TrackedFile> relocated = trackedFileDAO.relocateAll(moved);
+        if (relocated.isEmpty()) {
+            // Транзакция откатилась - сохраняем как новые файлы, чтобы не потерять их совсем
+            for (TrackedFile file : moved) {
+                file.setId(0);
+            }
+            remaining.addAll(moved);
+            return relocated;
+        }
+        attachTags(relocated);
+        return relocated;
+    }
+
+    private TrackedFile firstUnclaimed(TrackedFile file, CompletableFuture<List<TrackedFile>> confirmation,
+                                       Set<Long> claimedIds) {
+        List<TrackedFile> matches;
+        try {
+            matches = confirmation.join();
+        } catch (CompletionException | CancellationException e) {
+            logger.warn("Could not check whether {} was moved: {}", file.getAbsolutePath(), e.toString());
+            return null;
+        }
+        for (TrackedFile candidate : matches) {
+            if (!claimedIds.contains(candidate.getId())) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Ищет запись файла, который переместили или переименовали в путь file.
+     *
+     * @param file Новый файл с отпечатком; если понадобился его полный хэш, он сохраняется в file.
+     * @return Прежняя запись файла или null.
+     */
+    private TrackedFile findMovedFile(TrackedFile file) {
+        List<TrackedFile> matches = confirmedCandidates(file,
+                trackedFileDAO.getBySizeAndModifiedDate(file.getSizeBytes(), file.getModifiedDate()));
+        return matches.isEmpty() ? null : matches.get(0);
+    }
+
+    /**
+     * Отбирает записи, которые могут быть прежним местом файла file. Кандидаты выбираются по размеру и дате
+     * модификации (перемещение их не меняет), совпадение подтверждается отпечатком, а для записей,
+     * созданных до отпечатков, - полным хэшем. Запись, чей старый путь все еще существует на диске, -
+     * это копия, а не перемещение, и не подходит. Читает диск, поэтому при пакетном сохранении
+     * выполняется в пуле хэширования.
+     *
+     * @param file Новый файл с отпечатком; если понадобился его полный хэш, он сохраняется в file.
+     * @return Подходящие записи в порядке кандидатов.
+     */
+    private static List<TrackedFile> confirmedCandidates(TrackedFile file, List<TrackedFile> candidates) {
+        List<TrackedFile> matches = new ArrayList<>();
+        for (TrackedFile candidate : candidates) {
+            if (candidate.getAbsolutePath().equals(file.getAbsolutePath()) || candidate.getFile().exists()) {
+                continue;
+            }
+            if (sameContent(candidate, file)) {
+                matches.add(candidate);
+            }
+        }
+        return matches;
+    }
+
+    private static boolean sameContent(TrackedFile stored, TrackedFile file) {
+        if (stored.getHashAlgorithm() != file.getHashAlgorithm()) {
+            // Хэши разных алгоритмов несравнимы - считаем хэши нового файла алгоритмом записи
+            if (stored.getFingerprint() != null) {
+                return FileHasher.calculateFingerprint(file.getFile(), stored.getHashAlgorithm())
+                        .map(hashes -> hashes.fingerprint().equals(stored.getFingerprint())).orElse(false);
+            }
+            return stored.getContentHash() != null && FileHasher.calculateHash(file.getFile(), stored.getHashAlgorithm())
+                    .map(stored.getContentHash()::equals).orElse(false);
+        }
+        if (stored.getFingerprint() != null && file.getFingerprint() != null) {
+            return stored.getFingerprint().equals(file.getFingerprint());
+        }
+        if (stored.getContentHash() == null) {
+            return false;
+        }
+        if (file.getContentHash() == null) {
+            FileHasher.calculateHash(file.getFile(), file.getHashAlgorithm()).ifPresent(file::setContentHash);
+        }
+        return stored.getContentHash().equals(file.getContentHash());
+    }
+
+    /**
+     * Перемещенный файл сохраняет хэши своей записи: недостающие берутся из нее, а если запись посчитана
+     * другим алгоритмом, ее хэши и алгоритм заменяют новые целиком, чтобы в строке не смешались алгоритмы.
+     */
+    private static void keepStoredHashes(TrackedFile file, TrackedFile previous) {
+        if (previous.getHashAlgorithm() != file.getHashAlgorithm()) {
+            file.setHashAlgorithm(previous.getHashAlgorithm());
+            file.setFingerprint(previous.getFingerprint());
+            file.setContentHash(previous.getContentHash());
+        } else if (file.getContentHash() == null) {
+            file.setContentHash(previous.getContentHash()); // В БД хэш остается, держим объект в согласии с ней
+        }
+    }
+
+    /**
+     * Записывает в файл отпечаток, полный хэш (если он известен) и их алгоритм.
+     */
+    static void applyHashes(TrackedFile file, FileHasher.Fingerprint hashes) {
+        file.setHashAlgorithm(hashes.algorithm());
+        file.setFingerprint(hashes.fingerprint());
+        file.setContentHash(hashes.contentHash());
+    }
+
+    /**
+     * Находит файлы, чей отпечаток не отличает их от других записей: у сохраненного файла без полного хэша
+     * нашлись записи с тем же отпечатком (или записи того же размера с несравнимым отпечатком). Файлы с полным
+     * хэшем (небольшие, прочитанные целиком) тоже проверяются на записи того же размера, посчитанные другим
+     * алгоритмом или без отпечатка: такие старые записи пересчитываются, иначе копии одного файла со старым
+     * и новым алгоритмом никогда не попадут в одну группу дубликатов. Кандидаты для всей
+     * пачки выбираются одним запросом, а полные хэши участников совпадения досчитываются в фоне с низким приоритетом
+     * (см. {@link #confirmCollisions}), чтобы сохранение пачки не ждало чтения больших файлов. Записи другого
+     * алгоритма пересчитываются алгоритмом файла, чтобы их хэши можно было сравнить. Остальные файлы остаются
+     * с одним отпечатком.
+     *
+     * @param files Только что сохраненные файлы (с ID); сами они не меняются, в фон уходят их копии.
+     */
+    private void resolveFingerprintCollisions(List<TrackedFile> files) {
+        List<TrackedFile> fingerprinted = new ArrayList<>();
+        for (TrackedFile file : files) {
+            if (file.getFingerprint() != null) {
+                fingerprinted.add(file);
+            }
+        }
+        if (fingerprinted.isEmpty()) {
+            return;
+        }
+        Map<ContentHash, List<TrackedFile>> byFingerprint = new HashMap<>();
+        Map<Long, List<TrackedFile>> bySize = new HashMap<>();
+        for (TrackedFile candidate : trackedFileDAO.getCollisionCandidates(fingerprinted)) {
+            if (candidate.getFingerprint() != null) {
+                byFingerprint.computeIfAbsent(candidate.getFingerprint(), key -> new ArrayList<>()).add(candidate);
+            }
+            bySize.computeIfAbsent(candidate.getSizeBytes(), key -> new ArrayList<>()).add(candidate);
+        }
+
+        Map<Long, PendingHash> pending = new LinkedHashMap<>();
+        for (TrackedFile file : fingerprinted) {
+            HashAlgorithm algorithm = file.getHashAlgorithm();
+            List<TrackedFile> collisions = new ArrayList<>();
+            for (TrackedFile other : byFingerprint.getOrDefault(file.getFingerprint(), List.of())) {
+                if (other.getId() != file.getId() && other.getHashAlgorithm() == algorithm) {
+                    collisions.add(other);
+                }
+            }
+            for (TrackedFile other : bySize.getOrDefault(file.getSizeBytes(), List.of())) {
+                if (other.getId() != file.getId()
+                        && (other.getFingerprint() == null || other.getHashAlgorithm() != algorithm)) {
+                    collisions.add(other);
+                }
+            }
+            if (collisions.isEmpty()) {
+                continue;
+            }
+            collisions.add(copyOf(file));
+            for (TrackedFile member : collisions) {
+                if (member.getHashAlgorithm() != algorithm || member.getContentHash() == null) {
+                    pending.putIfAbsent(member.getId(), new PendingHash(member, algorithm));
+                }
+            }
+        }
+        pending.keySet().removeIf(id -> !queuedHashIds.add(id)); // Уже ждут в очереди
+        if (!pending.isEmpty()) {
+            List<PendingHash> jobs = new ArrayList<>(pending.values());
             try {
-                BasicFileAttributes attrs = Files.readAttributes(diskFile.toPath(), BasicFileAttributes.class);
-                TrackedFile newTrackedFile = new TrackedFile(
-                        absolutePath,
-                        hashOpt.get(),
-                        attrs.size(),
-                        attrs.lastModifiedTime().toMillis()
-                );
-                // Попытка сохранить в БД
-                Optional<TrackedFile> createdFileOpt = trackedFileDAO.create(newTrackedFile);
-                if (createdFileOpt.isPresent()) {
-                    TrackedFile createdFile = createdFileOpt.get();
-                    // Новый файл по определению не имеет тегов, так что getTagsForFile не нужен
-                    logger.info("Created new TrackedFile: {}", createdFile);
-                    return Optional.of(createdFile);
-                } else {
-                    // Это может случиться, если при создании возникла гонка или другая ошибка
-                    // Попробуем еще раз найти по пути, вдруг его кто-то создал параллельно
-                    return trackedFileDAO.getByPath(absolutePath);
+                hashConfirmationExecutor.execute(() -> confirmCollisions(jobs));
+                logger.debug("Queued full content hashes for {} files with matching fingerprints.", jobs.size());
+            } catch (RejectedExecutionException e) {
+                pending.keySet().forEach(queuedHashIds::remove);
+                logger.warn("Content hash queue is closed; {} fingerprint collisions stay unresolved.", jobs.size());
+            }
+        }
+    }
+
+    /**
+     * Фоновая часть {@link #resolveFingerprintCollisions}: хэширует участников совпадения и записывает хэши
+     * через {@link TrackedFileDAO#updateHashes}. Файл, который с момента сканирования изменился или пропал,
+     * пропускается - его подхватит следующее сканирование.
+     */
+    private void confirmCollisions(List<PendingHash> jobs) {
+        long start = System.nanoTime();
+        List<TrackedFile> rehashed = new ArrayList<>(jobs.size());
+        Map<Long, ContentKey> previousKeys = new HashMap<>();
+        try {
+            for (PendingHash job : jobs) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                TrackedFile member = job.file();
+                if (!isUnchangedOnDisk(member)) {
+                    continue;
+                }
+                ContentKey previousKey = member.getContentKey();
+                if (rehash(member, job.algorithm())) {
+                    rehashed.add(member);
+                    previousKeys.put(member.getId(), previousKey);
+                }
+            }
+            if (rehashed.isEmpty()) {
+                return;
+            }
+            int updated = trackedFileDAO.updateHashes(rehashed);
+            logger.info("Calculated full content hashes for {} files with matching fingerprints in {} ms ({} stored).",
+                    rehashed.size(), (System.nanoTime() - start) / 1_000_000, updated);
+            ThumbnailService thumbnails = thumbnailService;
+            if (thumbnails != null) {
+                for (TrackedFile member : rehashed) {
+                    thumbnails.replaceKey(previousKeys.get(member.getId()), member.getContentKey(), member.getFile());
                 }
-            } catch (IOException e) {
-                logger.error("Could not read file attributes for new file {}: {}", absolutePath, e.getMessage());
-                return Optional.empty();
             }
+        } finally {
+            for (PendingHash job : jobs) {
+                queuedHashIds.remove(job.file().getId());
+            }
+        }
+    }
+
+    private static boolean isUnchangedOnDisk(TrackedFile file) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.getFile().toPath(), BasicFileAttributes.class);
+            return isUnchanged(file, attrs.size(), attrs.lastModifiedTime().toMillis());
+        } catch (IOException e) {
+            logger.debug("Skipping content hash for {}: {}", file.getAbsolutePath(), e.getMessage());
+            return false;
         }
     }
 
+    /**
+     * Копия записи без тегов для фоновой работы, чтобы не менять объекты, которые видит вызывающий.
+     */
+    private static TrackedFile copyOf(TrackedFile file) {
+        TrackedFile copy = new TrackedFile(file.getId(), file.getAbsolutePath(), file.getContentHash(),
+                file.getSizeBytes(), file.getModifiedDate(), file.getLastSeenDate());
+        copy.setFingerprint(file.getFingerprint());
+        copy.setHashAlgorithm(file.getHashAlgorithm());
+        return copy;
+    }
+
+    /**
+     * Ждет, пока досчитаются полные хэши, поставленные в очередь до вызова, например перед поиском дубликатов.
+     */
+    public void awaitPendingHashes() throws InterruptedException {
+        try {
+            // Очередь однопоточная: пустая задача выполнится после всех поставленных раньше
+            hashConfirmationExecutor.submit(() -> { }).get();
+        } catch (ExecutionException | RejectedExecutionException e) {
+            logger.debug("Not waiting for content hashes: {}", e.toString());
+        }
+    }
+
+    /**
+     * Останавливает фоновое хэширование; недосчитанные совпадения останутся с одними отпечатками
+     * до следующего сканирования.
+     */
+    public void close() {
+        hashConfirmationExecutor.shutdownNow();
+    }
+
+    private record PendingHash(TrackedFile file, HashAlgorithm algorithm) {
+    }
+
+    private static boolean rehash(TrackedFile file, HashAlgorithm algorithm) {
+        if (file.getHashAlgorithm() != algorithm) {
+            Optional<FileHasher.Fingerprint> hashes = FileHasher.calculateFingerprint(file.getFile(), algorithm);
+            if (hashes.isEmpty()) {
+                return false;
+            }
+            applyHashes(file, hashes.get());
+        }
+        if (file.getContentHash() == null) {
+            Optional<ContentHash> contentHash = FileHasher.calculateHash(file.getFile(), algorithm);
+            if (contentHash.isEmpty()) {
+                return false;
+            }
+            file.setContentHash(contentHash.get());
+        }
+        return true;
+    }
+
     public void addTagToFile(TrackedFile file, Tag tag) {
         if (file == null || tag == null || file.getId() <= 0 || tag.getId() <= 0) {
             logger.warn("Invalid file or tag provided for linking. File: {}, Tag: {}", file, tag);
@@ -131,6 +718,10 @@ public class TrackedFileService {
         }
         if (fileTagLinkDAO.linkTagToFile(file.getId(), tag.getId())) {
             file.addTag(tag); // Обновляем объект в памяти
+            TagBitmapIndex index = tagIndex;
+            if (index != null) {
+                index.onTagLinked(file.getId(), tag);
+            }
             logger.info("Tag '{}' added to file '{}'", tag.getName(), file.getAbsolutePath());
         }
     }
@@ -142,6 +733,10 @@ public class TrackedFileService {
         }
         if (fileTagLinkDAO.unlinkTagFromFile(file.getId(), tag.getId())) {
             file.removeTag(tag); // Обновляем объект в памяти
+            TagBitmapIndex index = tagIndex;
+            if (index != null) {
+                index.onTagUnlinked(file.getId(), tag.getId());
+            }
             logger.info("Tag '{}' removed from file '{}'", tag.getName(), file.getAbsolutePath());
         }
     }
@@ -171,7 +766,13 @@ public class TrackedFileService {
             }
         }
 
-        fileTagLinkDAO.replaceTagsForFile(file.getId(), tags);
+        if (!fileTagLinkDAO.replaceTagsForFile(file.getId(), tags)) {
+            return; // Транзакция откатилась, теги файла не изменились
+        }
+        TagBitmapIndex index = tagIndex;
+        if (index != null) {
+            index.onTagsReplaced(file.getId(), tags);
+        }
         file.setTags(tags); // Обновляем объект в памяти
         logger.info("Set {} tags for file '{}'", tags.size(), file.getAbsolutePath());
     }
@@ -185,7 +786,7 @@ public class TrackedFileService {
     public void updateLastSeen(TrackedFile file) {
         if (file != null && file.getId() > 0) {
             file.setLastSeenDate(System.currentTimeMillis());
-            trackedFileDAO.update(file); // Обновляем только last_seen_date (и другие поля, если они изменились)
+            trackedFileDAO.touchLastSeen(List.of(file.getId()), file.getLastSeenDate()); // Обновляем только last_seen_date
         }
     }
 }
\ No newline at end of file
@@ -1,13 +1,26 @@
 package com.example.imagetagger.persistence;
 
+import com.example.imagetagger.persistence.migration.Migrations;
+import com.example.imagetagger.persistence.migration.SchemaMigrator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.sqlite.SQLiteConfig;
 
 import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 public class DatabaseManager {
     private static final Logger logger = LoggerFactory.getLogger(DatabaseManager.class);
@@ -17,78 +30,246 @@ public class DatabaseManager {
     private static final String APP_DATA_FOLDER_NAME = ".ImageTagger"; // С точкой для скрытия в Unix-like системах
     private static final String DB_FILE_NAME = "image_tagger_data.sqlite";
 
+    // Один писатель (SQLite все равно сериализует запись) и небольшой пул читателей
+    private static final int READ_POOL_SIZE = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+    private static final long CONNECTION_WAIT_SECONDS = 30;
+    private static final ReentrantLock WRITE_LOCK = new ReentrantLock();
+    private static final BlockingQueue<Connection> IDLE_READ_CONNECTIONS = new LinkedBlockingQueue<>();
+    private static final AtomicInteger OPEN_READ_CONNECTIONS = new AtomicInteger();
+    private static Connection writeConnection; // Доступ только под WRITE_LOCK
+    private static volatile boolean dataFolderReady = false;
+    private static volatile SqlitePerformanceProfile performanceProfile = SqlitePerformanceProfile.fromSystemProperties();
+
     private static String getDbFolderPath() {
         String homeDir = System.getProperty("user.home");
         return homeDir + File.separator + APP_DATA_FOLDER_NAME;
     }
 
+    /**
+     * Папка данных приложения (рядом с БД хранятся, например, миниатюры).
+     */
+    public static Path getAppDataFolder() {
+        return Path.of(getDbFolderPath());
+    }
+
     private static String getDbUrl() {
         return "jdbc:sqlite:" + getDbFolderPath() + File.separator + DB_FILE_NAME;
     }
 
 
+    public static SqlitePerformanceProfile getPerformanceProfile() {
+        return performanceProfile;
+    }
+
+    /**
+     * Задает PRAGMA-профиль для новых соединений. Уже открытые соединения не перенастраиваются,
+     * поэтому профиль нужно задавать до {@link #initializeDatabase()} (или после {@link #shutdown()}).
+     */
+    public static void setPerformanceProfile(SqlitePerformanceProfile profile) {
+        if (profile == null) {
+            throw new IllegalArgumentException("Performance profile must not be null");
+        }
+        performanceProfile = profile;
+    }
+
+    /**
+     * Соединение для записи (и чтения в рамках той же транзакции).
+     * Оставлено для обратной совместимости, эквивалентно {@link #getWriteConnection()}.
+     */
     public static Connection getConnection() throws SQLException {
-        File dbFolder = new File(getDbFolderPath());
-        if (!dbFolder.exists()) {
-            if (dbFolder.mkdirs()) {
-                logger.info("Application data folder created: {}", dbFolder.getAbsolutePath());
+        return getWriteConnection();
+    }
+
+    /**
+     * Возвращает единственное соединение-писатель. Пока оно не закрыто вызывающим кодом,
+     * другие потоки, которым нужна запись, ждут. Повторный вызов из того же потока возвращает то же соединение.
+     * close() у полученного объекта не закрывает физическое соединение, а освобождает его.
+     */
+    public static Connection getWriteConnection() throws SQLException {
+        WRITE_LOCK.lock();
+        try {
+            if (writeConnection == null || writeConnection.isClosed()) {
+                writeConnection = openPhysicalConnection(false);
+            }
+            return pooledHandle(writeConnection, DatabaseManager::releaseWriteConnection);
+        } catch (SQLException | RuntimeException e) {
+            WRITE_LOCK.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Возвращает соединение только для чтения из пула. close() возвращает его в пул.
+     */
+    public static Connection getReadConnection() throws SQLException {
+        Connection connection = IDLE_READ_CONNECTIONS.poll();
+        if (connection == null) {
+            if (OPEN_READ_CONNECTIONS.incrementAndGet() <= READ_POOL_SIZE) {
+                try {
+                    connection = openPhysicalConnection(true);
+                } catch (SQLException | RuntimeException e) {
+                    OPEN_READ_CONNECTIONS.decrementAndGet();
+                    throw e;
+                }
             } else {
-                logger.error("Failed to create application data folder: {}", dbFolder.getAbsolutePath());
-                // Можно выбросить исключение или обработать ошибку иначе
+                OPEN_READ_CONNECTIONS.decrementAndGet();
+                try {
+                    connection = IDLE_READ_CONNECTIONS.poll(CONNECTION_WAIT_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while waiting for a read connection", e);
+                }
+                if (connection == null) {
+                    throw new SQLException("Timed out waiting for a read connection");
+                }
+            }
+        }
+        return pooledHandle(connection, DatabaseManager::releaseReadConnection);
+    }
+
+    /**
+     * Закрывает все физические соединения. Вызывается при завершении приложения.
+     */
+    public static void shutdown() {
+        Connection connection;
+        while ((connection = IDLE_READ_CONNECTIONS.poll()) != null) {
+            closeQuietly(connection);
+            OPEN_READ_CONNECTIONS.decrementAndGet();
+        }
+        WRITE_LOCK.lock();
+        try {
+            if (writeConnection != null) {
+                closeQuietly(writeConnection);
+                writeConnection = null;
             }
+        } finally {
+            WRITE_LOCK.unlock();
+        }
+        logger.info("Database connections closed.");
+    }
+
+    private static Connection openPhysicalConnection(boolean readOnly) throws SQLException {
+        ensureDataFolderExists();
+        logger.debug("Opening {} database connection at: {}", readOnly ? "read-only" : "write", getDbUrl());
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(readOnly);
+        Connection connection = DriverManager.getConnection(getDbUrl(), config.toProperties());
+        try {
+            performanceProfile.applyTo(connection, readOnly);
+        } catch (SQLException e) {
+            closeQuietly(connection);
+            throw e;
         }
-        logger.debug("Attempting to connect to database at: {}", getDbUrl());
-        return DriverManager.getConnection(getDbUrl());
+        return connection;
+    }
+
+    private static void ensureDataFolderExists() {
+        if (dataFolderReady) {
+            return;
+        }
+        synchronized (DatabaseManager.class) {
+            File dbFolder = new File(getDbFolderPath());
+            if (!dbFolder.exists()) {
+                if (dbFolder.mkdirs()) {
+                    logger.info("Application data folder created: {}", dbFolder.getAbsolutePath());
+                } else {
+                    logger.error("Failed to create application data folder: {}", dbFolder.getAbsolutePath());
+                    // Можно выбросить исключение или обработать ошибку иначе
+                }
+            }
+            dataFolderReady = true;
+        }
+    }
+
+    private static void releaseWriteConnection(Connection connection) {
+        try {
+            // Последний владелец в потоке не должен оставить за собой открытую транзакцию
+            if (WRITE_LOCK.getHoldCount() == 1 && !connection.isClosed() && !connection.getAutoCommit()) {
+                logger.warn("Write connection released inside an open transaction. Rolling back.");
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            logger.error("Failed to reset write connection. It will be reopened.", e);
+            closeQuietly(connection);
+        } finally {
+            WRITE_LOCK.unlock();
+        }
+    }
+
+    private static void releaseReadConnection(Connection connection) {
+        try {
+            if (!connection.isClosed() && IDLE_READ_CONNECTIONS.offer(connection)) {
+                return;
+            }
+        } catch (SQLException e) {
+            logger.warn("Discarding broken read connection.", e);
+        }
+        closeQuietly(connection);
+        OPEN_READ_CONNECTIONS.decrementAndGet();
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.warn("Error closing database connection.", e);
+        }
+    }
+
+    /**
+     * Оборачивает физическое соединение так, чтобы close() возвращало его владельцу, а не закрывало.
+     */
+    private static Connection pooledHandle(Connection physical, Consumer<Connection> releaser) {
+        AtomicBoolean released = new AtomicBoolean(false);
+        InvocationHandler handler = (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "close":
+                    if (released.compareAndSet(false, true)) {
+                        releaser.accept(physical);
+                    }
+                    return null;
+                case "isClosed":
+                    return released.get() || physical.isClosed();
+                case "unwrap":
+                    if (((Class<?>) args[0]).isInstance(proxy)) {
+                        return proxy;
+                    }
+                    break;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled[" + physical + "]";
+                default:
+                    break;
+            }
+            if (released.get()) {
+                throw new SQLException("Connection handle has already been closed");
+            }
+            try {
+                return method.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        };
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, handler);
     }
 
+    /**
+     * Создает схему БД или обновляет ее до последней версии (см. {@link Migrations}).
+     */
     public static void initializeDatabase() {
-        String createTagsTable = "CREATE TABLE IF NOT EXISTS tags ("
-                + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
-                + "name TEXT UNIQUE NOT NULL"
-                + ");";
-
-        String createTrackedFilesTable = "CREATE TABLE IF NOT EXISTS tracked_files ("
-                + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
-                + "absolute_path TEXT UNIQUE NOT NULL,"
-                + "content_hash TEXT NOT NULL,"
-                + "size_bytes INTEGER NOT NULL,"
-                + "modified_date INTEGER NOT NULL," // Храним как Unix timestamp (long)
-                + "last_seen_date INTEGER NOT NULL" // Храним как Unix timestamp (long)
-                + ");";
-
-        String createFileTagLinksTable = "CREATE TABLE IF NOT EXISTS file_tag_links ("
-                + "file_id INTEGER NOT NULL,"
-                + "tag_id INTEGER NOT NULL,"
-                + "PRIMARY KEY (file_id, tag_id),"
-                + "FOREIGN KEY (file_id) REFERENCES tracked_files(id) ON DELETE CASCADE,"
-                + "FOREIGN KEY (tag_id) REFERENCES tags(id) ON DELETE CASCADE"
-                + ");";
-
-        String createIndexPathOnTrackedFiles = "CREATE INDEX IF NOT EXISTS idx_tracked_files_path ON tracked_files (absolute_path);";
-        String createIndexHashOnTrackedFiles = "CREATE INDEX IF NOT EXISTS idx_tracked_files_hash ON tracked_files (content_hash);";
-        String createIndexTagName = "CREATE INDEX IF NOT EXISTS idx_tags_name ON tags (name);";
-
-
-        try (Connection conn = getConnection(); // getConnection() теперь создает папку, если нужно
-             Statement stmt = conn.createStatement()) {
-            logger.info("Initializing database schema...");
-            stmt.execute(createTagsTable);
-            logger.debug("Table 'tags' ensured.");
-            stmt.execute(createTrackedFilesTable);
-            logger.debug("Table 'tracked_files' ensured.");
-            stmt.execute(createFileTagLinksTable);
-            logger.debug("Table 'file_tag_links' ensured.");
-            stmt.execute(createIndexPathOnTrackedFiles);
-            logger.debug("Index 'idx_tracked_files_path' ensured.");
-            stmt.execute(createIndexHashOnTrackedFiles);
-            logger.debug("Index 'idx_tracked_files_hash' ensured.");
-            stmt.execute(createIndexTagName);
-            logger.debug("Index 'idx_tags_name' ensured.");
-            logger.info("Database schema initialization complete.");
+        SchemaMigrator migrator = new SchemaMigrator(Migrations.all());
+        try (Connection conn = getWriteConnection()) { // Папка с данными создается при открытии первого соединения
+            logger.info("Initializing database schema with {}", performanceProfile);
+            int version = migrator.migrate(conn);
+            logger.info("Database schema initialization complete (version {}).", version);
         } catch (SQLException e) {
             logger.error("Failed to initialize database schema.", e);
             // Перебрасываем как RuntimeException, т.к. без БД приложение не может работать корректно
             throw new RuntimeException("Failed to initialize database schema", e);
         }
     }
-}
\ No newline at end of file
+}
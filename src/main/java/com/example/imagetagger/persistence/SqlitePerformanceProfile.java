@@ -0,0 +1,167 @@
+package com.example.imagetagger.persistence;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Locale;
+
+/**
+ * Набор PRAGMA-настроек SQLite, которые {@link DatabaseManager} применяет к каждому открываемому соединению.
+ * По умолчанию используется профиль {@link #performance()}: WAL позволяет UI читать теги,
+ * пока фоновое сканирование пишет в БД, а synchronous=NORMAL убирает fsync на каждый автокоммит.
+ */
+public class SqlitePerformanceProfile {
+
+    private static final Logger logger = LoggerFactory.getLogger(SqlitePerformanceProfile.class);
+
+    public static final String PROFILE_PROPERTY = "imagetagger.db.profile";
+
+    private String name;
+    private String journalMode;   // WAL, DELETE, TRUNCATE...
+    private String synchronous;   // OFF, NORMAL, FULL, EXTRA
+    private long cacheSizeKb;     // Размер кэша страниц на соединение
+    private long mmapSizeBytes;   // 0 - не использовать mmap
+    private String tempStore;     // DEFAULT, FILE, MEMORY
+    private int busyTimeoutMillis;
+    private boolean foreignKeys;
+
+    public SqlitePerformanceProfile(String name, String journalMode, String synchronous, long cacheSizeKb,
+                                    long mmapSizeBytes, String tempStore, int busyTimeoutMillis, boolean foreignKeys) {
+        this.name = name;
+        this.journalMode = journalMode;
+        this.synchronous = synchronous;
+        this.cacheSizeKb = cacheSizeKb;
+        this.mmapSizeBytes = mmapSizeBytes;
+        this.tempStore = tempStore;
+        this.busyTimeoutMillis = busyTimeoutMillis;
+        this.foreignKeys = foreignKeys;
+    }
+
+    /**
+     * Профиль для быстрой работы: WAL, synchronous=NORMAL, 64 МБ кэша, 256 МБ mmap, временные таблицы в памяти.
+     */
+    public static SqlitePerformanceProfile performance() {
+        return new SqlitePerformanceProfile("performance", "WAL", "NORMAL", 64 * 1024,
+                256L * 1024 * 1024, "MEMORY", 5000, true);
+    }
+
+    /**
+     * Настройки SQLite по умолчанию (журнал отката, synchronous=FULL), но с внешними ключами и ожиданием блокировок.
+     */
+    public static SqlitePerformanceProfile safe() {
+        return new SqlitePerformanceProfile("safe", "DELETE", "FULL", 2000,
+                0, "DEFAULT", 5000, true);
+    }
+
+    /**
+     * Выбирает профиль по системному свойству {@value #PROFILE_PROPERTY} ("performance" или "safe").
+     * Неизвестное значение не мешает запуску: вызывается из статической инициализации DatabaseManager,
+     * где исключение сделало бы БД недоступной, поэтому используется профиль по умолчанию.
+     */
+    public static SqlitePerformanceProfile fromSystemProperties() {
+        String profileName = System.getProperty(PROFILE_PROPERTY, "performance").trim().toLowerCase(Locale.ROOT);
+        return switch (profileName) {
+            case "safe" -> safe();
+            case "performance" -> performance();
+            default -> {
+                logger.warn("Unknown database profile '{}' in {}, using 'performance'.", profileName, PROFILE_PROPERTY);
+                yield performance();
+            }
+        };
+    }
+
+    /**
+     * Применяет настройки к только что открытому соединению.
+     * Режим журнала хранится в самом файле БД, поэтому для соединений только на чтение он не меняется.
+     */
+    public void applyTo(Connection connection, boolean readOnly) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA busy_timeout = " + busyTimeoutMillis);
+            if (!readOnly) {
+                stmt.execute("PRAGMA journal_mode = " + journalMode);
+            }
+            stmt.execute("PRAGMA synchronous = " + synchronous);
+            stmt.execute("PRAGMA cache_size = " + (-cacheSizeKb)); // Отрицательное значение - размер в КиБ
+            stmt.execute("PRAGMA mmap_size = " + mmapSizeBytes);
+            stmt.execute("PRAGMA temp_store = " + tempStore);
+            stmt.execute("PRAGMA foreign_keys = " + (foreignKeys ? "ON" : "OFF"));
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getJournalMode() {
+        return journalMode;
+    }
+
+    public void setJournalMode(String journalMode) {
+        this.journalMode = journalMode;
+    }
+
+    public String getSynchronous() {
+        return synchronous;
+    }
+
+    public void setSynchronous(String synchronous) {
+        this.synchronous = synchronous;
+    }
+
+    public long getCacheSizeKb() {
+        return cacheSizeKb;
+    }
+
+    public void setCacheSizeKb(long cacheSizeKb) {
+        this.cacheSizeKb = cacheSizeKb;
+    }
+
+    public long getMmapSizeBytes() {
+        return mmapSizeBytes;
+    }
+
+    public void setMmapSizeBytes(long mmapSizeBytes) {
+        this.mmapSizeBytes = mmapSizeBytes;
+    }
+
+    public String getTempStore() {
+        return tempStore;
+    }
+
+    public void setTempStore(String tempStore) {
+        this.tempStore = tempStore;
+    }
+
+    public int getBusyTimeoutMillis() {
+        return busyTimeoutMillis;
+    }
+
+    public void setBusyTimeoutMillis(int busyTimeoutMillis) {
+        this.busyTimeoutMillis = busyTimeoutMillis;
+    }
+
+    public boolean isForeignKeys() {
+        return foreignKeys;
+    }
+
+    public void setForeignKeys(boolean foreignKeys) {
+        this.foreignKeys = foreignKeys;
+    }
+
+    @Override
+    public String toString() {
+        return "SqlitePerformanceProfile{" +
+               "name='" + name + '\'' +
+               ", journalMode=" + journalMode +
+               ", synchronous=" + synchronous +
+               ", cacheSizeKb=" + cacheSizeKb +
+               ", mmapSizeBytes=" + mmapSizeBytes +
+               ", tempStore=" + tempStore +
+               ", busyTimeoutMillis=" + busyTimeoutMillis +
+               ", foreignKeys=" + foreignKeys +
+               '}';
+    }
+}
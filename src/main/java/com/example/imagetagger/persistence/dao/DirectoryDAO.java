@@ -0,0 +1,97 @@
+package com.example.imagetagger.persistence.dao;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Map;
+
+/**
+ * Работа с таблицей directories: каждая папка хранится один раз, файлы ссылаются на нее по ID.
+ * Используется другими DAO внутри их соединений и транзакций, поэтому методы принимают Connection.
+ */
+final class DirectoryDAO {
+
+    /**
+     * Условие "папка входит в поддерево" для колонки directory_id; параметры задаются {@link #bindSubtree}.
+     * Поддерево ищется диапазоном по уникальному индексу directories(path) - папок на порядки меньше,
+     * чем файлов, - а файлы затем выбираются по индексу (directory_id, file_name).
+     */
+    static final String SUBTREE_CONDITION = " IN (SELECT id FROM directories WHERE path = ? OR (path >= ? AND path < ?))";
+
+    private DirectoryDAO() {
+    }
+
+    /**
+     * Путь папки в том виде, в котором он хранится в БД (без разделителя на конце, кроме корня).
+     */
+    static String normalize(String directoryPath) {
+        return new File(directoryPath).getPath();
+    }
+
+    /**
+     * Задает параметры {@link #SUBTREE_CONDITION}, начиная с parameter.
+     *
+     * @return Номер следующего параметра.
+     */
+    static int bindSubtree(PreparedStatement pstmt, int parameter, String directoryPath) throws SQLException {
+        String path = normalize(directoryPath);
+        String[] range = directoryPathRange(path);
+        pstmt.setString(parameter++, path);
+        pstmt.setString(parameter++, range[0]);
+        pstmt.setString(parameter++, range[1]);
+        return parameter;
+    }
+
+    /**
+     * Возвращает полуинтервал [from, to) путей, лежащих внутри папки:
+     * from - путь папки с разделителем на конце, to - тот же префикс со следующим за разделителем символом.
+     */
+    private static String[] directoryPathRange(String directoryPath) {
+        String prefix = directoryPath.endsWith(File.separator) ? directoryPath : directoryPath + File.separator;
+        char last = prefix.charAt(prefix.length() - 1);
+        String upperBound = prefix.substring(0, prefix.length() - 1) + (char) (last + 1);
+        return new String[]{prefix, upperBound};
+    }
+
+    /**
+     * ID папки; если ее (или ее предков) еще нет в БД, они создаются.
+     *
+     * @param cache Уже найденные ID по пути; может быть общим для нескольких вызовов в одной транзакции.
+     */
+    static long getOrCreateId(Connection conn, String directoryPath, Map<String, Long> cache) throws SQLException {
+        String path = normalize(directoryPath);
+        Long cached = cache.get(path);
+        if (cached != null) {
+            return cached;
+        }
+        long id;
+        try (PreparedStatement select = conn.prepareStatement("SELECT id FROM directories WHERE path = ?")) {
+            select.setString(1, path);
+            try (ResultSet rs = select.executeQuery()) {
+                id = rs.next() ? rs.getLong(1) : -1;
+            }
+        }
+        if (id < 0) {
+            String parent = new File(path).getParent();
+            Long parentId = parent != null ? getOrCreateId(conn, parent, cache) : null;
+            try (PreparedStatement insert = conn.prepareStatement(
+                    "INSERT INTO directories(parent_id, path) VALUES(?, ?) RETURNING id")) {
+                if (parentId != null) {
+                    insert.setLong(1, parentId);
+                } else {
+                    insert.setNull(1, Types.INTEGER);
+                }
+                insert.setString(2, path);
+                try (ResultSet rs = insert.executeQuery()) {
+                    rs.next();
+                    id = rs.getLong(1);
+                }
+            }
+        }
+        cache.put(path, id);
+        return id;
+    }
+}
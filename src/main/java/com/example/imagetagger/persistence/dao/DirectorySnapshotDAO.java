@@ -0,0 +1,150 @@
+package com.example.imagetagger.persistence.dao;
+
+import com.example.imagetagger.core.model.DirectorySnapshot;
+import com.example.imagetagger.persistence.DatabaseManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+public class DirectorySnapshotDAO {
+    private static final Logger logger = LoggerFactory.getLogger(DirectorySnapshotDAO.class);
+
+    public Optional<DirectorySnapshot> getByPath(String directoryPath) {
+        String sql = "SELECT * FROM directory_snapshots WHERE directory_path = ?";
+        try (Connection conn = DatabaseManager.getReadConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, directoryPath);
+            ResultSet rs = pstmt.executeQuery();
+            if (rs.next()) {
+                return Optional.of(new DirectorySnapshot(
+                        rs.getString("directory_path"),
+                        rs.getLong("modified_date"),
+                        rs.getInt("entry_count"),
+                        rs.getLong("scanned_date")
+                ));
+            }
+        } catch (SQLException e) {
+            logger.error("Error fetching directory snapshot for: {}", directoryPath, e);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Загружает снимки папки и всех ее подпапок одним запросом (диапазоном по первичному ключу, как
+     * {@link DirectoryDAO#SUBTREE_CONDITION}), чтобы при обходе дерева не обращаться к БД за каждой папкой.
+     *
+     * @return Снимки по пути папки.
+     */
+    public Map<String, DirectorySnapshot> getSubtree(String directoryPath) {
+        Map<String, DirectorySnapshot> snapshots = new HashMap<>();
+        String sql = "SELECT * FROM directory_snapshots " +
+                     "WHERE directory_path = ? OR (directory_path >= ? AND directory_path < ?)";
+        try (Connection conn = DatabaseManager.getReadConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            DirectoryDAO.bindSubtree(pstmt, 1, directoryPath);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                DirectorySnapshot snapshot = new DirectorySnapshot(
+                        rs.getString("directory_path"),
+                        rs.getLong("modified_date"),
+                        rs.getInt("entry_count"),
+                        rs.getLong("scanned_date")
+                );
+                snapshots.put(snapshot.getDirectoryPath(), snapshot);
+            }
+        } catch (SQLException e) {
+            logger.error("Error fetching directory snapshots under: {}", directoryPath, e);
+        }
+        return snapshots;
+    }
+
+    private static final String UPSERT_SQL =
+            "INSERT INTO directory_snapshots(directory_path, modified_date, entry_count, scanned_date) " +
+            "VALUES(?, ?, ?, ?) " +
+            "ON CONFLICT(directory_path) DO UPDATE SET modified_date = excluded.modified_date, " +
+            "entry_count = excluded.entry_count, scanned_date = excluded.scanned_date";
+
+    public boolean save(DirectorySnapshot snapshot) {
+        try (Connection conn = DatabaseManager.getWriteConnection();
+             PreparedStatement pstmt = conn.prepareStatement(UPSERT_SQL)) {
+            pstmt.setString(1, snapshot.getDirectoryPath());
+            pstmt.setLong(2, snapshot.getModifiedDate());
+            pstmt.setInt(3, snapshot.getEntryCount());
+            pstmt.setLong(4, snapshot.getScannedDate());
+            pstmt.executeUpdate();
+            logger.debug("Directory snapshot saved: {}", snapshot);
+            return true;
+        } catch (SQLException e) {
+            logger.error("Error saving directory snapshot: {}", snapshot, e);
+            return false;
+        }
+    }
+
+    /**
+     * Сохраняет снимки всех папок дерева одной транзакцией (после рекурсивного сканирования).
+     */
+    public boolean saveAll(List<DirectorySnapshot> snapshots) {
+        if (snapshots == null || snapshots.isEmpty()) {
+            return true;
+        }
+        Connection conn = null;
+        try {
+            conn = DatabaseManager.getWriteConnection();
+            conn.setAutoCommit(false); // Начинаем транзакцию
+
+            try (PreparedStatement pstmt = conn.prepareStatement(UPSERT_SQL)) {
+                for (DirectorySnapshot snapshot : snapshots) {
+                    pstmt.setString(1, snapshot.getDirectoryPath());
+                    pstmt.setLong(2, snapshot.getModifiedDate());
+                    pstmt.setInt(3, snapshot.getEntryCount());
+                    pstmt.setLong(4, snapshot.getScannedDate());
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            }
+            conn.commit(); // Завершаем транзакцию успешно
+            logger.debug("Saved {} directory snapshots.", snapshots.size());
+            return true;
+
+        } catch (SQLException e) {
+            logger.error("Error saving {} directory snapshots", snapshots.size(), e);
+            if (conn != null) {
+                try {
+                    conn.rollback(); // Откатываем транзакцию в случае ошибки
+                } catch (SQLException ex) {
+                    logger.error("Error rolling back directory snapshots save", ex);
+                }
+            }
+            return false;
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.setAutoCommit(true); // Возвращаем режим автокоммита
+                    conn.close();
+                } catch (SQLException e) {
+                    logger.error("Error closing connection after directory snapshots save", e);
+                }
+            }
+        }
+    }
+
+    public boolean delete(String directoryPath) {
+        String sql = "DELETE FROM directory_snapshots WHERE directory_path = ?";
+        try (Connection conn = DatabaseManager.getWriteConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, directoryPath);
+            return pstmt.executeUpdate() > 0;
+        } catch (SQLException e) {
+            logger.error("Error deleting directory snapshot for: {}", directoryPath, e);
+            return false;
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package com.example.imagetagger.persistence.dao;
 
+import com.example.imagetagger.core.model.DuplicateCluster;
 import com.example.imagetagger.core.model.Tag;
 import com.example.imagetagger.core.model.TrackedFile;
+import com.example.imagetagger.core.query.TagQuery;
 import com.example.imagetagger.persistence.DatabaseManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -10,13 +12,28 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class FileTagLinkDAO {
     private static final Logger logger = LoggerFactory.getLogger(FileTagLinkDAO.class);
+    private static final int IN_BATCH_SIZE = 500;
     private final TagDAO tagDAO; // Нужен для получения объектов Tag по ID
 
+    /**
+     * Получатель связей при потоковом чтении {@link #forEachLink(LinkConsumer)}.
+     */
+    public interface LinkConsumer {
+        void accept(long fileId, long tagId);
+    }
+
     public FileTagLinkDAO() {
         this.tagDAO = new TagDAO(); // Или инъекция зависимости
     }
@@ -28,7 +45,7 @@ public class FileTagLinkDAO {
 
     public boolean linkTagToFile(long fileId, long tagId) {
         String sql = "INSERT OR IGNORE INTO file_tag_links(file_id, tag_id) VALUES(?, ?)";
-        try (Connection conn = DatabaseManager.getConnection();
+        try (Connection conn = DatabaseManager.getWriteConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setLong(1, fileId);
             pstmt.setLong(2, tagId);
@@ -49,7 +66,7 @@ public class FileTagLinkDAO {
 
     public boolean unlinkTagFromFile(long fileId, long tagId) {
         String sql = "DELETE FROM file_tag_links WHERE file_id = ? AND tag_id = ?";
-        try (Connection conn = DatabaseManager.getConnection();
+        try (Connection conn = DatabaseManager.getWriteConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setLong(1, fileId);
             pstmt.setLong(2, tagId);
@@ -70,7 +87,7 @@ public class FileTagLinkDAO {
         String sql = "SELECT t.id, t.name FROM tags t " +
                      "JOIN file_tag_links ftl ON t.id = ftl.tag_id " +
                      "WHERE ftl.file_id = ?";
-        try (Connection conn = DatabaseManager.getConnection();
+        try (Connection conn = DatabaseManager.getReadConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setLong(1, fileId);
             ResultSet rs = pstmt.executeQuery();
@@ -83,51 +100,318 @@ public class FileTagLinkDAO {
         return tags;
     }
 
-    public Set<TrackedFile> getFilesForTag(long tagId) {
-        Set<TrackedFile> files = new HashSet<>();
-        // Для этого метода нам понадобится TrackedFileDAO, чтобы сконструировать объекты TrackedFile.
-        // Пока оставим заглушку или простой вариант, если TrackedFileDAO будет доступен.
-        // Проще всего вернуть Set<Long> fileIds, а TrackedFileService сам получит объекты.
-        // Либо, если мы передадим сюда TrackedFileDAO:
-        // String sql = "SELECT tf.* FROM tracked_files tf " +
-        //              "JOIN file_tag_links ftl ON tf.id = ftl.file_id " +
-        //              "WHERE ftl.tag_id = ?";
-        // ... и затем использовать mapRowToTrackedFile из TrackedFileDAO (если сделать его public static или передать DAO)
-        logger.warn("getFilesForTag(long tagId) not fully implemented yet in FileTagLinkDAO.");
-        // Пример реализации, если бы TrackedFileDAO был доступен и имел public mapRowToTrackedFile
-        /*
-        TrackedFileDAO trackedFileDAO = new TrackedFileDAO(); // Не очень хорошо, лучше DI
-        String sql = "SELECT tf.* FROM tracked_files tf " +
-                     "JOIN file_tag_links ftl ON tf.id = ftl.file_id " +
-                     "WHERE ftl.tag_id = ?";
-        try (Connection conn = DatabaseManager.getConnection();
+    /**
+     * Загружает теги всех файлов из папки и ее подпапок одним запросом.
+     * Одинаковые теги у разных файлов представлены одним и тем же объектом Tag.
+     *
+     * @param directoryPath Абсолютный путь к папке.
+     * @return Map: id файла -> его теги. Файлы без тегов в Map не попадают.
+     */
+    public Map<Long, Set<Tag>> getTagsForFilesInDirectory(String directoryPath) {
+        Map<Long, Set<Tag>> tagsByFile = new HashMap<>();
+        Map<Long, Tag> tagsById = new HashMap<>();
+        String sql = "SELECT ftl.file_id, t.id, t.name FROM tracked_files tf " +
+                     "JOIN file_tag_links ftl ON ftl.file_id = tf.id " +
+                     "JOIN tags t ON t.id = ftl.tag_id " +
+                     "WHERE tf.directory_id" + DirectoryDAO.SUBTREE_CONDITION;
+        try (Connection conn = DatabaseManager.getReadConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setLong(1, tagId);
+            DirectoryDAO.bindSubtree(pstmt, 1, directoryPath);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                long tagId = rs.getLong(2);
+                Tag tag = tagsById.get(tagId);
+                if (tag == null) {
+                    tag = new Tag(tagId, rs.getString(3));
+                    tagsById.put(tagId, tag);
+                }
+                tagsByFile.computeIfAbsent(rs.getLong(1), id -> new HashSet<>()).add(tag);
+            }
+        } catch (SQLException e) {
+            logger.error("Error fetching tags for files under directory: {}", directoryPath, e);
+        }
+        return tagsByFile;
+    }
+
+    public Set<TrackedFile> getFilesForTag(long tagId) {
+        return new HashSet<>(getFilesWithTags(List.of(tagId), false, null));
+    }
+
+    /**
+     * Ищет файлы по тегам средствами SQLite. Отбор идет по индексу file_tag_links(tag_id, file_id),
+     * поэтому читаются только связи нужных тегов, а не вся библиотека.
+     *
+     * @param tagIds ID тегов фильтра.
+     * @param matchAll true - у файла должны быть все теги, false - хотя бы один.
+     * @param directoryPath Папка (вместе с подпапками), в которой искать, или null - по всей библиотеке.
+     * @return Найденные файлы без тегов, отсортированные по пути.
+     */
+    public List<TrackedFile> getFilesWithTags(Collection<Long> tagIds, boolean matchAll, String directoryPath) {
+        List<TrackedFile> files = new ArrayList<>();
+        if (tagIds == null || tagIds.isEmpty()) {
+            return files;
+        }
+        StringBuilder sql = new StringBuilder(TrackedFileDAO.SELECT_FILES + " WHERE tf.id IN (" +
+                "SELECT ftl.file_id FROM file_tag_links ftl WHERE ftl.tag_id IN (");
+        sql.append(String.join(", ", Collections.nCopies(tagIds.size(), "?"))).append(')');
+        if (matchAll) {
+            sql.append(" GROUP BY ftl.file_id HAVING COUNT(*) = ?");
+        }
+        sql.append(')');
+        if (directoryPath != null) {
+            sql.append(" AND tf.directory_id").append(DirectoryDAO.SUBTREE_CONDITION);
+        }
+        sql.append(TrackedFileDAO.ORDER_BY_PATH);
+
+        try (Connection conn = DatabaseManager.getReadConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql.toString())) {
+            int parameter = 1;
+            for (long tagId : tagIds) {
+                pstmt.setLong(parameter++, tagId);
+            }
+            if (matchAll) {
+                pstmt.setInt(parameter++, tagIds.size());
+            }
+            if (directoryPath != null) {
+                DirectoryDAO.bindSubtree(pstmt, parameter, directoryPath);
+            }
             ResultSet rs = pstmt.executeQuery();
             while (rs.next()) {
-                // Предполагая, что mapRowToTrackedFile статический или DAO инжектирован
-                // files.add(TrackedFileDAO.mapRowToTrackedFile(rs)); // Пример
+                files.add(TrackedFileDAO.mapRowToTrackedFile(rs));
             }
         } catch (SQLException e) {
-            logger.error("Error fetching files for tagId {}", tagId, e);
+            logger.error("Error fetching files for tags {} (matchAll={}) under {}", tagIds, matchAll, directoryPath, e);
         }
-        */
         return files;
     }
 
+    /**
+     * Ищет файлы по логическому выражению над тегами. Сначала одним запросом читаются ID и число связей
+     * каждого тега выражения (из счетчика tags.link_count), по ним {@link TagQueryPlanner} выбирает порядок проверок.
+     *
+     * @param directoryPath Папка (вместе с подпапками), в которой искать, или null - по всей библиотеке.
+     * @return Найденные файлы без тегов, отсортированные по пути.
+     */
+    public List<TrackedFile> getFilesMatching(TagQuery query, String directoryPath) {
+        List<TrackedFile> files = new ArrayList<>();
+        try (Connection conn = DatabaseManager.getReadConnection()) {
+            TagQueryPlanner planner = new TagQueryPlanner(getTagStatistics(conn, query.getTagNames()), estimateFileCount(conn));
+            TagQueryPlanner.CompiledQuery compiled = planner.compile(query);
+            if (compiled == null) {
+                logger.debug("Tag query '{}' cannot match any file, database query skipped.", query);
+                return files;
+            }
+            StringBuilder sql = new StringBuilder(TrackedFileDAO.SELECT_FILES + " WHERE tf.id IN (")
+                    .append(compiled.sql()).append(')');
+            if (directoryPath != null) {
+                sql.append(" AND tf.directory_id").append(DirectoryDAO.SUBTREE_CONDITION);
+            }
+            sql.append(TrackedFileDAO.ORDER_BY_PATH);
+            logger.debug("Tag query '{}' compiled to: {}", query, compiled.sql());
+
+            try (PreparedStatement pstmt = conn.prepareStatement(sql.toString())) {
+                int parameter = 1;
+                for (long value : compiled.parameters()) {
+                    pstmt.setLong(parameter++, value);
+                }
+                if (directoryPath != null) {
+                    DirectoryDAO.bindSubtree(pstmt, parameter, directoryPath);
+                }
+                ResultSet rs = pstmt.executeQuery();
+                while (rs.next()) {
+                    files.add(TrackedFileDAO.mapRowToTrackedFile(rs));
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("Error fetching files for tag query '{}' under {}", query, directoryPath, e);
+        }
+        return files;
+    }
+
+    /**
+     * ID тегов и число их связей по ключу tags.name_key (имя в нижнем регистре, см. {@link TagQuery#normalize}).
+     * link_count поддерживается триггерами на file_tag_links, поэтому связи здесь не считаются.
+     * Несколько тегов с одним ключом объединяются; несуществующих тегов в результате нет.
+     */
+    private Map<String, TagQueryPlanner.TagStatistics> getTagStatistics(Connection conn, Set<String> tagNames) throws SQLException {
+        Map<String, TagQueryPlanner.TagStatistics> statistics = new HashMap<>();
+        if (tagNames.isEmpty()) {
+            return statistics;
+        }
+        List<String> names = new ArrayList<>(tagNames);
+        String sql = "SELECT id, name_key, link_count FROM tags WHERE name_key IN ("
+                + String.join(", ", Collections.nCopies(names.size(), "?")) + ")";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < names.size(); i++) {
+                pstmt.setString(i + 1, names.get(i));
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    TagQueryPlanner.TagStatistics tag = new TagQueryPlanner.TagStatistics(rs.getLong(1), rs.getLong(3));
+                    statistics.merge(rs.getString(2), tag, (a, b) -> new TagQueryPlanner.TagStatistics(
+                            concat(a.tagIds(), b.tagIds()), a.linkCount() + b.linkCount()));
+                }
+            }
+        }
+        return statistics;
+    }
+
+    private static List<Long> concat(List<Long> first, List<Long> second) {
+        List<Long> result = new ArrayList<>(first);
+        result.addAll(second);
+        return result;
+    }
+
+    /**
+     * Оценка числа файлов сверху по максимальному ID (поиск по первичному ключу вместо COUNT(*) по всей таблице).
+     */
+    private long estimateFileCount(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(id), 0) FROM tracked_files")) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * Читает все связи файл-тег по порядку индекса (tag_id, file_id), не собирая их в список:
+     * на миллионах связей промежуточная коллекция объектов заняла бы сотни мегабайт.
+     *
+     * @return true, если все связи прочитаны без ошибок.
+     */
+    public boolean forEachLink(LinkConsumer consumer) {
+        String sql = "SELECT file_id, tag_id FROM file_tag_links ORDER BY tag_id, file_id";
+        try (Connection conn = DatabaseManager.getReadConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            while (rs.next()) {
+                consumer.accept(rs.getLong(1), rs.getLong(2));
+            }
+            return true;
+        } catch (SQLException e) {
+            logger.error("Error reading file-tag links", e);
+            return false;
+        }
+    }
+
+    /**
+     * Загружает теги набора файлов пачками по {@value #IN_BATCH_SIZE} ID (лимит параметров SQLite).
+     * Одинаковые теги разделяют один объект Tag.
+     */
+    public Map<Long, Set<Tag>> getTagsForFiles(Collection<Long> fileIds) {
+        Map<Long, Set<Tag>> tagsByFile = new HashMap<>();
+        Map<Long, Tag> tagsById = new HashMap<>();
+        List<Long> ids = new ArrayList<>(fileIds);
+        try (Connection conn = DatabaseManager.getReadConnection()) {
+            for (int from = 0; from < ids.size(); from += IN_BATCH_SIZE) {
+                List<Long> batch = ids.subList(from, Math.min(from + IN_BATCH_SIZE, ids.size()));
+                String sql = "SELECT ftl.file_id, t.id, t.name FROM file_tag_links ftl " +
+                             "JOIN tags t ON t.id = ftl.tag_id " +
+                             "WHERE ftl.file_id IN (" + String.join(", ", Collections.nCopies(batch.size(), "?")) + ")";
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    for (int i = 0; i < batch.size(); i++) {
+                        pstmt.setLong(i + 1, batch.get(i));
+                    }
+                    ResultSet rs = pstmt.executeQuery();
+                    while (rs.next()) {
+                        long tagId = rs.getLong(2);
+                        Tag tag = tagsById.get(tagId);
+                        if (tag == null) {
+                            tag = new Tag(tagId, rs.getString(3));
+                            tagsById.put(tagId, tag);
+                        }
+                        tagsByFile.computeIfAbsent(rs.getLong(1), id -> new HashSet<>()).add(tag);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("Error fetching tags for {} files", ids.size(), e);
+        }
+        return tagsByFile;
+    }
+
+    /**
+     * Копирует теги между файлами с одинаковым содержимым: каждый файл группы получает объединение
+     * тегов всей группы. Все группы обрабатываются в одной транзакции, по одному INSERT ... SELECT на группу.
+     *
+     * Группа задается парой (хэш, алгоритм): одинаковые байты хэша разных алгоритмов не значат одинаковое содержимое.
+     *
+     * @param clusters Группы дубликатов.
+     * @return Добавленные связи: ID файла -> ID новых тегов; пустая Map, если добавлять было нечего
+     *         или транзакция откатилась.
+     */
+    public Map<Long, Set<Long>> propagateTagsWithinDuplicates(Collection<DuplicateCluster> clusters) {
+        Map<Long, Set<Long>> added = new HashMap<>();
+        if (clusters == null || clusters.isEmpty()) {
+            return added;
+        }
+        // INSERT OR IGNORE пропускает уже существующие связи, RETURNING отдает только вставленные
+        String sql = "INSERT OR IGNORE INTO file_tag_links(file_id, tag_id) " +
+                     "SELECT DISTINCT target.id, ftl.tag_id FROM tracked_files target " +
+                     "JOIN tracked_files source ON source.content_hash = target.content_hash " +
+                     "AND source.hash_algorithm = target.hash_algorithm " +
+                     "JOIN file_tag_links ftl ON ftl.file_id = source.id " +
+                     "WHERE target.content_hash = ? AND target.hash_algorithm = ? " +
+                     "RETURNING file_id, tag_id";
+
+        Connection conn = null;
+        try {
+            conn = DatabaseManager.getWriteConnection();
+            conn.setAutoCommit(false); // Начинаем транзакцию
+
+            int linkCount = 0;
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                for (DuplicateCluster cluster : clusters) {
+                    pstmt.setBytes(1, cluster.getContentHash().toBytes());
+                    pstmt.setInt(2, cluster.getHashAlgorithm().getId());
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            added.computeIfAbsent(rs.getLong(1), id -> new HashSet<>()).add(rs.getLong(2));
+                            linkCount++;
+                        }
+                    }
+                }
+            }
+            conn.commit(); // Завершаем транзакцию успешно
+            logger.info("Propagated tags within {} duplicate groups: {} links added to {} files.",
+                    clusters.size(), linkCount, added.size());
+            return added;
+
+        } catch (SQLException e) {
+            logger.error("Error propagating tags within {} duplicate groups", clusters.size(), e);
+            if (conn != null) {
+                try {
+                    conn.rollback(); // Откатываем транзакцию в случае ошибки
+                } catch (SQLException ex) {
+                    logger.error("Error rolling back tag propagation", ex);
+                }
+            }
+            return new HashMap<>();
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.setAutoCommit(true); // Возвращаем режим автокоммита
+                    conn.close();
+                } catch (SQLException e) {
+                    logger.error("Error closing connection after tag propagation", e);
+                }
+            }
+        }
+    }
+
     /**
      * Заменяет все текущие теги для файла на новый набор тегов.
      * Это делается в транзакции: сначала удаляются все старые связи, потом добавляются новые.
      * @param fileId ID файла
      * @param tags Новый набор тегов для файла.
+     * @return true, если транзакция завершилась успешно.
      */
-    public void replaceTagsForFile(long fileId, Set<Tag> tags) {
+    public boolean replaceTagsForFile(long fileId, Set<Tag> tags) {
         String deleteAllLinksSql = "DELETE FROM file_tag_links WHERE file_id = ?";
         String insertLinkSql = "INSERT INTO file_tag_links(file_id, tag_id) VALUES(?, ?)";
 
         Connection conn = null;
         try {
-            conn = DatabaseManager.getConnection();
+            conn = DatabaseManager.getWriteConnection();
             conn.setAutoCommit(false); // Начинаем транзакцию
 
             // 1. Удаляем все существующие связи для этого файла
@@ -153,6 +437,7 @@ public class FileTagLinkDAO {
             }
             conn.commit(); // Завершаем транзакцию успешно
             logger.info("Replaced tags for fileId {}. New tag count: {}", fileId, tags != null ? tags.size() : 0);
+            return true;
 
         } catch (SQLException e) {
             logger.error("Error replacing tags for fileId {}", fileId, e);
@@ -173,5 +458,6 @@ public class FileTagLinkDAO {
                 }
             }
         }
+        return false;
     }
 }
\ No newline at end of file
@@ -0,0 +1,69 @@
+package com.example.imagetagger.persistence.dao;
+
+import com.example.imagetagger.core.model.LibraryRoot;
+import com.example.imagetagger.persistence.DatabaseManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+public class LibraryRootDAO {
+    private static final Logger logger = LoggerFactory.getLogger(LibraryRootDAO.class);
+
+    /**
+     * Добавляет папку в библиотеку. Если папка уже добавлена, возвращает существующую запись.
+     */
+    public Optional<LibraryRoot> create(LibraryRoot root) {
+        String sql = "INSERT INTO library_roots(absolute_path, added_date) VALUES(?, ?) " +
+                     "ON CONFLICT(absolute_path) DO UPDATE SET absolute_path = excluded.absolute_path " +
+                     "RETURNING id, added_date";
+        try (Connection conn = DatabaseManager.getWriteConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, root.getAbsolutePath());
+            pstmt.setLong(2, root.getAddedDate());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    LibraryRoot saved = new LibraryRoot(rs.getLong("id"), root.getAbsolutePath(), rs.getLong("added_date"));
+                    logger.info("Library root registered: {}", saved);
+                    return Optional.of(saved);
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("Error registering library root: {}", root.getAbsolutePath(), e);
+        }
+        return Optional.empty();
+    }
+
+    public List<LibraryRoot> getAll() {
+        List<LibraryRoot> roots = new ArrayList<>();
+        String sql = "SELECT id, absolute_path, added_date FROM library_roots ORDER BY absolute_path";
+        try (Connection conn = DatabaseManager.getReadConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql);
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                roots.add(new LibraryRoot(rs.getLong("id"), rs.getString("absolute_path"), rs.getLong("added_date")));
+            }
+        } catch (SQLException e) {
+            logger.error("Error fetching library roots", e);
+        }
+        return roots;
+    }
+
+    public boolean delete(String absolutePath) {
+        String sql = "DELETE FROM library_roots WHERE absolute_path = ?";
+        try (Connection conn = DatabaseManager.getWriteConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, absolutePath);
+            return pstmt.executeUpdate() > 0;
+        } catch (SQLException e) {
+            logger.error("Error deleting library root: {}", absolutePath, e);
+            return false;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.imagetagger.persistence.dao;
 
 import com.example.imagetagger.core.model.Tag;
+import com.example.imagetagger.core.query.TagQuery;
 import com.example.imagetagger.persistence.DatabaseManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,10 +15,12 @@ public class TagDAO {
     private static final Logger logger = LoggerFactory.getLogger(TagDAO.class);
 
     public Optional<Tag> create(String name) {
-        String sql = "INSERT INTO tags(name) VALUES(?)";
-        try (Connection conn = DatabaseManager.getConnection();
+        // name_key - ключ поиска тегов для фильтра (см. TagLookupMigration)
+        String sql = "INSERT INTO tags(name, name_key) VALUES(?, ?)";
+        try (Connection conn = DatabaseManager.getWriteConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             pstmt.setString(1, name);
+            pstmt.setString(2, TagQuery.normalize(name));
             int affectedRows = pstmt.executeUpdate();
 
             if (affectedRows == 0) {
@@ -48,7 +51,7 @@ public class TagDAO {
 
     public Optional<Tag> getById(long id) {
         String sql = "SELECT id, name FROM tags WHERE id = ?";
-        try (Connection conn = DatabaseManager.getConnection();
+        try (Connection conn = DatabaseManager.getReadConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setLong(1, id);
             ResultSet rs = pstmt.executeQuery();
@@ -64,7 +67,7 @@ public class TagDAO {
     public Optional<Tag> getByName(String name) {
         // Поиск регистронезависимый благодаря COLLATE NOCASE
         String sql = "SELECT id, name FROM tags WHERE name = ? COLLATE NOCASE";
-        try (Connection conn = DatabaseManager.getConnection();
+        try (Connection conn = DatabaseManager.getReadConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setString(1, name);
             ResultSet rs = pstmt.executeQuery();
@@ -81,7 +84,7 @@ public class TagDAO {
     public List<Tag> getAll() {
         List<Tag> tags = new ArrayList<>();
         String sql = "SELECT id, name FROM tags ORDER BY name COLLATE NOCASE"; // Сортируем для удобства
-        try (Connection conn = DatabaseManager.getConnection();
+        try (Connection conn = DatabaseManager.getReadConnection();
              Statement stmt = conn.createStatement();
              ResultSet rs = stmt.executeQuery(sql)) {
             while (rs.next()) {
@@ -100,7 +103,7 @@ public class TagDAO {
     public boolean delete(long id) {
         // При удалении тега, связи в file_tag_links удалятся автоматически благодаря ON DELETE CASCADE
         String sql = "DELETE FROM tags WHERE id = ?";
-        try (Connection conn = DatabaseManager.getConnection();
+        try (Connection conn = DatabaseManager.getWriteConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setLong(1, id);
             int affectedRows = pstmt.executeUpdate();
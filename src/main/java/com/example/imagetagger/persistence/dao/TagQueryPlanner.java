@@ -0,0 +1,269 @@
+package com.example.imagetagger.persistence.dao;
+
+import com.example.imagetagger.core.query.TagQuery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Переводит {@link TagQuery} в SQL-запрос, возвращающий ID подходящих файлов (колонка file_id).
+ * <p>
+ * План строится по числу связей каждого тега: пересечение начинается с самого редкого тега,
+ * остальные условия проверяются точечными EXISTS по первичному ключу file_tag_links(file_id, tag_id)
+ * в порядке возрастания частоты, поэтому читается только самый короткий список связей.
+ * Заведомо пустые ветки (неизвестный или неиспользуемый тег) отбрасываются еще до обращения к БД.
+ */
+final class TagQueryPlanner {
+
+    /**
+     * ID всех тегов с одним именем без учета регистра ("Кот" и "кот") и общее число их связей.
+     */
+    record TagStatistics(List<Long> tagIds, long linkCount) {
+        TagStatistics {
+            tagIds = List.copyOf(tagIds);
+        }
+
+        TagStatistics(long tagId, long linkCount) {
+            this(List.of(tagId), linkCount);
+        }
+    }
+
+    /**
+     * SQL-подзапрос со списком file_id и значения его параметров по порядку.
+     */
+    record CompiledQuery(String sql, List<Long> parameters) {
+    }
+
+    private sealed interface Plan permits Empty, AllFiles, TagScan, Intersect, Union, Complement {
+        long estimate(); // Ожидаемое число файлов
+    }
+
+    private record Empty() implements Plan {
+        @Override
+        public long estimate() {
+            return 0;
+        }
+    }
+
+    private record AllFiles(long estimate) implements Plan {
+    }
+
+    /**
+     * Файлы хотя бы с одним из тегов: одно обращение к индексу file_tag_links(tag_id, file_id).
+     */
+    private record TagScan(List<Long> tagIds, long estimate) implements Plan {
+    }
+
+    /**
+     * Файлы, подходящие под все included и ни под один excluded; included отсортированы по возрастанию estimate.
+     */
+    private record Intersect(List<Plan> included, List<Plan> excluded, long estimate) implements Plan {
+    }
+
+    private record Union(List<Plan> parts, long estimate) implements Plan {
+    }
+
+    private record Complement(Plan operand, long estimate) implements Plan {
+    }
+
+    private static final Plan EMPTY = new Empty();
+
+    private final Map<String, TagStatistics> statistics;
+    private final long fileCount;
+    private int aliasCounter;
+
+    /**
+     * @param statistics Статистика тегов запроса по имени в нижнем регистре; отсутствующих в БД тегов в Map нет.
+     * @param fileCount Оценка общего числа файлов (нужна для оценки NOT).
+     */
+    TagQueryPlanner(Map<String, TagStatistics> statistics, long fileCount) {
+        this.statistics = statistics;
+        this.fileCount = Math.max(0, fileCount);
+    }
+
+    /**
+     * @return Скомпилированный запрос или null, если результат заведомо пуст.
+     */
+    CompiledQuery compile(TagQuery query) {
+        Plan plan = plan(query);
+        if (plan instanceof Empty) {
+            return null;
+        }
+        List<Long> parameters = new ArrayList<>();
+        String sql = source(plan, parameters);
+        return new CompiledQuery(sql, parameters);
+    }
+
+    private Plan plan(TagQuery query) {
+        return switch (query) {
+            case TagQuery.TagTerm term -> {
+                TagStatistics tag = statistics.get(TagQuery.normalize(term.name()));
+                yield tag == null || tag.linkCount() == 0 ? EMPTY : new TagScan(tag.tagIds(), tag.linkCount());
+            }
+            case TagQuery.And and -> planIntersect(and.operands());
+            case TagQuery.Or or -> planUnion(or.operands());
+            case TagQuery.Not not -> complement(plan(not.operand()));
+        };
+    }
+
+    private Plan complement(Plan operand) {
+        return switch (operand) {
+            case Empty empty -> new AllFiles(fileCount);
+            case AllFiles all -> EMPTY;
+            case Complement inner -> inner.operand();
+            default -> new Complement(operand, Math.max(0, fileCount - operand.estimate()));
+        };
+    }
+
+    private Plan planIntersect(List<TagQuery> operands) {
+        List<Plan> included = new ArrayList<>();
+        List<Plan> excluded = new ArrayList<>();
+        for (TagQuery operand : operands) {
+            Plan plan = plan(operand);
+            switch (plan) {
+                case Empty empty -> {
+                    return EMPTY; // Пересечение с пустым множеством
+                }
+                case AllFiles all -> {
+                    // Не сужает результат
+                }
+                case Complement complement -> excluded.add(complement.operand());
+                case Intersect nested -> {
+                    included.addAll(nested.included());
+                    excluded.addAll(nested.excluded());
+                }
+                default -> included.add(plan);
+            }
+        }
+        if (excluded.isEmpty() && included.size() == 1) {
+            return included.get(0);
+        }
+        if (excluded.isEmpty() && included.isEmpty()) {
+            return new AllFiles(fileCount);
+        }
+        included.sort(Comparator.comparingLong(Plan::estimate));
+        // Исключения, которые чаще срабатывают, проверяем раньше
+        excluded.sort(Comparator.comparingLong(Plan::estimate).reversed());
+        long estimate = included.isEmpty() ? fileCount : included.get(0).estimate();
+        return new Intersect(included, excluded, estimate);
+    }
+
+    private Plan planUnion(List<TagQuery> operands) {
+        List<Plan> parts = new ArrayList<>();
+        List<Long> scannedTagIds = new ArrayList<>();
+        long scannedEstimate = 0;
+        for (TagQuery operand : operands) {
+            Plan plan = plan(operand);
+            switch (plan) {
+                case Empty empty -> {
+                    // Ничего не добавляет
+                }
+                case AllFiles all -> {
+                    return all;
+                }
+                case TagScan scan -> {
+                    // Все теги объединения читаются одним проходом по индексу: tag_id IN (...)
+                    scannedTagIds.addAll(scan.tagIds());
+                    scannedEstimate += scan.estimate();
+                }
+                case Union nested -> parts.addAll(nested.parts());
+                default -> parts.add(plan);
+            }
+        }
+        if (!scannedTagIds.isEmpty()) {
+            parts.add(0, new TagScan(scannedTagIds, Math.min(scannedEstimate, fileCount)));
+        }
+        if (parts.isEmpty()) {
+            return EMPTY;
+        }
+        if (parts.size() == 1) {
+            return parts.get(0);
+        }
+        long estimate = 0;
+        for (Plan part : parts) {
+            estimate += part.estimate();
+        }
+        return new Union(parts, Math.min(estimate, fileCount));
+    }
+
+    /**
+     * SELECT со списком file_id для плана.
+     */
+    private String source(Plan plan, List<Long> parameters) {
+        return switch (plan) {
+            case TagScan scan -> "SELECT file_id FROM file_tag_links WHERE " + tagCondition("tag_id", scan, parameters);
+            case AllFiles all -> "SELECT id AS file_id FROM tracked_files";
+            case Complement complement -> {
+                String alias = "f" + (++aliasCounter);
+                yield "SELECT " + alias + ".id AS file_id FROM tracked_files " + alias + " WHERE NOT "
+                        + predicate(complement.operand(), alias + ".id", parameters);
+            }
+            case Union union -> {
+                List<String> selects = new ArrayList<>();
+                for (Plan part : union.parts()) {
+                    selects.add(source(part, parameters));
+                }
+                yield String.join(" UNION ", selects);
+            }
+            case Intersect intersect -> {
+                // Ведущим берется самый редкий тег, остальное - проверки для каждой его строки
+                Plan driver = intersect.included().isEmpty() ? new AllFiles(fileCount) : intersect.included().get(0);
+                String alias = "s" + (++aliasCounter);
+                String column = alias + ".file_id";
+                StringBuilder sql = new StringBuilder("SELECT ").append(column)
+                        .append(" FROM (").append(source(driver, parameters)).append(") ").append(alias)
+                        .append(" WHERE ");
+                sql.append(conditions(intersect, 1, column, parameters));
+                yield sql.toString();
+            }
+            case Empty empty -> throw new IllegalStateException("Empty plan has no SQL source");
+        };
+    }
+
+    /**
+     * Условие на SQL-выражение column: true, если файл с этим ID подходит под план.
+     */
+    private String predicate(Plan plan, String column, List<Long> parameters) {
+        return switch (plan) {
+            case TagScan scan -> {
+                String alias = "l" + (++aliasCounter);
+                yield "EXISTS (SELECT 1 FROM file_tag_links " + alias + " WHERE " + alias + ".file_id = " + column
+                        + " AND " + tagCondition(alias + ".tag_id", scan, parameters) + ")";
+            }
+            case AllFiles all -> "1";
+            case Empty empty -> "0";
+            case Complement complement -> "NOT " + predicate(complement.operand(), column, parameters);
+            case Union union -> {
+                List<String> alternatives = new ArrayList<>();
+                for (Plan part : union.parts()) {
+                    alternatives.add(predicate(part, column, parameters));
+                }
+                yield "(" + String.join(" OR ", alternatives) + ")";
+            }
+            case Intersect intersect -> "(" + conditions(intersect, 0, column, parameters) + ")";
+        };
+    }
+
+    private String conditions(Intersect intersect, int firstIncluded, String column, List<Long> parameters) {
+        List<String> conditions = new ArrayList<>();
+        List<Plan> included = intersect.included();
+        for (int i = firstIncluded; i < included.size(); i++) {
+            conditions.add(predicate(included.get(i), column, parameters));
+        }
+        for (Plan excluded : intersect.excluded()) {
+            conditions.add("NOT " + predicate(excluded, column, parameters));
+        }
+        return conditions.isEmpty() ? "1" : String.join(" AND ", conditions);
+    }
+
+    private static String tagCondition(String column, TagScan scan, List<Long> parameters) {
+        parameters.addAll(scan.tagIds());
+        if (scan.tagIds().size() == 1) {
+            return column + " = ?";
+        }
+        return column + " IN (" + String.join(", ", Collections.nCopies(scan.tagIds().size(), "?")) + ")";
+    }
+}
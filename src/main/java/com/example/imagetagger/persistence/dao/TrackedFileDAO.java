@@ -1,29 +1,55 @@
 package com.example.imagetagger.persistence.dao;
 
+import com.example.imagetagger.core.model.ContentHash;
+import com.example.imagetagger.core.model.DuplicateCluster;
 import com.example.imagetagger.core.model.TrackedFile;
 import com.example.imagetagger.persistence.DatabaseManager;
+import com.example.imagetagger.util.HashAlgorithm;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.LongConsumer;
 
 public class TrackedFileDAO {
     private static final Logger logger = LoggerFactory.getLogger(TrackedFileDAO.class);
+    private static final int IN_BATCH_SIZE = 500;
+
+    /**
+     * Выборка файлов вместе с путем их папки (путь файла = путь папки + file_name).
+     */
+    static final String SELECT_FILES = "SELECT tf.id, d.path AS directory_path, tf.file_name, tf.content_hash, " +
+                                       "tf.fingerprint, tf.hash_algorithm, tf.size_bytes, tf.modified_date, tf.last_seen_date " +
+                                       "FROM tracked_files tf JOIN directories d ON d.id = tf.directory_id";
+    static final String ORDER_BY_PATH = " ORDER BY d.path, tf.file_name";
+    private static final String UNIQUE_PATH_VIOLATION = "UNIQUE constraint failed: tracked_files.directory_id";
 
     public Optional<TrackedFile> create(TrackedFile file) {
-        String sql = "INSERT INTO tracked_files(absolute_path, content_hash, size_bytes, modified_date, last_seen_date) " +
-                     "VALUES(?, ?, ?, ?, ?)";
-        try (Connection conn = DatabaseManager.getConnection();
+        String sql = "INSERT INTO tracked_files(directory_id, file_name, content_hash, size_bytes, modified_date, last_seen_date, " +
+                     "fingerprint, hash_algorithm) VALUES(?, ?, ?, ?, ?, ?, ?, ?)";
+        try (Connection conn = DatabaseManager.getWriteConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
 
-            pstmt.setString(1, file.getAbsolutePath());
-            pstmt.setString(2, file.getContentHash());
-            pstmt.setLong(3, file.getSizeBytes());
-            pstmt.setLong(4, file.getModifiedDate());
-            pstmt.setLong(5, file.getLastSeenDate());
+            bindPath(conn, pstmt, file.getAbsolutePath(), new HashMap<>());
+            bindHash(pstmt, 3, file.getContentHash());
+            pstmt.setLong(4, file.getSizeBytes());
+            pstmt.setLong(5, file.getModifiedDate());
+            pstmt.setLong(6, file.getLastSeenDate());
+            bindHash(pstmt, 7, file.getFingerprint());
+            pstmt.setInt(8, file.getHashAlgorithm().getId());
 
             int affectedRows = pstmt.executeUpdate();
             if (affectedRows == 0) {
@@ -42,8 +68,8 @@ public class TrackedFileDAO {
                 }
             }
         } catch (SQLException e) {
-            // SQLITE_CONSTRAINT_UNIQUE (код 19) если absolute_path уже существует
-            if (e.getErrorCode() == 19 && e.getMessage().contains("UNIQUE constraint failed: tracked_files.absolute_path")) {
+            // SQLITE_CONSTRAINT_UNIQUE (код 19) если файл с таким путем уже существует
+            if (e.getErrorCode() == 19 && e.getMessage().contains(UNIQUE_PATH_VIOLATION)) {
                  logger.warn("TrackedFile with path '{}' already exists in DB.", file.getAbsolutePath());
             } else {
                 logger.error("Error creating tracked file with path: {}", file.getAbsolutePath(), e);
@@ -53,17 +79,19 @@ public class TrackedFileDAO {
     }
 
     public boolean update(TrackedFile file) {
-        String sql = "UPDATE tracked_files SET absolute_path = ?, content_hash = ?, size_bytes = ?, " +
-                     "modified_date = ?, last_seen_date = ? WHERE id = ?";
-        try (Connection conn = DatabaseManager.getConnection();
+        String sql = "UPDATE tracked_files SET directory_id = ?, file_name = ?, content_hash = ?, size_bytes = ?, " +
+                     "modified_date = ?, last_seen_date = ?, fingerprint = ?, hash_algorithm = ? WHERE id = ?";
+        try (Connection conn = DatabaseManager.getWriteConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
-            pstmt.setString(1, file.getAbsolutePath());
-            pstmt.setString(2, file.getContentHash());
-            pstmt.setLong(3, file.getSizeBytes());
-            pstmt.setLong(4, file.getModifiedDate());
-            pstmt.setLong(5, file.getLastSeenDate());
-            pstmt.setLong(6, file.getId());
+            bindPath(conn, pstmt, file.getAbsolutePath(), new HashMap<>());
+            bindHash(pstmt, 3, file.getContentHash());
+            pstmt.setLong(4, file.getSizeBytes());
+            pstmt.setLong(5, file.getModifiedDate());
+            pstmt.setLong(6, file.getLastSeenDate());
+            bindHash(pstmt, 7, file.getFingerprint());
+            pstmt.setInt(8, file.getHashAlgorithm().getId());
+            pstmt.setLong(9, file.getId());
 
             int affectedRows = pstmt.executeUpdate();
             if (affectedRows > 0) {
@@ -71,8 +99,8 @@ public class TrackedFileDAO {
                 return true;
             }
         } catch (SQLException e) {
-             // SQLITE_CONSTRAINT_UNIQUE (код 19) если absolute_path уже существует и это не этот же файл
-            if (e.getErrorCode() == 19 && e.getMessage().contains("UNIQUE constraint failed: tracked_files.absolute_path")) {
+             // SQLITE_CONSTRAINT_UNIQUE (код 19) если путь уже занят другим файлом
+            if (e.getErrorCode() == 19 && e.getMessage().contains(UNIQUE_PATH_VIOLATION)) {
                  logger.warn("Failed to update TrackedFile. Path '{}' might already exist for another entry.", file.getAbsolutePath());
             } else {
                 logger.error("Error updating tracked file: {}", file, e);
@@ -81,9 +109,308 @@ public class TrackedFileDAO {
         return false;
     }
 
+    /**
+     * Вставляет или обновляет (по пути) набор файлов в одной транзакции.
+     * Для каждого успешно сохраненного файла проставляется id из БД.
+     * Если пачка целиком не записалась, строки повторяются по одной (каждая под своей точкой сохранения),
+     * так что теряются только те файлы, которые не удается записать сами по себе.
+     *
+     * @param files Файлы для сохранения.
+     * @return Список сохраненных файлов; не попавшие в него файлы записать не удалось.
+     */
+    public List<TrackedFile> upsertAll(List<TrackedFile> files) {
+        if (files == null || files.isEmpty()) {
+            return new ArrayList<>();
+        }
+        try {
+            List<TrackedFile> saved = upsertBatch(files, false);
+            logger.info("Upserted {} tracked files in one transaction.", saved.size());
+            return saved;
+        } catch (SQLException e) {
+            if (files.size() == 1) {
+                logger.error("Error upserting tracked file: {}", files.get(0).getAbsolutePath(), e);
+                return new ArrayList<>();
+            }
+            logger.warn("Upsert of {} tracked files failed ({}). Retrying row by row.", files.size(), e.getMessage());
+        }
+        try {
+            List<TrackedFile> saved = upsertBatch(files, true);
+            logger.info("Upserted {} of {} tracked files row by row.", saved.size(), files.size());
+            return saved;
+        } catch (SQLException e) {
+            logger.error("Error upserting {} tracked files", files.size(), e);
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Одна попытка upsert пачки в транзакции. ID проставляются файлам только после commit,
+     * так что после отката у файлов остаются прежние ID.
+     *
+     * @param isolateRows true - каждая строка под своей точкой сохранения: ошибка строки откатывает только ее.
+     */
+    private List<TrackedFile> upsertBatch(List<TrackedFile> files, boolean isolateRows) throws SQLException {
+        String sql = "INSERT INTO tracked_files(directory_id, file_name, content_hash, size_bytes, modified_date, last_seen_date, " +
+                     "fingerprint, hash_algorithm) VALUES(?, ?, ?, ?, ?, ?, ?, ?) " +
+                     "ON CONFLICT(directory_id, file_name) DO UPDATE SET content_hash = excluded.content_hash, " +
+                     "size_bytes = excluded.size_bytes, modified_date = excluded.modified_date, " +
+                     "last_seen_date = excluded.last_seen_date, fingerprint = excluded.fingerprint, " +
+                     "hash_algorithm = excluded.hash_algorithm " +
+                     "RETURNING id";
+
+        long[] ids = new long[files.size()];
+        Connection conn = null;
+        try {
+            conn = DatabaseManager.getWriteConnection();
+            conn.setAutoCommit(false); // Начинаем транзакцию
+
+            Map<String, Long> directoryIds = new HashMap<>(); // Файлы пачки обычно лежат в нескольких папках
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                for (int i = 0; i < files.size(); i++) {
+                    TrackedFile file = files.get(i);
+                    Savepoint savepoint = isolateRows ? conn.setSavepoint() : null;
+                    try {
+                        ids[i] = upsertRow(conn, pstmt, file, directoryIds);
+                        if (savepoint != null) {
+                            conn.releaseSavepoint(savepoint);
+                        }
+                    } catch (SQLException e) {
+                        if (savepoint == null) {
+                            throw e;
+                        }
+                        conn.rollback(savepoint);
+                        directoryIds.clear(); // Папка могла быть создана в откаченной части
+                        logger.error("Error upserting tracked file: {}", file.getAbsolutePath(), e);
+                    }
+                }
+            }
+            conn.commit(); // Завершаем транзакцию успешно
+        } catch (SQLException e) {
+            if (conn != null) {
+                try {
+                    conn.rollback(); // Откатываем транзакцию в случае ошибки
+                } catch (SQLException ex) {
+                    logger.error("Error rolling back tracked files upsert", ex);
+                }
+            }
+            throw e;
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.setAutoCommit(true); // Возвращаем режим автокоммита
+                    conn.close();
+                } catch (SQLException e) {
+                    logger.error("Error closing connection after tracked files upsert", e);
+                }
+            }
+        }
+
+        List<TrackedFile> saved = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); i++) {
+            TrackedFile file = files.get(i);
+            if (ids[i] > 0) {
+                file.setId(ids[i]);
+                saved.add(file);
+            }
+        }
+        return saved;
+    }
+
+    /**
+     * @return ID новой или обновленной строки (RETURNING отдает его в обоих случаях), 0 - если строка не вернулась.
+     */
+    private static long upsertRow(Connection conn, PreparedStatement pstmt, TrackedFile file,
+                                  Map<String, Long> directoryIds) throws SQLException {
+        bindPath(conn, pstmt, file.getAbsolutePath(), directoryIds);
+        bindHash(pstmt, 3, file.getContentHash());
+        pstmt.setLong(4, file.getSizeBytes());
+        pstmt.setLong(5, file.getModifiedDate());
+        pstmt.setLong(6, file.getLastSeenDate());
+        bindHash(pstmt, 7, file.getFingerprint());
+        pstmt.setInt(8, file.getHashAlgorithm().getId());
+        try (ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * Переносит записи файлов на новые пути (путь берется из TrackedFile) одной транзакцией.
+     * ID, хэш и связи с тегами сохраняются; отпечаток и полный хэш из TrackedFile заполняют только пустые колонки,
+     * поэтому они должны быть посчитаны тем же алгоритмом, что и хэши записи.
+     *
+     * @return Перенесенные файлы; пустой список, если транзакция откатилась.
+     */
+    public List<TrackedFile> relocateAll(List<TrackedFile> files) {
+        if (files == null || files.isEmpty()) {
+            return new ArrayList<>();
+        }
+        String sql = "UPDATE tracked_files SET directory_id = ?, file_name = ?, last_seen_date = ?, " +
+                     "fingerprint = COALESCE(fingerprint, ?), content_hash = COALESCE(content_hash, ?) WHERE id = ?";
+
+        List<TrackedFile> relocated = new ArrayList<>(files.size());
+        Connection conn = null;
+        try {
+            conn = DatabaseManager.getWriteConnection();
+            conn.setAutoCommit(false); // Начинаем транзакцию
+
+            Map<String, Long> directoryIds = new HashMap<>();
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                for (TrackedFile file : files) {
+                    bindPath(conn, pstmt, file.getAbsolutePath(), directoryIds);
+                    pstmt.setLong(3, file.getLastSeenDate());
+                    bindHash(pstmt, 4, file.getFingerprint());
+                    bindHash(pstmt, 5, file.getContentHash());
+                    pstmt.setLong(6, file.getId());
+                    if (pstmt.executeUpdate() > 0) {
+                        relocated.add(file);
+                    }
+                }
+            }
+            conn.commit(); // Завершаем транзакцию успешно
+            logger.info("Relocated {} tracked files in one transaction.", relocated.size());
+            return relocated;
+
+        } catch (SQLException e) {
+            logger.error("Error relocating {} tracked files", files.size(), e);
+            if (conn != null) {
+                try {
+                    conn.rollback(); // Откатываем транзакцию в случае ошибки
+                } catch (SQLException ex) {
+                    logger.error("Error rolling back tracked files relocation", ex);
+                }
+            }
+            return new ArrayList<>();
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.setAutoCommit(true); // Возвращаем режим автокоммита
+                    conn.close();
+                } catch (SQLException e) {
+                    logger.error("Error closing connection after tracked files relocation", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Обновляет только last_seen_date у набора файлов одной транзакцией.
+     *
+     * @param fileIds ID файлов.
+     * @param lastSeenDate Новое значение last_seen_date (Unix timestamp).
+     * @return Количество обновленных строк.
+     */
+    public int touchLastSeen(Collection<Long> fileIds, long lastSeenDate) {
+        if (fileIds == null || fileIds.isEmpty()) {
+            return 0;
+        }
+        String sql = "UPDATE tracked_files SET last_seen_date = ? WHERE id = ?";
+
+        Connection conn = null;
+        try {
+            conn = DatabaseManager.getWriteConnection();
+            conn.setAutoCommit(false);
+
+            int updated = 0;
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                for (long fileId : fileIds) {
+                    pstmt.setLong(1, lastSeenDate);
+                    pstmt.setLong(2, fileId);
+                    pstmt.addBatch();
+                }
+                for (int count : pstmt.executeBatch()) {
+                    updated += Math.max(count, 0);
+                }
+            }
+            conn.commit();
+            logger.debug("Touched last_seen_date for {} tracked files.", updated);
+            return updated;
+
+        } catch (SQLException e) {
+            logger.error("Error updating last_seen_date for {} tracked files", fileIds.size(), e);
+            if (conn != null) {
+                try {
+                    conn.rollback();
+                } catch (SQLException ex) {
+                    logger.error("Error rolling back last_seen_date update", ex);
+                }
+            }
+            return 0;
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.setAutoCommit(true);
+                    conn.close();
+                } catch (SQLException e) {
+                    logger.error("Error closing connection after last_seen_date update", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Записывает досчитанные хэши (полный хэш, отпечаток и их алгоритм) одной транзакцией.
+     * Строка обновляется, только если размер и дата модификации в ней те же, что у файла.
+     *
+     * @param files Файлы с ID, актуальными хэшами и размером и датой, при которых они посчитаны.
+     * @return Количество обновленных строк.
+     */
+    public int updateHashes(Collection<TrackedFile> files) {
+        if (files == null || files.isEmpty()) {
+            return 0;
+        }
+        // Если файл успел измениться после хэширования, его строка уже с другими размером или датой - не трогаем ее
+        String sql = "UPDATE tracked_files SET content_hash = ?, fingerprint = ?, hash_algorithm = ? " +
+                     "WHERE id = ? AND size_bytes = ? AND modified_date = ?";
+
+        Connection conn = null;
+        try {
+            conn = DatabaseManager.getWriteConnection();
+            conn.setAutoCommit(false); // Начинаем транзакцию
+
+            int updated = 0;
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                for (TrackedFile file : files) {
+                    bindHash(pstmt, 1, file.getContentHash());
+                    bindHash(pstmt, 2, file.getFingerprint());
+                    pstmt.setInt(3, file.getHashAlgorithm().getId());
+                    pstmt.setLong(4, file.getId());
+                    pstmt.setLong(5, file.getSizeBytes());
+                    pstmt.setLong(6, file.getModifiedDate());
+                    pstmt.addBatch();
+                }
+                for (int count : pstmt.executeBatch()) {
+                    updated += Math.max(count, 0);
+                }
+            }
+            conn.commit(); // Завершаем транзакцию успешно
+            logger.debug("Stored content hashes for {} tracked files.", updated);
+            return updated;
+
+        } catch (SQLException e) {
+            logger.error("Error storing content hashes for {} tracked files", files.size(), e);
+            if (conn != null) {
+                try {
+                    conn.rollback(); // Откатываем транзакцию в случае ошибки
+                } catch (SQLException ex) {
+                    logger.error("Error rolling back content hash update", ex);
+                }
+            }
+            return 0;
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.setAutoCommit(true); // Возвращаем режим автокоммита
+                    conn.close();
+                } catch (SQLException e) {
+                    logger.error("Error closing connection after content hash update", e);
+                }
+            }
+        }
+    }
+
     public Optional<TrackedFile> getById(long id) {
-        String sql = "SELECT * FROM tracked_files WHERE id = ?";
-        try (Connection conn = DatabaseManager.getConnection();
+        String sql = SELECT_FILES + " WHERE tf.id = ?";
+        try (Connection conn = DatabaseManager.getReadConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setLong(1, id);
             ResultSet rs = pstmt.executeQuery();
@@ -97,10 +424,15 @@ public class TrackedFileDAO {
     }
 
     public Optional<TrackedFile> getByPath(String absolutePath) {
-        String sql = "SELECT * FROM tracked_files WHERE absolute_path = ?";
-        try (Connection conn = DatabaseManager.getConnection();
+        String sql = SELECT_FILES + " WHERE d.path = ? AND tf.file_name = ?";
+        File file = new File(absolutePath);
+        if (file.getParent() == null) {
+            return Optional.empty();
+        }
+        try (Connection conn = DatabaseManager.getReadConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, absolutePath);
+            pstmt.setString(1, file.getParent());
+            pstmt.setString(2, file.getName());
             ResultSet rs = pstmt.executeQuery();
             if (rs.next()) {
                 return Optional.of(mapRowToTrackedFile(rs));
@@ -111,26 +443,202 @@ public class TrackedFileDAO {
         return Optional.empty();
     }
     
-    public List<TrackedFile> getByContentHash(String contentHash) {
+    /**
+     * Файлы с заданным полным хэшем, посчитанным заданным алгоритмом.
+     */
+    public List<TrackedFile> getByContentHash(HashAlgorithm hashAlgorithm, ContentHash contentHash) {
+        List<TrackedFile> files = new ArrayList<>();
+        String sql = SELECT_FILES + " WHERE tf.content_hash = ? AND tf.hash_algorithm = ?";
+        try (Connection conn = DatabaseManager.getReadConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setBytes(1, contentHash.toBytes());
+            pstmt.setInt(2, hashAlgorithm.getId());
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                files.add(mapRowToTrackedFile(rs));
+            }
+        } catch (SQLException e) {
+            logger.error("Error fetching tracked files by content hash: {} ({})", contentHash, hashAlgorithm, e);
+        }
+        return files;
+    }
+
+    /**
+     * Файлы с заданными размером и датой модификации (по индексу idx_tracked_files_size_mtime) -
+     * кандидаты на перемещенный или переименованный файл.
+     */
+    public List<TrackedFile> getBySizeAndModifiedDate(long sizeBytes, long modifiedDate) {
+        List<TrackedFile> files = new ArrayList<>();
+        String sql = SELECT_FILES + " WHERE tf.size_bytes = ? AND tf.modified_date = ?";
+        try (Connection conn = DatabaseManager.getReadConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setLong(1, sizeBytes);
+            pstmt.setLong(2, modifiedDate);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                files.add(mapRowToTrackedFile(rs));
+            }
+        } catch (SQLException e) {
+            logger.error("Error fetching tracked files by size {} and modified date {}", sizeBytes, modifiedDate, e);
+        }
+        return files;
+    }
+
+    /**
+     * Файлы с такими же размером и датой модификации, как у любого из files (кандидаты в перемещенные),
+     * одним запросом на каждые {@value #IN_BATCH_SIZE} пар по индексу idx_tracked_files_size_mtime.
+     */
+    public List<TrackedFile> getBySizeAndModifiedDates(Collection<TrackedFile> files) {
+        List<TrackedFile> found = new ArrayList<>();
+        Set<List<Long>> uniqueKeys = new LinkedHashSet<>();
+        for (TrackedFile file : files) {
+            uniqueKeys.add(List.of(file.getSizeBytes(), file.getModifiedDate()));
+        }
+        List<List<Long>> keys = new ArrayList<>(uniqueKeys);
+        try (Connection conn = DatabaseManager.getReadConnection()) {
+            for (int from = 0; from < keys.size(); from += IN_BATCH_SIZE) {
+                List<List<Long>> batch = keys.subList(from, Math.min(from + IN_BATCH_SIZE, keys.size()));
+                String sql = SELECT_FILES + " WHERE (tf.size_bytes, tf.modified_date) IN (VALUES " +
+                             String.join(", ", Collections.nCopies(batch.size(), "(?, ?)")) + ")";
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    int parameter = 1;
+                    for (List<Long> key : batch) {
+                        pstmt.setLong(parameter++, key.get(0));
+                        pstmt.setLong(parameter++, key.get(1));
+                    }
+                    ResultSet rs = pstmt.executeQuery();
+                    while (rs.next()) {
+                        found.add(mapRowToTrackedFile(rs));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("Error fetching tracked files by {} size and modified date pairs", keys.size(), e);
+        }
+        return found;
+    }
+
+    /**
+     * Файлы, которые могут совпадать по содержимому с файлами пачки: тот же отпечаток
+     * (по индексу idx_tracked_files_fingerprint) или записи того же размера, чей отпечаток с ним несравним -
+     * его нет (запись создана до отпечатков) или он посчитан другим алгоритмом. Один запрос на каждые
+     * {@value #IN_BATCH_SIZE} файлов одного алгоритма; сами файлы пачки тоже попадают в результат.
+     *
+     * @return Записи-кандидаты без повторов; сопоставлять их с файлами пачки должен вызывающий.
+     */
+    public List<TrackedFile> getCollisionCandidates(Collection<TrackedFile> files) {
+        Map<HashAlgorithm, List<TrackedFile>> byAlgorithm = new EnumMap<>(HashAlgorithm.class);
+        for (TrackedFile file : files) {
+            if (file.getFingerprint() != null) {
+                byAlgorithm.computeIfAbsent(file.getHashAlgorithm(), algorithm -> new ArrayList<>()).add(file);
+            }
+        }
+        Map<Long, TrackedFile> found = new LinkedHashMap<>();
+        try (Connection conn = DatabaseManager.getReadConnection()) {
+            for (Map.Entry<HashAlgorithm, List<TrackedFile>> entry : byAlgorithm.entrySet()) {
+                List<TrackedFile> group = entry.getValue();
+                for (int from = 0; from < group.size(); from += IN_BATCH_SIZE) {
+                    List<TrackedFile> batch = group.subList(from, Math.min(from + IN_BATCH_SIZE, group.size()));
+                    String placeholders = String.join(", ", Collections.nCopies(batch.size(), "?"));
+                    String sql = SELECT_FILES + " WHERE tf.fingerprint IN (" + placeholders + ") " +
+                                 "OR (tf.size_bytes IN (" + placeholders + ") " +
+                                 "AND (tf.fingerprint IS NULL OR tf.hash_algorithm <> ?))";
+                    try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                        int parameter = 1;
+                        for (TrackedFile file : batch) {
+                            pstmt.setBytes(parameter++, file.getFingerprint().toBytes());
+                        }
+                        for (TrackedFile file : batch) {
+                            pstmt.setLong(parameter++, file.getSizeBytes());
+                        }
+                        pstmt.setInt(parameter, entry.getKey().getId());
+                        ResultSet rs = pstmt.executeQuery();
+                        while (rs.next()) {
+                            TrackedFile candidate = mapRowToTrackedFile(rs);
+                            found.putIfAbsent(candidate.getId(), candidate);
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("Error fetching fingerprint collision candidates for {} tracked files", files.size(), e);
+        }
+        return new ArrayList<>(found.values());
+    }
+
+    /**
+     * Находит все группы файлов с одинаковым содержимым одним запросом: пары (хэш, алгоритм) с повторами
+     * отбираются группировкой по индексу idx_tracked_files_hash, файлы приходят упорядоченными по этой паре
+     * и раскладываются по группам за один проход. Файлы без полного хэша не участвуют: он считается
+     * для всех файлов с совпавшими отпечатками, так что у файлов без хэша копий нет.
+     *
+     * @return Группы по убыванию занятого копиями места.
+     */
+    public List<DuplicateCluster> getDuplicateClusters() {
+        List<DuplicateCluster> clusters = new ArrayList<>();
+        String sql = SELECT_FILES + " WHERE (tf.content_hash, tf.hash_algorithm) IN (" +
+                     "SELECT content_hash, hash_algorithm FROM tracked_files WHERE content_hash IS NOT NULL " +
+                     "GROUP BY content_hash, hash_algorithm HAVING COUNT(*) > 1) " +
+                     "ORDER BY tf.content_hash, tf.hash_algorithm, d.path, tf.file_name";
+        try (Connection conn = DatabaseManager.getReadConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            List<TrackedFile> group = new ArrayList<>();
+            while (rs.next()) {
+                TrackedFile file = mapRowToTrackedFile(rs);
+                if (!group.isEmpty() && !sameContent(group.get(0), file)) {
+                    clusters.add(toCluster(group));
+                    group.clear();
+                }
+                group.add(file);
+            }
+            if (!group.isEmpty()) {
+                clusters.add(toCluster(group));
+            }
+        } catch (SQLException e) {
+            logger.error("Error fetching duplicate files", e);
+        }
+        clusters.sort(Comparator.comparingLong(DuplicateCluster::getWastedBytes).reversed());
+        return clusters;
+    }
+
+    private static boolean sameContent(TrackedFile a, TrackedFile b) {
+        return a.getHashAlgorithm() == b.getHashAlgorithm() && a.getContentHash().equals(b.getContentHash());
+    }
+
+    private static DuplicateCluster toCluster(List<TrackedFile> group) {
+        TrackedFile first = group.get(0);
+        return new DuplicateCluster(first.getHashAlgorithm(), first.getContentHash(), group);
+    }
+
+    /**
+     * Загружает все файлы, лежащие в папке и ее подпапках, одним запросом.
+     * Папки поддерева находятся по индексу directories(path) (диапазоном вместо LIKE, поэтому
+     * спецсимволы в пути не мешают), файлы - по индексу tracked_files(directory_id, file_name).
+     *
+     * @param directoryPath Абсолютный путь к папке.
+     * @return Файлы из БД, чьи пути начинаются с этой папки.
+     */
+    public List<TrackedFile> getByDirectory(String directoryPath) {
         List<TrackedFile> files = new ArrayList<>();
-        String sql = "SELECT * FROM tracked_files WHERE content_hash = ?";
-        try (Connection conn = DatabaseManager.getConnection();
+        String sql = SELECT_FILES + " WHERE tf.directory_id" + DirectoryDAO.SUBTREE_CONDITION;
+        try (Connection conn = DatabaseManager.getReadConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, contentHash);
+            DirectoryDAO.bindSubtree(pstmt, 1, directoryPath);
             ResultSet rs = pstmt.executeQuery();
             while (rs.next()) {
                 files.add(mapRowToTrackedFile(rs));
             }
         } catch (SQLException e) {
-            logger.error("Error fetching tracked files by content hash: {}", contentHash, e);
+            logger.error("Error fetching tracked files under directory: {}", directoryPath, e);
         }
         return files;
     }
 
     public List<TrackedFile> getAll() {
         List<TrackedFile> files = new ArrayList<>();
-        String sql = "SELECT * FROM tracked_files ORDER BY absolute_path";
-        try (Connection conn = DatabaseManager.getConnection();
+        String sql = SELECT_FILES + ORDER_BY_PATH;
+        try (Connection conn = DatabaseManager.getReadConnection();
              Statement stmt = conn.createStatement();
              ResultSet rs = stmt.executeQuery(sql)) {
             while (rs.next()) {
@@ -142,9 +650,63 @@ public class TrackedFileDAO {
         return files;
     }
 
+    /**
+     * Перебирает ID всех файлов по возрастанию (только первичный ключ, строки таблицы не читаются).
+     *
+     * @return true, если все ID прочитаны без ошибок.
+     */
+    public boolean forEachFileId(LongConsumer consumer) {
+        String sql = "SELECT id FROM tracked_files ORDER BY id";
+        try (Connection conn = DatabaseManager.getReadConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            while (rs.next()) {
+                consumer.accept(rs.getLong(1));
+            }
+            return true;
+        } catch (SQLException e) {
+            logger.error("Error reading tracked file ids", e);
+            return false;
+        }
+    }
+
+    /**
+     * Загружает файлы по ID пачками по {@value #IN_BATCH_SIZE} (лимит параметров SQLite).
+     *
+     * @param directoryPath Если не null, возвращаются только файлы из этой папки и ее подпапок.
+     */
+    public List<TrackedFile> getByIds(Collection<Long> ids, String directoryPath) {
+        List<TrackedFile> files = new ArrayList<>();
+        List<Long> idList = new ArrayList<>(ids);
+        try (Connection conn = DatabaseManager.getReadConnection()) {
+            for (int from = 0; from < idList.size(); from += IN_BATCH_SIZE) {
+                List<Long> batch = idList.subList(from, Math.min(from + IN_BATCH_SIZE, idList.size()));
+                String sql = SELECT_FILES + " WHERE tf.id IN (" +
+                             String.join(", ", Collections.nCopies(batch.size(), "?")) + ")" +
+                             (directoryPath != null ? " AND tf.directory_id" + DirectoryDAO.SUBTREE_CONDITION : "");
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    int parameter = 1;
+                    for (long id : batch) {
+                        pstmt.setLong(parameter++, id);
+                    }
+                    if (directoryPath != null) {
+                        DirectoryDAO.bindSubtree(pstmt, parameter, directoryPath);
+                    }
+                    ResultSet rs = pstmt.executeQuery();
+                    while (rs.next()) {
+                        files.add(mapRowToTrackedFile(rs));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("Error fetching {} tracked files by id", idList.size(), e);
+        }
+        return files;
+    }
+
     public boolean delete(long id) {
         String sql = "DELETE FROM tracked_files WHERE id = ?";
-        try (Connection conn = DatabaseManager.getConnection();
+        try (Connection conn = DatabaseManager.getWriteConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setLong(1, id);
             int affectedRows = pstmt.executeUpdate();
@@ -158,14 +720,46 @@ public class TrackedFileDAO {
         return false;
     }
 
-    private TrackedFile mapRowToTrackedFile(ResultSet rs) throws SQLException {
-        return new TrackedFile(
+    /**
+     * Задает первые два параметра запроса - directory_id и file_name; папка создается при необходимости.
+     */
+    private static void bindPath(Connection conn, PreparedStatement pstmt, String absolutePath,
+                                 Map<String, Long> directoryIds) throws SQLException {
+        File file = new File(absolutePath);
+        if (file.getParent() == null) {
+            throw new SQLException("Tracked file path has no parent directory: " + absolutePath);
+        }
+        pstmt.setLong(1, DirectoryDAO.getOrCreateId(conn, file.getParent(), directoryIds));
+        pstmt.setString(2, file.getName());
+    }
+
+    private static void bindHash(PreparedStatement pstmt, int parameter, ContentHash hash) throws SQLException {
+        if (hash != null) {
+            pstmt.setBytes(parameter, hash.toBytes());
+        } else {
+            pstmt.setNull(parameter, Types.BLOB);
+        }
+    }
+
+    private static ContentHash readHash(ResultSet rs, String column) throws SQLException {
+        byte[] bytes = rs.getBytes(column);
+        return bytes != null && bytes.length > 0 ? ContentHash.of(bytes) : null;
+    }
+
+    /**
+     * Строка из {@link #SELECT_FILES}.
+     */
+    static TrackedFile mapRowToTrackedFile(ResultSet rs) throws SQLException {
+        TrackedFile file = new TrackedFile(
                 rs.getLong("id"),
-                rs.getString("absolute_path"),
-                rs.getString("content_hash"),
+                new File(rs.getString("directory_path"), rs.getString("file_name")).getPath(),
+                readHash(rs, "content_hash"),
                 rs.getLong("size_bytes"),
                 rs.getLong("modified_date"),
                 rs.getLong("last_seen_date")
         );
+        file.setFingerprint(readHash(rs, "fingerprint"));
+        file.setHashAlgorithm(HashAlgorithm.fromId(rs.getInt("hash_algorithm")));
+        return file;
     }
 }
\ No newline at end of file
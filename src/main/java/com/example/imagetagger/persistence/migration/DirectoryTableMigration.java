@@ -0,0 +1,114 @@
+package com.example.imagetagger.persistence.migration;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Выносит папки из tracked_files.absolute_path в отдельную таблицу directories (путь папки хранится
+ * один раз, у каждой папки есть ссылка на родителя), а в tracked_files остаются directory_id и имя файла.
+ * Путь разбирается в Java: в SQLite нет функции поиска последнего разделителя. ID файлов сохраняются,
+ * поэтому file_tag_links не меняется.
+ */
+class DirectoryTableMigration implements Migration {
+
+    private static final int BATCH_SIZE = 10_000;
+
+    @Override
+    public int getVersion() {
+        return 3;
+    }
+
+    @Override
+    public String getDescription() {
+        return "Directory table for file paths";
+    }
+
+    @Override
+    public void apply(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE directories ("
+                    + "id INTEGER PRIMARY KEY,"
+                    + "parent_id INTEGER REFERENCES directories(id),"
+                    + "path TEXT UNIQUE NOT NULL"
+                    + ");");
+            stmt.execute("CREATE INDEX idx_directories_parent ON directories (parent_id);");
+            stmt.execute("CREATE TABLE tracked_files_new ("
+                    + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + "directory_id INTEGER NOT NULL REFERENCES directories(id),"
+                    + "file_name TEXT NOT NULL,"
+                    + "content_hash TEXT NOT NULL,"
+                    + "size_bytes INTEGER NOT NULL,"
+                    + "modified_date INTEGER NOT NULL,"
+                    + "last_seen_date INTEGER NOT NULL,"
+                    + "UNIQUE (directory_id, file_name)" // Индекс заодно отдает файлы папки по directory_id
+                    + ");");
+        }
+
+        Map<String, Long> directoryIds = new HashMap<>();
+        try (Statement select = conn.createStatement();
+             ResultSet rs = select.executeQuery("SELECT id, absolute_path, content_hash, size_bytes, modified_date, "
+                     + "last_seen_date FROM tracked_files ORDER BY absolute_path");
+             PreparedStatement insertDirectory = conn.prepareStatement(
+                     "INSERT INTO directories(parent_id, path) VALUES(?, ?) RETURNING id");
+             PreparedStatement insertFile = conn.prepareStatement("INSERT INTO tracked_files_new(id, directory_id, "
+                     + "file_name, content_hash, size_bytes, modified_date, last_seen_date) VALUES(?, ?, ?, ?, ?, ?, ?)")) {
+            int pending = 0;
+            while (rs.next()) {
+                File file = new File(rs.getString(2));
+                String directory = file.getParent() != null ? file.getParent() : "";
+                insertFile.setLong(1, rs.getLong(1));
+                insertFile.setLong(2, directoryId(insertDirectory, directoryIds, directory));
+                insertFile.setString(3, file.getName());
+                insertFile.setString(4, rs.getString(3));
+                insertFile.setLong(5, rs.getLong(4));
+                insertFile.setLong(6, rs.getLong(5));
+                insertFile.setLong(7, rs.getLong(6));
+                insertFile.addBatch();
+                if (++pending == BATCH_SIZE) {
+                    insertFile.executeBatch();
+                    pending = 0;
+                }
+            }
+            if (pending > 0) {
+                insertFile.executeBatch();
+            }
+        }
+
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP TABLE tracked_files;");
+            stmt.execute("ALTER TABLE tracked_files_new RENAME TO tracked_files;");
+            stmt.execute("CREATE INDEX idx_tracked_files_hash ON tracked_files (content_hash);");
+        }
+    }
+
+    /**
+     * ID папки; недостающие папки создаются вместе со всеми предками.
+     */
+    private static long directoryId(PreparedStatement insertDirectory, Map<String, Long> directoryIds,
+                                    String path) throws SQLException {
+        Long id = directoryIds.get(path);
+        if (id != null) {
+            return id;
+        }
+        String parent = new File(path).getParent();
+        if (parent != null) {
+            insertDirectory.setLong(1, directoryId(insertDirectory, directoryIds, parent));
+        } else {
+            insertDirectory.setNull(1, Types.INTEGER);
+        }
+        insertDirectory.setString(2, path);
+        try (ResultSet rs = insertDirectory.executeQuery()) {
+            rs.next();
+            id = rs.getLong(1);
+        }
+        directoryIds.put(path, id);
+        return id;
+    }
+}
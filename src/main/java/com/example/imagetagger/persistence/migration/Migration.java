@@ -0,0 +1,25 @@
+package com.example.imagetagger.persistence.migration;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Одно изменение схемы БД. Миграции применяются по возрастанию версии, каждая в своей транзакции;
+ * номер примененной версии записывается в таблицу schema_version.
+ */
+public interface Migration {
+
+    /**
+     * Номер версии схемы после применения миграции. Номера идут подряд, начиная с 1.
+     */
+    int getVersion();
+
+    String getDescription();
+
+    /**
+     * Применяет изменения. Транзакцией управляет {@link SchemaMigrator}, поэтому миграция не должна
+     * вызывать commit/rollback и менять режим автокоммита. Внешние ключи на время миграции отключены,
+     * их целостность проверяется перед коммитом.
+     */
+    void apply(Connection conn) throws SQLException;
+}
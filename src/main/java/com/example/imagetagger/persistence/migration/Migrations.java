@@ -0,0 +1,165 @@
+package com.example.imagetagger.persistence.migration;
+
+import java.util.List;
+
+/**
+ * Все миграции схемы по порядку. Новое изменение схемы добавляется сюда следующей версией;
+ * уже выпущенные миграции не меняются, иначе БД пользователей разойдутся со схемой.
+ */
+public final class Migrations {
+
+    private Migrations() {
+    }
+
+    public static List<Migration> all() {
+        return List.of(
+                baseline(),
+                coveringIndexes(),
+                new DirectoryTableMigration(),
+                binaryContentHash(),
+                new SqlMigration(5, "Index for move detection", List.of(
+                        // Кандидаты на перемещенный файл ищутся по размеру и дате модификации
+                        "CREATE INDEX idx_tracked_files_size_mtime ON tracked_files (size_bytes, modified_date);"
+                )),
+                fingerprints(),
+                new SqlMigration(7, "Hash algorithm per file", List.of(
+                        // Все хэши, записанные до этой версии, посчитаны SHA-256 (HashAlgorithm.SHA_256)
+                        "ALTER TABLE tracked_files ADD COLUMN hash_algorithm INTEGER NOT NULL DEFAULT 1;"
+                )),
+                new TagLookupMigration(),
+                new SqlMigration(9, "Hash index with algorithm", List.of(
+                        // Дубликаты ищутся по паре (хэш, алгоритм): индекс покрывает группировку целиком
+                        "DROP INDEX IF EXISTS idx_tracked_files_hash;",
+                        "CREATE INDEX idx_tracked_files_hash ON tracked_files (content_hash, hash_algorithm) "
+                                + "WHERE content_hash IS NOT NULL;"
+                ))
+        );
+    }
+
+    /**
+     * Схема, которую создавали версии приложения до появления schema_version.
+     * Все команды идемпотентны: для существующей БД миграция только записывает версию 1.
+     */
+    private static Migration baseline() {
+        return new SqlMigration(1, "Baseline schema", List.of(
+                "CREATE TABLE IF NOT EXISTS tags ("
+                        + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                        + "name TEXT UNIQUE NOT NULL"
+                        + ");",
+                "CREATE TABLE IF NOT EXISTS tracked_files ("
+                        + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                        + "absolute_path TEXT UNIQUE NOT NULL,"
+                        + "content_hash TEXT NOT NULL,"
+                        + "size_bytes INTEGER NOT NULL,"
+                        + "modified_date INTEGER NOT NULL," // Храним как Unix timestamp (long)
+                        + "last_seen_date INTEGER NOT NULL" // Храним как Unix timestamp (long)
+                        + ");",
+                "CREATE TABLE IF NOT EXISTS file_tag_links ("
+                        + "file_id INTEGER NOT NULL,"
+                        + "tag_id INTEGER NOT NULL,"
+                        + "PRIMARY KEY (file_id, tag_id),"
+                        + "FOREIGN KEY (file_id) REFERENCES tracked_files(id) ON DELETE CASCADE,"
+                        + "FOREIGN KEY (tag_id) REFERENCES tags(id) ON DELETE CASCADE"
+                        + ");",
+                "CREATE TABLE IF NOT EXISTS directory_snapshots ("
+                        + "directory_path TEXT PRIMARY KEY,"
+                        + "modified_date INTEGER NOT NULL," // Дата модификации папки на момент сканирования
+                        + "entry_count INTEGER NOT NULL,"
+                        + "scanned_date INTEGER NOT NULL"
+                        + ");",
+                "CREATE TABLE IF NOT EXISTS library_roots ("
+                        + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                        + "absolute_path TEXT UNIQUE NOT NULL,"
+                        + "added_date INTEGER NOT NULL"
+                        + ");",
+                "CREATE INDEX IF NOT EXISTS idx_tracked_files_path ON tracked_files (absolute_path);",
+                "CREATE INDEX IF NOT EXISTS idx_tracked_files_hash ON tracked_files (content_hash);",
+                "CREATE INDEX IF NOT EXISTS idx_tags_name ON tags (name);"
+        ));
+    }
+
+    /**
+     * Убирает индексы, дублирующие UNIQUE-ограничения (каждая вставка обновляла оба), добавляет индексы,
+     * которыми запросы действительно пользуются, и переводит file_tag_links в WITHOUT ROWID:
+     * связи хранятся прямо в B-дереве первичного ключа (file_id, tag_id), а индекс (tag_id, file_id)
+     * покрывает поиск файлов по тегу без обращения к таблице.
+     */
+    private static Migration coveringIndexes() {
+        return new SqlMigration(2, "Covering indexes for tag lookups", List.of(
+                "DROP INDEX IF EXISTS idx_tracked_files_path;", // Дублирует UNIQUE(absolute_path)
+                "DROP INDEX IF EXISTS idx_tags_name;",          // Дублирует UNIQUE(name)
+                // Поиск тега по имени идет с COLLATE NOCASE, бинарный UNIQUE-индекс для него не подходит
+                "CREATE INDEX IF NOT EXISTS idx_tags_name_nocase ON tags (name COLLATE NOCASE);",
+                "CREATE TABLE file_tag_links_new ("
+                        + "file_id INTEGER NOT NULL,"
+                        + "tag_id INTEGER NOT NULL,"
+                        + "PRIMARY KEY (file_id, tag_id),"
+                        + "FOREIGN KEY (file_id) REFERENCES tracked_files(id) ON DELETE CASCADE,"
+                        + "FOREIGN KEY (tag_id) REFERENCES tags(id) ON DELETE CASCADE"
+                        + ") WITHOUT ROWID;",
+                // Связи без файла или тега могли остаться в БД, созданных с выключенными внешними ключами
+                "INSERT INTO file_tag_links_new(file_id, tag_id) "
+                        + "SELECT l.file_id, l.tag_id FROM file_tag_links l "
+                        + "WHERE EXISTS (SELECT 1 FROM tracked_files f WHERE f.id = l.file_id) "
+                        + "AND EXISTS (SELECT 1 FROM tags t WHERE t.id = l.tag_id);",
+                "DROP TABLE file_tag_links;",
+                "ALTER TABLE file_tag_links_new RENAME TO file_tag_links;",
+                "CREATE INDEX idx_file_tag_links_tag ON file_tag_links (tag_id, file_id);"
+        ));
+    }
+
+    /**
+     * Переводит content_hash из hex-текста в BLOB с байтами дайджеста: строки таблицы и индекс
+     * idx_tracked_files_hash становятся примерно вдвое меньше. Тип колонки в SQLite не меняется
+     * без пересоздания таблицы, ID файлов сохраняются.
+     */
+    private static Migration binaryContentHash() {
+        return new SqlMigration(4, "Binary content hashes", List.of(
+                "CREATE TABLE tracked_files_new ("
+                        + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                        + "directory_id INTEGER NOT NULL REFERENCES directories(id),"
+                        + "file_name TEXT NOT NULL,"
+                        + "content_hash BLOB NOT NULL,"
+                        + "size_bytes INTEGER NOT NULL,"
+                        + "modified_date INTEGER NOT NULL,"
+                        + "last_seen_date INTEGER NOT NULL,"
+                        + "UNIQUE (directory_id, file_name)"
+                        + ");",
+                // Значение, которое не разбирается как hex, переносится как есть, чтобы не потерять строку файла
+                "INSERT INTO tracked_files_new(id, directory_id, file_name, content_hash, size_bytes, modified_date, last_seen_date) "
+                        + "SELECT id, directory_id, file_name, COALESCE(unhex(content_hash), CAST(content_hash AS BLOB)), "
+                        + "size_bytes, modified_date, last_seen_date FROM tracked_files;",
+                "DROP TABLE tracked_files;",
+                "ALTER TABLE tracked_files_new RENAME TO tracked_files;",
+                "CREATE INDEX idx_tracked_files_hash ON tracked_files (content_hash);"
+        ));
+    }
+
+    /**
+     * Добавляет отпечаток файла (хэш размера, начала и конца) и делает полный хэш необязательным:
+     * он считается только для файлов с совпавшими отпечатками. У существующих строк остается полный хэш,
+     * отпечаток появится при следующем изменении файла. Индексы частичные - строки с NULL в них не попадают.
+     */
+    private static Migration fingerprints() {
+        return new SqlMigration(6, "Partial content fingerprints", List.of(
+                "CREATE TABLE tracked_files_new ("
+                        + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                        + "directory_id INTEGER NOT NULL REFERENCES directories(id),"
+                        + "file_name TEXT NOT NULL,"
+                        + "content_hash BLOB,"
+                        + "fingerprint BLOB,"
+                        + "size_bytes INTEGER NOT NULL,"
+                        + "modified_date INTEGER NOT NULL,"
+                        + "last_seen_date INTEGER NOT NULL,"
+                        + "UNIQUE (directory_id, file_name)"
+                        + ");",
+                "INSERT INTO tracked_files_new(id, directory_id, file_name, content_hash, size_bytes, modified_date, last_seen_date) "
+                        + "SELECT id, directory_id, file_name, content_hash, size_bytes, modified_date, last_seen_date FROM tracked_files;",
+                "DROP TABLE tracked_files;",
+                "ALTER TABLE tracked_files_new RENAME TO tracked_files;",
+                "CREATE INDEX idx_tracked_files_hash ON tracked_files (content_hash) WHERE content_hash IS NOT NULL;",
+                "CREATE INDEX idx_tracked_files_fingerprint ON tracked_files (fingerprint) WHERE fingerprint IS NOT NULL;",
+                "CREATE INDEX idx_tracked_files_size_mtime ON tracked_files (size_bytes, modified_date);"
+        ));
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.imagetagger.persistence.migration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Приводит схему БД к последней версии. Текущая версия хранится в таблице schema_version
+ * (одна строка на каждую примененную миграцию). Каждая миграция выполняется в отдельной транзакции:
+ * если она упала, схема остается в предыдущей версии и при следующем запуске миграция повторится.
+ * <p>
+ * На время миграции внешние ключи отключаются (внутри транзакции PRAGMA foreign_keys не действует),
+ * иначе пересоздание таблицы через DROP TABLE каскадно удалило бы ссылающиеся на нее строки.
+ * Перед коммитом ссылки проверяются через PRAGMA foreign_key_check; ошибкой считаются только нарушения,
+ * которых не было до миграции (старые версии работали с выключенными внешними ключами, и висячие связи,
+ * оставшиеся с тех пор, убирает миграция 2).
+ */
+public class SchemaMigrator {
+
+    private static final Logger logger = LoggerFactory.getLogger(SchemaMigrator.class);
+
+    private static final String CREATE_VERSION_TABLE = "CREATE TABLE IF NOT EXISTS schema_version ("
+            + "version INTEGER PRIMARY KEY,"
+            + "description TEXT NOT NULL,"
+            + "applied_date INTEGER NOT NULL"
+            + ");";
+
+    private final List<Migration> migrations;
+
+    /**
+     * @throws IllegalArgumentException Если номера версий не идут подряд с 1.
+     */
+    public SchemaMigrator(List<Migration> migrations) {
+        List<Migration> sorted = new ArrayList<>(migrations);
+        sorted.sort(Comparator.comparingInt(Migration::getVersion));
+        for (int i = 0; i < sorted.size(); i++) {
+            if (sorted.get(i).getVersion() != i + 1) {
+                throw new IllegalArgumentException("Migration versions must be consecutive starting from 1, found "
+                        + sorted.get(i).getVersion() + " at position " + (i + 1));
+            }
+        }
+        this.migrations = sorted;
+    }
+
+    public int getLatestVersion() {
+        return migrations.isEmpty() ? 0 : migrations.get(migrations.size() - 1).getVersion();
+    }
+
+    /**
+     * Применяет все миграции новее текущей версии схемы.
+     *
+     * @param conn Соединение-писатель в режиме автокоммита.
+     * @return Версия схемы после миграции.
+     * @throws SQLException Если миграция не удалась или БД создана более новой версией приложения.
+     */
+    public int migrate(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(CREATE_VERSION_TABLE);
+        }
+        int currentVersion = getCurrentVersion(conn);
+        if (currentVersion > getLatestVersion()) {
+            // Старое приложение не знает, как устроены новые таблицы, и может их повредить
+            throw new SQLException("Database schema version " + currentVersion
+                    + " is newer than the latest supported version " + getLatestVersion());
+        }
+        if (currentVersion == getLatestVersion()) {
+            logger.info("Database schema is up to date (version {}).", currentVersion);
+            return currentVersion;
+        }
+
+        for (Migration migration : migrations) {
+            if (migration.getVersion() > currentVersion) {
+                apply(conn, migration);
+                currentVersion = migration.getVersion();
+            }
+        }
+        return currentVersion;
+    }
+
+    public int getCurrentVersion(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(version), 0) FROM schema_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    private void apply(Connection conn, Migration migration) throws SQLException {
+        long start = System.nanoTime();
+        logger.info("Applying database migration {}: {}", migration.getVersion(), migration.getDescription());
+        boolean foreignKeys = isForeignKeysEnabled(conn);
+        try {
+            if (foreignKeys) {
+                setForeignKeys(conn, false);
+            }
+            conn.setAutoCommit(false); // Начинаем транзакцию
+            Set<String> existingViolations = foreignKeyViolations(conn);
+            migration.apply(conn);
+            checkForeignKeys(conn, migration, existingViolations);
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "INSERT INTO schema_version(version, description, applied_date) VALUES(?, ?, ?)")) {
+                pstmt.setInt(1, migration.getVersion());
+                pstmt.setString(2, migration.getDescription());
+                pstmt.setLong(3, System.currentTimeMillis());
+                pstmt.executeUpdate();
+            }
+            conn.commit();
+            logger.info("Database migration {} applied in {} ms.", migration.getVersion(), (System.nanoTime() - start) / 1_000_000);
+        } catch (SQLException e) {
+            logger.error("Database migration {} failed. Rolling back.", migration.getVersion(), e);
+            try {
+                conn.rollback();
+            } catch (SQLException ex) {
+                logger.error("Error rolling back database migration {}", migration.getVersion(), ex);
+            }
+            throw e;
+        } finally {
+            conn.setAutoCommit(true); // Возвращаем режим автокоммита
+            if (foreignKeys) {
+                setForeignKeys(conn, true);
+            }
+        }
+    }
+
+    private static boolean isForeignKeysEnabled(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA foreign_keys")) {
+            return rs.next() && rs.getInt(1) == 1;
+        }
+    }
+
+    private static void setForeignKeys(Connection conn, boolean enabled) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA foreign_keys = " + (enabled ? "ON" : "OFF"));
+        }
+    }
+
+    private static void checkForeignKeys(Connection conn, Migration migration, Set<String> existingViolations)
+            throws SQLException {
+        for (String violation : foreignKeyViolations(conn)) {
+            if (!existingViolations.contains(violation)) {
+                throw new SQLException("Database migration " + migration.getVersion()
+                        + " left a broken foreign key: " + violation);
+            }
+        }
+    }
+
+    /**
+     * Нарушения внешних ключей в виде "таблица (rowid N) -> родительская таблица".
+     */
+    private static Set<String> foreignKeyViolations(Connection conn) throws SQLException {
+        Set<String> violations = new LinkedHashSet<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA foreign_key_check")) {
+            while (rs.next()) {
+                violations.add(rs.getString("table") + " (rowid " + rs.getString("rowid") + ") -> " + rs.getString("parent"));
+            }
+        }
+        return violations;
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.imagetagger.persistence.migration;
+
+import com.example.imagetagger.core.query.TagQuery;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Добавляет тегам ключ поиска и число связей, чтобы фильтр по тегам не читал всю таблицу tags
+ * и не считал связи COUNT(*) при каждом запросе.
+ * <p>
+ * name_key - имя в нижнем регистре ({@link TagQuery#normalize}); считается в Java, потому что lower()
+ * и COLLATE NOCASE в SQLite не знают регистр не-ASCII букв. Ключ не уникален: "Кот" и "кот" - разные теги
+ * с одним ключом. link_count поддерживают триггеры на file_tag_links (в том числе при каскадном удалении
+ * связей вместе с файлом или тегом).
+ */
+class TagLookupMigration implements Migration {
+
+    @Override
+    public int getVersion() {
+        return 8;
+    }
+
+    @Override
+    public String getDescription() {
+        return "Tag lookup keys and link counts";
+    }
+
+    @Override
+    public void apply(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("ALTER TABLE tags ADD COLUMN name_key TEXT;");
+            stmt.execute("ALTER TABLE tags ADD COLUMN link_count INTEGER NOT NULL DEFAULT 0;");
+        }
+        try (Statement select = conn.createStatement();
+             ResultSet rs = select.executeQuery("SELECT id, name FROM tags");
+             PreparedStatement update = conn.prepareStatement("UPDATE tags SET name_key = ? WHERE id = ?")) {
+            while (rs.next()) {
+                update.setString(1, TagQuery.normalize(rs.getString(2)));
+                update.setLong(2, rs.getLong(1));
+                update.addBatch();
+            }
+            update.executeBatch();
+        }
+        try (Statement stmt = conn.createStatement()) {
+            // Один проход по индексу (tag_id, file_id) вместо подзапроса на каждый тег
+            stmt.execute("UPDATE tags SET link_count = counts.link_count FROM "
+                    + "(SELECT tag_id, COUNT(*) AS link_count FROM file_tag_links GROUP BY tag_id) AS counts "
+                    + "WHERE tags.id = counts.tag_id;");
+            stmt.execute("CREATE INDEX idx_tags_name_key ON tags (name_key);");
+            stmt.execute("CREATE TRIGGER trg_file_tag_links_count_insert AFTER INSERT ON file_tag_links BEGIN "
+                    + "UPDATE tags SET link_count = link_count + 1 WHERE id = NEW.tag_id; END;");
+            stmt.execute("CREATE TRIGGER trg_file_tag_links_count_delete AFTER DELETE ON file_tag_links BEGIN "
+                    + "UPDATE tags SET link_count = link_count - 1 WHERE id = OLD.tag_id; END;");
+        }
+    }
+}
@@ -1,13 +1,17 @@
 package com.example.imagetagger.ui.controller;
 
 import com.example.imagetagger.core.model.Tag;
+import com.example.imagetagger.core.query.TagQuery;
+import com.example.imagetagger.core.query.TagQuerySyntaxException;
 import com.example.imagetagger.core.service.TagService;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
+import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
 import javafx.scene.control.ListView;
 import javafx.scene.control.SelectionMode;
+import javafx.scene.control.TextField;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,6 +24,7 @@ public class LeftToolbarController {
 
     private static final Logger logger = LoggerFactory.getLogger(LeftToolbarController.class);
 
+    @FXML private TextField tagQueryField;
     @FXML private ListView<Tag> tagFilterListView;
     @FXML private Button applyFilterButton;
     @FXML private Button clearFilterButton;
@@ -69,6 +74,11 @@ public class LeftToolbarController {
 
     @FXML
     private void handleApplyFilter() {
+        String queryText = tagQueryField.getText();
+        if (queryText != null && !queryText.isBlank()) {
+            applyQuery(queryText);
+            return;
+        }
         ObservableList<Tag> selectedTags = tagFilterListView.getSelectionModel().getSelectedItems();
         Set<Tag> filterTags = new HashSet<>(selectedTags);
 
@@ -80,8 +90,30 @@ public class LeftToolbarController {
         }
     }
 
+    /**
+     * Применяет фильтр-выражение из текстового поля (например, "cat AND (outdoor OR beach) AND NOT blurry").
+     */
+    private void applyQuery(String queryText) {
+        TagQuery query;
+        try {
+            query = TagQuery.parse(queryText);
+        } catch (TagQuerySyntaxException e) {
+            logger.warn("Invalid tag query '{}': {}", queryText, e.getMessage());
+            tagQueryField.positionCaret(e.getPosition());
+            showAlert(Alert.AlertType.WARNING, "Invalid Filter", e.getMessage());
+            return;
+        }
+        if (mainViewController != null) {
+            logger.info("Applying tag query: {}", query);
+            mainViewController.applyTagQuery(query);
+        } else {
+            logger.warn("MainViewController is null. Cannot apply filter.");
+        }
+    }
+
     @FXML
     private void handleClearFilter() {
+        tagQueryField.clear();
         tagFilterListView.getSelectionModel().clearSelection();
         if (mainViewController != null) {
             logger.info("Clearing tag filter.");
@@ -105,4 +137,12 @@ public class LeftToolbarController {
             }
         }
     }
+
+    private void showAlert(Alert.AlertType alertType, String title, String message) {
+        Alert alert = new Alert(alertType);
+        alert.setTitle(title);
+        alert.setHeaderText(null);
+        alert.setContentText(message);
+        alert.showAndWait();
+    }
 }
\ No newline at end of file
@@ -1,20 +1,37 @@
 package com.example.imagetagger.ui.controller;
 
+import com.example.imagetagger.core.model.DuplicateCluster;
 import com.example.imagetagger.core.model.TrackedFile;
+import com.example.imagetagger.core.query.TagQuery;
+import com.example.imagetagger.core.index.TagBitmapIndex;
 import com.example.imagetagger.core.model.Tag;
+import com.example.imagetagger.core.service.DirectoryWatchService;
+import com.example.imagetagger.core.service.DuplicateService;
 import com.example.imagetagger.core.service.FileScannerService;
+import com.example.imagetagger.core.service.LibraryService;
+import com.example.imagetagger.core.service.ScanOptions;
 import com.example.imagetagger.core.service.TagService;
+import com.example.imagetagger.core.service.ThumbnailService;
 import com.example.imagetagger.core.service.TrackedFileService;
+import com.example.imagetagger.persistence.dao.DirectorySnapshotDAO;
 import com.example.imagetagger.persistence.dao.FileTagLinkDAO;
 import com.example.imagetagger.persistence.dao.TagDAO;
 import com.example.imagetagger.persistence.dao.TrackedFileDAO;
 
 import javafx.application.Platform;
 import javafx.fxml.FXML;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
+import javafx.scene.control.ButtonBar;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.CheckMenuItem;
 import javafx.scene.control.MenuItem;
+import javafx.scene.control.TextArea;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.StackPane;
 import javafx.stage.DirectoryChooser;
@@ -23,8 +40,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -38,7 +54,12 @@ import javafx.concurrent.Task; // Добавить этот импорт
 import javafx.scene.control.Label; // Добавить этот импорт
 import javafx.scene.control.Menu;    // Добавить этот импорт
 import javafx.scene.control.ProgressIndicator; // Добавить этот импорт
+import com.example.imagetagger.ui.task.FindDuplicatesTask;
 import com.example.imagetagger.ui.task.ScanDirectoryTask; // Добавить импорт
+import com.example.imagetagger.ui.task.ScanLibraryTask;
+import com.example.imagetagger.ui.task.TagFilterTask;
+import com.example.imagetagger.ui.image.ImageLoaderService;
+import com.example.imagetagger.ui.image.ThumbnailGridView;
 import javafx.beans.binding.Bindings;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -46,6 +67,8 @@ import javafx.collections.ObservableList;
 public class MainViewController {
 
     private static final Logger logger = LoggerFactory.getLogger(MainViewController.class);
+    private static final int PREFETCH_DISTANCE = 2; // Сколько соседних изображений в каждую сторону декодировать заранее
+    private static final int DUPLICATE_REPORT_LIMIT = 500; // Сколько групп дубликатов показывать в отчете
 
     @FXML private BorderPane rootPane;
     @FXML private ImageView mainImageView;
@@ -53,11 +76,25 @@ public class MainViewController {
     @FXML private Button previousImageButton;
     @FXML private Button nextImageButton;
     @FXML private MenuItem openFolderMenuItem; 
+    @FXML private MenuItem rescanFolderMenuItem;
+    @FXML private MenuItem addLibraryFolderMenuItem;
+    @FXML private MenuItem scanLibraryMenuItem;
     @FXML private Label statusBarLabel; 
     @FXML private ProgressIndicator scanProgressIndicator; 
     @FXML private Menu fileMenu;
+    @FXML private CheckMenuItem gridViewMenuItem;
 
     private FileScannerService fileScannerService;
+    private DirectoryWatchService directoryWatchService;
+    private LibraryService libraryService;
+    private DuplicateService duplicateService;
+    private final ImageLoaderService imageLoaderService = new ImageLoaderService();
+    private final ThumbnailService thumbnailService = new ThumbnailService();
+    private ThumbnailGridView thumbnailGridView;
+    private boolean zoomedIn = false; // Режим 1:1 с изображением в полном разрешении
+    private String shownImageSize;    // Размер декодирования показанного изображения ("ШxВ")
+    private double dragAnchorX;
+    private double dragAnchorY;
     private TrackedFileService trackedFileService; // Добавить это поле
     private TagService tagService;
     private final ObservableList<TrackedFile> currentImageList = FXCollections.observableArrayList();
@@ -68,7 +105,7 @@ public class MainViewController {
 
     private File currentOpenDirectory;
     // Добавить поле для хранения активных тегов фильтрации
-    private Set<Tag> activeTagFilters = new HashSet<>();
+    private TagQuery activeTagQuery; // null - фильтр не задан
 
     @FXML
     public void initialize() {
@@ -80,10 +117,51 @@ public class MainViewController {
         this.tagService = new TagService(tagDAO);
         FileTagLinkDAO fileTagLinkDAO = new FileTagLinkDAO(tagDAO);
         this.trackedFileService = new TrackedFileService(trackedFileDAO, fileTagLinkDAO, tagDAO);
-        this.fileScannerService = new FileScannerService(this.trackedFileService);
+        // Индекс тегов в памяти грузится в фоне; до его готовности фильтры работают через SQL
+        TagBitmapIndex tagBitmapIndex = new TagBitmapIndex(trackedFileDAO, fileTagLinkDAO, tagDAO);
+        this.trackedFileService.setTagIndex(tagBitmapIndex);
+        this.trackedFileService.setThumbnailService(this.thumbnailService);
+        this.tagService.setTagIndex(tagBitmapIndex);
+        this.duplicateService = new DuplicateService(trackedFileDAO, fileTagLinkDAO, tagDAO);
+        this.duplicateService.setTagIndex(tagBitmapIndex);
+        Thread.ofPlatform().name("tag-index-loader").daemon(true).start(tagBitmapIndex::load);
+        this.fileScannerService = new FileScannerService(this.trackedFileService, new DirectorySnapshotDAO(),
+                this.thumbnailService, new ScanOptions());
+        this.libraryService = new LibraryService(this.fileScannerService);
+        this.directoryWatchService = new DirectoryWatchService(this.trackedFileService);
+        this.directoryWatchService.setListener(new DirectoryWatchService.Listener() {
+            @Override
+            public void onFilesChanged(List<TrackedFile> updatedFiles, Set<String> removedPaths) {
+                Platform.runLater(() -> applyWatchedChanges(updatedFiles, removedPaths));
+            }
+
+            @Override
+            public void onOverflow(Path directory) {
+                Platform.runLater(() -> {
+                    if (currentOpenDirectory != null && currentOpenDirectory.toPath().toAbsolutePath().equals(directory)) {
+                        loadImagesFromDirectory(currentOpenDirectory, true);
+                    }
+                });
+            }
+        });
 
         mainImageView.fitWidthProperty().bind(imageViewHolder.widthProperty());
         mainImageView.fitHeightProperty().bind(imageViewHolder.heightProperty());
+        imageViewHolder.widthProperty().addListener((obs, oldWidth, newWidth) -> handleViewportResized());
+        imageViewHolder.heightProperty().addListener((obs, oldHeight, newHeight) -> handleViewportResized());
+        mainImageView.setOnMouseClicked(this::handleImageClicked);
+        mainImageView.setOnMousePressed(this::handleImagePressed);
+        mainImageView.setOnMouseDragged(this::handleImageDragged);
+
+        // Сетка лежит в той же области, что и изображение, и показывается вместо него
+        thumbnailGridView = new ThumbnailGridView(currentImageList, thumbnailService);
+        thumbnailGridView.setVisible(false);
+        thumbnailGridView.setOnFileSelected(this::displayImageAtIndex);
+        thumbnailGridView.setOnFileActivated(index -> {
+            setGridViewVisible(false);
+            displayImageAtIndex(index);
+        });
+        imageViewHolder.getChildren().add(1, thumbnailGridView); // Под индикатором прогресса
 
         loadLeftToolbar();
         loadRightToolbar();
@@ -118,11 +196,18 @@ public class MainViewController {
     }
 
     public void applyTagFilter(Set<Tag> filterTags) {
-        logger.info("Tag filter received in MainViewController: {}", filterTags.stream().map(Tag::getName).collect(Collectors.toList()));
-        this.activeTagFilters = filterTags;
+        applyTagQuery(filterTags == null || filterTags.isEmpty() ? null : TagQuery.anyOf(filterTags));
+    }
+
+    /**
+     * Устанавливает фильтр-выражение по тегам; null сбрасывает фильтр.
+     */
+    public void applyTagQuery(TagQuery query) {
+        logger.info("Tag filter received in MainViewController: {}", query);
+        this.activeTagQuery = query;
 
         if (this.currentOpenDirectory != null) {
-            loadImagesFromDirectory(this.currentOpenDirectory); 
+            reloadCurrentView();
         } else {
             logger.debug("No directory open, filter will be applied on next folder open.");
             updateStatusBar("Filter set. Open a folder to apply.");
@@ -156,13 +241,42 @@ public class MainViewController {
                  rightToolbarController.setCurrentFile(currentlyDisplayedFile);
              });
         }
-        if (currentOpenDirectory != null && (activeTagFilters != null && !activeTagFilters.isEmpty())) { // Проверка, что фильтр не пуст
-            loadImagesFromDirectory(currentOpenDirectory);
-        } else if (currentOpenDirectory != null) { // Если фильтр пуст, но папка открыта, тоже перезагружаем (на случай если файлы изменились)
+        if (currentOpenDirectory != null) {
+            reloadCurrentView();
+        }
+    }
+
+    /**
+     * Перестраивает список открытой папки: при активном фильтре - запросом к БД,
+     * без фильтра - инкрементальным сканированием (неизменившиеся папки берутся из снимков).
+     */
+    private void reloadCurrentView() {
+        if (activeTagQuery != null) {
+            runTagFilter(currentOpenDirectory);
+        } else {
             loadImagesFromDirectory(currentOpenDirectory);
         }
     }
 
+    private void runTagFilter(File directory) {
+        TagFilterTask filterTask = new TagFilterTask(trackedFileService, activeTagQuery, directory);
+        filterTask.messageProperty().addListener((obs, oldMsg, newMsg) -> updateStatusBar(newMsg));
+        scanProgressIndicator.visibleProperty().bind(filterTask.runningProperty());
+
+        filterTask.setOnSucceeded(event -> {
+            processScannedFiles(filterTask.getValue());
+            updateStatusBar(currentImageList.size() + " images loaded. Filter active.");
+        });
+        filterTask.setOnFailed(event -> {
+            logger.error("Failed to filter images by tags.", filterTask.getException());
+            updateStatusBar("Error filtering images: " + filterTask.getException().getMessage());
+        });
+
+        Thread filterThread = new Thread(filterTask, "tag-filter");
+        filterThread.setDaemon(true);
+        filterThread.start();
+    }
+
     public void handleGlobalTagDeleted(Tag deletedTag) {
         logger.info("MainViewController notified of global tag deletion: {}", deletedTag.getName());
         
@@ -170,10 +284,10 @@ public class MainViewController {
             leftToolbarController.refreshAvailableTags();
         }
 
-        if (activeTagFilters != null && activeTagFilters.contains(deletedTag)) {
-            activeTagFilters.remove(deletedTag);
+        // Удаленный тег в фильтре больше ничему не соответствует - пересчитываем выборку
+        if (activeTagQuery != null && activeTagQuery.getTagNames().contains(TagQuery.normalize(deletedTag.getName()))) {
             if (this.currentOpenDirectory != null) {
-                loadImagesFromDirectory(this.currentOpenDirectory);
+                reloadCurrentView();
             }
         }
         
@@ -201,7 +315,144 @@ public class MainViewController {
         }
     }
 
+    @FXML
+    private void handleRescanFolder() {
+        if (currentOpenDirectory == null) {
+            updateStatusBar("Ready. Open a folder.");
+            return;
+        }
+        logger.info("Full rescan requested for: {}", currentOpenDirectory.getAbsolutePath());
+        loadImagesFromDirectory(currentOpenDirectory, true);
+    }
+
+    @FXML
+    private void handleAddLibraryFolder() {
+        DirectoryChooser directoryChooser = new DirectoryChooser();
+        directoryChooser.setTitle("Add Folder to Library");
+        Stage stage = (Stage) rootPane.getScene().getWindow();
+        File selectedDirectory = directoryChooser.showDialog(stage);
+        if (selectedDirectory == null) {
+            return;
+        }
+        libraryService.registerRoot(selectedDirectory).ifPresentOrElse(
+                root -> updateStatusBar("Added to library: " + root.getAbsolutePath()),
+                () -> updateStatusBar("Could not add folder to library: " + selectedDirectory.getAbsolutePath()));
+    }
+
+    /**
+     * Индексирует все папки библиотеки в фоне. Текущий список изображений не меняется.
+     */
+    @FXML
+    private void handleScanLibrary() {
+        ScanLibraryTask libraryTask = new ScanLibraryTask(libraryService, false);
+        libraryTask.messageProperty().addListener((obs, oldMsg, newMsg) -> updateStatusBar(newMsg));
+        scanProgressIndicator.visibleProperty().bind(libraryTask.runningProperty());
+        fileMenu.disableProperty().bind(libraryTask.runningProperty());
+
+        libraryTask.setOnFailed(event -> {
+            logger.error("Failed to scan library.", libraryTask.getException());
+            updateStatusBar("Error scanning library: " + libraryTask.getException().getMessage());
+        });
+
+        Thread libraryThread = new Thread(libraryTask, "library-scan");
+        libraryThread.setDaemon(true);
+        libraryThread.start();
+    }
+
+    /**
+     * Ищет дубликаты по хэшам в БД и показывает отчет; по желанию пользователя переносит теги между копиями.
+     */
+    @FXML
+    private void handleFindDuplicates() {
+        FindDuplicatesTask duplicatesTask = new FindDuplicatesTask(duplicateService, trackedFileService);
+        duplicatesTask.messageProperty().addListener((obs, oldMsg, newMsg) -> updateStatusBar(newMsg));
+        scanProgressIndicator.visibleProperty().bind(duplicatesTask.runningProperty());
+        fileMenu.disableProperty().bind(duplicatesTask.runningProperty());
+
+        duplicatesTask.setOnSucceeded(event -> showDuplicateReport(duplicatesTask.getValue()));
+        duplicatesTask.setOnFailed(event -> {
+            logger.error("Failed to find duplicates.", duplicatesTask.getException());
+            updateStatusBar("Error searching for duplicates: " + duplicatesTask.getException().getMessage());
+        });
+
+        Thread duplicatesThread = new Thread(duplicatesTask, "duplicate-finder");
+        duplicatesThread.setDaemon(true);
+        duplicatesThread.start();
+    }
+
+    private void showDuplicateReport(List<DuplicateCluster> clusters) {
+        if (clusters.isEmpty()) {
+            updateStatusBar("No duplicates found.");
+            return;
+        }
+        long wastedBytes = DuplicateService.getTotalWastedBytes(clusters);
+        StringBuilder report = new StringBuilder();
+        for (DuplicateCluster cluster : clusters.subList(0, Math.min(DUPLICATE_REPORT_LIMIT, clusters.size()))) {
+            report.append(cluster.getFiles().size()).append(" copies, ")
+                    .append(formatMegabytes(cluster.getWastedBytes())).append(" wasted\n");
+            for (TrackedFile file : cluster.getFiles()) {
+                report.append("    ").append(file.getAbsolutePath()).append('\n');
+            }
+        }
+        if (clusters.size() > DUPLICATE_REPORT_LIMIT) {
+            report.append("... and ").append(clusters.size() - DUPLICATE_REPORT_LIMIT).append(" more groups\n");
+        }
+        TextArea reportArea = new TextArea(report.toString());
+        reportArea.setEditable(false);
+
+        ButtonType copyTagsButton = new ButtonType("Copy Tags", ButtonBar.ButtonData.OK_DONE);
+        Alert alert = new Alert(Alert.AlertType.CONFIRMATION, "", copyTagsButton, ButtonType.CLOSE);
+        alert.initOwner(rootPane.getScene().getWindow());
+        alert.setTitle("Duplicates");
+        alert.setHeaderText(clusters.size() + " groups of identical files, "
+                + formatMegabytes(wastedBytes) + " in extra copies.");
+        alert.setContentText("Copy tags between identical files, so that every copy has the tags of all copies?");
+        alert.getDialogPane().setExpandableContent(reportArea);
+        alert.getDialogPane().setExpanded(true);
+        updateStatusBar(clusters.size() + " groups of duplicates found.");
+        if (alert.showAndWait().orElse(ButtonType.CLOSE) == copyTagsButton) {
+            runDuplicateTagPropagation(clusters);
+        }
+    }
+
+    private void runDuplicateTagPropagation(List<DuplicateCluster> clusters) {
+        Task<Integer> propagationTask = new Task<>() {
+            @Override
+            protected Integer call() {
+                updateMessage("Copying tags between duplicates...");
+                return duplicateService.propagateTags(clusters);
+            }
+        };
+        propagationTask.messageProperty().addListener((obs, oldMsg, newMsg) -> updateStatusBar(newMsg));
+        scanProgressIndicator.visibleProperty().bind(propagationTask.runningProperty());
+        fileMenu.disableProperty().bind(propagationTask.runningProperty());
+
+        propagationTask.setOnSucceeded(event -> {
+            int linkCount = propagationTask.getValue();
+            updateStatusBar("Copied " + linkCount + " tags between duplicates.");
+            if (linkCount > 0 && currentOpenDirectory != null) {
+                reloadCurrentView(); // Теги показанных файлов и результат фильтра могли измениться
+            }
+        });
+        propagationTask.setOnFailed(event -> {
+            logger.error("Failed to copy tags between duplicates.", propagationTask.getException());
+            updateStatusBar("Error copying tags: " + propagationTask.getException().getMessage());
+        });
+
+        Thread propagationThread = new Thread(propagationTask, "duplicate-tags");
+        propagationThread.setDaemon(true);
+        propagationThread.start();
+    }
+
+    private static String formatMegabytes(long bytes) {
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+
     private void loadImagesFromDirectory(File directory) {
+        loadImagesFromDirectory(directory, false);
+    }
+
+    private void loadImagesFromDirectory(File directory, boolean fullRescan) {
         if (directory == null || !directory.isDirectory()) {
             logger.warn("Cannot load images, invalid directory provided: {}", directory);
             updateStatusBar("Invalid directory selected.");
@@ -209,7 +460,7 @@ public class MainViewController {
         }
         this.currentOpenDirectory = directory; 
 
-        ScanDirectoryTask scanTask = new ScanDirectoryTask(fileScannerService, directory);
+        ScanDirectoryTask scanTask = new ScanDirectoryTask(fileScannerService, directory, fullRescan);
 
         scanTask.messageProperty().addListener((obs, oldMsg, newMsg) -> updateStatusBar(newMsg));
         
@@ -237,9 +488,17 @@ public class MainViewController {
 
 
         scanTask.setOnSucceeded(event -> {
+            // Дальше папка обновляется по событиям файловой системы, без повторных сканирований
+            directoryWatchService.unwatchAll();
+            directoryWatchService.watch(directory, fileScannerService.getOptions());
+            if (activeTagQuery != null) {
+                // Фильтр применяется в БД: в памяти держим только совпадения, а не всю папку
+                runTagFilter(directory);
+                return;
+            }
             List<TrackedFile> allFilesInDirectory = scanTask.getValue();
             processScannedFiles(allFilesInDirectory); 
-            updateStatusBar(currentImageList.size() + " images loaded. " + (activeTagFilters.isEmpty() ? "" : "Filter active."));
+            updateStatusBar(currentImageList.size() + " images loaded.");
             // updateNavigationButtons() вызовется в конце processScannedFiles
         });
 
@@ -272,25 +531,11 @@ public class MainViewController {
         new Thread(scanTask).start();
     }
 
-    private void processScannedFiles(List<TrackedFile> allFilesInDirectory) {
-        List<TrackedFile> filteredList;
-        if (activeTagFilters == null || activeTagFilters.isEmpty()) {
-            filteredList = new ArrayList<>(allFilesInDirectory);
-        } else {
-            filteredList = allFilesInDirectory.stream()
-                .filter(trackedFile -> {
-                    if (trackedFile.getTags() == null || trackedFile.getTags().isEmpty()) {
-                        return false;
-                    }
-                    return trackedFile.getTags().stream().anyMatch(activeTagFilters::contains);
-                })
-                .collect(Collectors.toList());
-            logger.info("Filtered image list. Original: {}, Filtered: {}. Filter tags: {}",
-                allFilesInDirectory.size(), filteredList.size(), activeTagFilters.stream().map(Tag::getName).collect(Collectors.toList()));
-        }
-        
-        currentImageList.clear(); 
-        currentImageList.addAll(filteredList); 
+    /**
+     * Показывает готовый список файлов (результат сканирования или уже отфильтрованный в БД).
+     */
+    private void processScannedFiles(List<TrackedFile> files) {
+        currentImageList.setAll(files); 
 
         currentImageIndexProperty.set(currentImageList.isEmpty() ? -1 : 0); 
         // this.currentImageIndex = currentImageIndexProperty.get(); // Синхронизируется
@@ -303,7 +548,7 @@ public class MainViewController {
             if (rightToolbarController != null) {
                 rightToolbarController.setCurrentFile(null);
             }
-            if (activeTagFilters != null && !activeTagFilters.isEmpty()) {
+            if (activeTagQuery != null) {
                  logger.info("No images found matching the current tag filter.");
             } else {
                  logger.info("No supported images found in directory.");
@@ -312,8 +557,212 @@ public class MainViewController {
         updateNavigationButtons(); 
     }
 
+    /**
+     * Применяет изменения, замеченные DirectoryWatchService, к текущему списку без полного пересканирования.
+     * Текущее изображение остается выбранным, если оно не было удалено.
+     */
+    private void applyWatchedChanges(List<TrackedFile> updatedFiles, Set<String> removedPaths) {
+        if (currentOpenDirectory == null) {
+            return;
+        }
+        Path openDirectoryPath = currentOpenDirectory.toPath().toAbsolutePath();
+        List<TrackedFile> relevantFiles = updatedFiles.stream()
+                .filter(file -> file.getFile().toPath().startsWith(openDirectoryPath)) // Папка открыта вместе с подпапками
+                .collect(Collectors.toList());
+        Set<String> affectedPaths = new HashSet<>(removedPaths);
+        relevantFiles.forEach(file -> affectedPaths.add(file.getAbsolutePath()));
+
+        String shownPath = currentlyDisplayedFile != null ? currentlyDisplayedFile.getAbsolutePath() : null;
+        int previousIndex = currentImageIndexProperty.get();
+        boolean changed = currentImageList.removeIf(file -> affectedPaths.contains(file.getAbsolutePath()));
+        for (TrackedFile file : relevantFiles) {
+            if (activeTagQuery == null || activeTagQuery.matches(file.getTags())) {
+                currentImageList.add(file);
+                changed = true;
+            }
+        }
+        if (!changed) {
+            return;
+        }
+        FXCollections.sort(currentImageList, (f1, f2) -> f1.getName().compareToIgnoreCase(f2.getName()));
+        logger.info("Applied file system changes to image list. Now {} images.", currentImageList.size());
+
+        int shownIndex = -1;
+        for (int i = 0; shownPath != null && i < currentImageList.size(); i++) {
+            if (currentImageList.get(i).getAbsolutePath().equals(shownPath)) {
+                shownIndex = i;
+                break;
+            }
+        }
+        if (shownIndex >= 0 && !affectedPaths.contains(shownPath)) {
+            currentImageIndexProperty.set(shownIndex); // Показанный файл не менялся, сдвинулся только индекс
+            updateNavigationButtons();
+        } else if (shownIndex >= 0) {
+            displayImageAtIndex(shownIndex); // Показанный файл изменился на диске - перечитываем
+        } else if (!currentImageList.isEmpty()) {
+            displayImageAtIndex(Math.max(0, Math.min(previousIndex, currentImageList.size() - 1)));
+        } else {
+            displayImageAtIndex(-1);
+        }
+    }
+
+    /**
+     * Останавливает фоновые службы контроллера. Вызывается при закрытии приложения.
+     */
+    public void shutdown() {
+        directoryWatchService.close();
+        imageLoaderService.close();
+        thumbnailService.close();
+        trackedFileService.close();
+    }
+
+    /**
+     * Показывает изображение в размере области просмотра: из кэша - сразу, иначе после фонового декодирования.
+     * Если пока декодировалось, пользователь перешел к другому файлу, результат не показывается.
+     */
+    private void showImage(TrackedFile file) {
+        zoomedIn = false;
+        mainImageView.setViewport(null);
+        int width = viewportPixels(imageViewHolder.getWidth());
+        int height = viewportPixels(imageViewHolder.getHeight());
+        shownImageSize = width + "x" + height;
+        Image cached = imageLoaderService.getCached(file, width, height);
+        if (cached != null) {
+            mainImageView.setImage(cached);
+            return;
+        }
+        mainImageView.setImage(null);
+        imageLoaderService.load(file, width, height).whenComplete((image, error) -> Platform.runLater(() -> {
+            if (zoomedIn || !isDisplayed(file)) {
+                return; // Уже показывается другой файл или увеличенное изображение
+            }
+            if (error != null) {
+                logger.error("Failed to load image: {}", file.getAbsolutePath(), error);
+                mainImageView.setImage(null);
+            } else {
+                mainImageView.setImage(image);
+            }
+        }));
+    }
+
+    private boolean isDisplayed(TrackedFile file) {
+        return currentlyDisplayedFile != null && currentlyDisplayedFile.getAbsolutePath().equals(file.getAbsolutePath());
+    }
+
+    /**
+     * Размер области в физических пикселях экрана (с учетом масштаба HiDPI), округленный для кэша.
+     */
+    private int viewportPixels(double logicalSize) {
+        double scale = 1.0;
+        if (rootPane.getScene() != null && rootPane.getScene().getWindow() != null) {
+            scale = rootPane.getScene().getWindow().getOutputScaleX();
+        }
+        return ImageLoaderService.roundUpSize(logicalSize * scale);
+    }
+
+    /**
+     * Перечитывает показанное изображение, если окно выросло настолько, что нужен следующий размер декодирования.
+     */
+    private void handleViewportResized() {
+        if (zoomedIn || currentlyDisplayedFile == null) {
+            return;
+        }
+        String size = viewportPixels(imageViewHolder.getWidth()) + "x" + viewportPixels(imageViewHolder.getHeight());
+        if (!size.equals(shownImageSize)) {
+            showImage(currentlyDisplayedFile);
+        }
+    }
+
+    /**
+     * Двойной щелчок переключает режим 1:1 вокруг точки щелчка. Только в этом режиме
+     * изображение декодируется в полном разрешении.
+     */
+    private void handleImageClicked(MouseEvent event) {
+        if (event.getButton() != MouseButton.PRIMARY || event.getClickCount() != 2 || currentlyDisplayedFile == null) {
+            return;
+        }
+        TrackedFile file = currentlyDisplayedFile;
+        if (zoomedIn) {
+            showImage(file);
+            return;
+        }
+        // Доля ширины/высоты показанного изображения, куда пришелся щелчок
+        double fractionX = event.getX() / mainImageView.getBoundsInLocal().getWidth();
+        double fractionY = event.getY() / mainImageView.getBoundsInLocal().getHeight();
+        zoomedIn = true;
+        imageLoaderService.load(file).whenComplete((image, error) -> Platform.runLater(() -> {
+            if (!zoomedIn || !isDisplayed(file)) {
+                return;
+            }
+            if (error != null) {
+                logger.error("Failed to load full resolution image: {}", file.getAbsolutePath(), error);
+                zoomedIn = false;
+                return;
+            }
+            double viewportWidth = Math.min(image.getWidth(), imageViewHolder.getWidth());
+            double viewportHeight = Math.min(image.getHeight(), imageViewHolder.getHeight());
+            mainImageView.setImage(image);
+            setZoomViewport(image.getWidth() * fractionX - viewportWidth / 2,
+                    image.getHeight() * fractionY - viewportHeight / 2, viewportWidth, viewportHeight);
+        }));
+    }
+
+    private void handleImagePressed(MouseEvent event) {
+        dragAnchorX = event.getX();
+        dragAnchorY = event.getY();
+    }
+
+    private void handleImageDragged(MouseEvent event) {
+        Rectangle2D viewport = mainImageView.getViewport();
+        if (!zoomedIn || viewport == null || mainImageView.getImage() == null) {
+            return;
+        }
+        // В режиме 1:1 пиксель экрана равен пикселю изображения
+        setZoomViewport(viewport.getMinX() - (event.getX() - dragAnchorX),
+                viewport.getMinY() - (event.getY() - dragAnchorY), viewport.getWidth(), viewport.getHeight());
+        dragAnchorX = event.getX();
+        dragAnchorY = event.getY();
+    }
+
+    private void setZoomViewport(double x, double y, double width, double height) {
+        Image image = mainImageView.getImage();
+        double clampedX = Math.max(0, Math.min(x, image.getWidth() - width));
+        double clampedY = Math.max(0, Math.min(y, image.getHeight() - height));
+        mainImageView.setViewport(new Rectangle2D(clampedX, clampedY, width, height));
+    }
+
+    private void prefetchNeighbours(int index) {
+        List<TrackedFile> neighbours = new ArrayList<>();
+        for (int distance = 1; distance <= PREFETCH_DISTANCE; distance++) {
+            // Сначала следующий, потом предыдущий: вперед листают чаще
+            if (index + distance < currentImageList.size()) {
+                neighbours.add(currentImageList.get(index + distance));
+            }
+            if (index - distance >= 0) {
+                neighbours.add(currentImageList.get(index - distance));
+            }
+        }
+        imageLoaderService.prefetch(neighbours,
+                viewportPixels(imageViewHolder.getWidth()), viewportPixels(imageViewHolder.getHeight()));
+    }
+
+    @FXML
+    private void handleToggleGridView() {
+        setGridViewVisible(gridViewMenuItem.isSelected());
+    }
+
+    private void setGridViewVisible(boolean visible) {
+        gridViewMenuItem.setSelected(visible);
+        thumbnailGridView.setVisible(visible);
+        mainImageView.setVisible(!visible);
+        if (visible && currentImageIndexProperty.get() >= 0) {
+            thumbnailGridView.scrollTo(currentImageIndexProperty.get() / Math.max(1, thumbnailGridView.getColumns()));
+        }
+    }
+
     private void displayImageAtIndex(int index) {
         currentImageIndexProperty.set(index); 
+        thumbnailGridView.setSelectedIndex(index);
         // this.currentImageIndex = index; // Синхронизируется
 
         if (index >= 0 && index < currentImageList.size()) {
@@ -323,21 +772,8 @@ public class MainViewController {
             if (freshFileOpt.isPresent()) {
                 currentlyDisplayedFile = freshFileOpt.get();
                 logger.info("Displaying image: {} (ID: {})", currentlyDisplayedFile.getAbsolutePath(), currentlyDisplayedFile.getId());
-                try (FileInputStream fis = new FileInputStream(currentlyDisplayedFile.getFile())) {
-                    Image image = new Image(fis);
-                    if (image.isError()) {
-                        logger.error("Error loading image: {}. Exception: {}", currentlyDisplayedFile.getAbsolutePath(), image.getException());
-                        mainImageView.setImage(null);
-                    } else {
-                        mainImageView.setImage(image);
-                    }
-                } catch (FileNotFoundException e) {
-                    logger.error("Image file not found: {}", currentlyDisplayedFile.getAbsolutePath(), e);
-                    mainImageView.setImage(null);
-                } catch (Exception e) {
-                    logger.error("Failed to load image: {}", currentlyDisplayedFile.getAbsolutePath(), e);
-                    mainImageView.setImage(null);
-                }
+                showImage(currentlyDisplayedFile);
+                prefetchNeighbours(index);
 
                 if (rightToolbarController != null) {
                     rightToolbarController.setCurrentFile(currentlyDisplayedFile);
@@ -366,7 +802,7 @@ public class MainViewController {
         } else if (!currentImageList.isEmpty()){
              updateStatusBar(currentImageList.size() + " images loaded. Select an image.");
         } else if (currentOpenDirectory != null) {
-            if (activeTagFilters.isEmpty()) {
+            if (activeTagQuery == null) {
                 updateStatusBar("No images found in " + currentOpenDirectory.getName());
             } else {
                 updateStatusBar("No images found in " + currentOpenDirectory.getName() + " matching filter.");
@@ -0,0 +1,79 @@
+package com.example.imagetagger.ui.image;
+
+import javafx.scene.image.Image;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU-кэш декодированных изображений, ограниченный по памяти.
+ * Вес изображения - размер его пикселей (ширина * высота * 4 байта), а не количество записей:
+ * одна фотография 8000x6000 занимает столько же, сколько сотня небольших картинок.
+ * Потокобезопасен.
+ *
+ * @param <K> Тип ключа (путь к файлу, хэш содержимого).
+ */
+public class ImageCache<K> {
+
+    private final long maxBytes;
+    private final LinkedHashMap<K, Image> images = new LinkedHashMap<>(64, 0.75f, true); // Порядок доступа
+    private long currentBytes = 0;
+
+    public ImageCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized Image get(K key) {
+        return images.get(key);
+    }
+
+    /**
+     * Кладет изображение в кэш и вытесняет самые давно использованные, пока не уложимся в лимит.
+     * Изображение больше всего лимита не кэшируется.
+     */
+    public synchronized void put(K key, Image image) {
+        long weight = weightOf(image);
+        if (weight > maxBytes) {
+            return;
+        }
+        Image previous = images.put(key, image);
+        if (previous != null) {
+            currentBytes -= weightOf(previous);
+        }
+        currentBytes += weight;
+        Iterator<Map.Entry<K, Image>> it = images.entrySet().iterator();
+        while (currentBytes > maxBytes && it.hasNext()) {
+            Map.Entry<K, Image> eldest = it.next();
+            if (eldest.getKey().equals(key)) {
+                continue;
+            }
+            currentBytes -= weightOf(eldest.getValue());
+            it.remove();
+        }
+    }
+
+    public synchronized void clear() {
+        images.clear();
+        currentBytes = 0;
+    }
+
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized int size() {
+        return images.size();
+    }
+
+    static long weightOf(Image image) {
+        return (long) image.getWidth() * (long) image.getHeight() * 4L; // Пиксели хранятся в формате BGRA
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.imagetagger.ui.image;
+
+import com.example.imagetagger.core.model.TrackedFile;
+import javafx.scene.image.Image;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Декодирует изображения в фоновых потоках и держит результат в {@link ImageCache}.
+ * Один и тот же файл одновременно декодируется не больше одного раза: повторные запросы
+ * получают уже запущенную задачу. Ключ кэша включает дату модификации, поэтому измененный
+ * на диске файл не будет взят из кэша в старом виде.
+ * <p>
+ * Для показа в окне изображение декодируется сразу в размер области просмотра (JavaFX requestedWidth/Height):
+ * фотография 12000x9000 в окне 1920x1080 занимает ~8 МБ вместо ~430 МБ. Полное разрешение
+ * декодируется только по запросу (например, при увеличении).
+ */
+public class ImageLoaderService implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageLoaderService.class);
+    private static final int DEFAULT_DECODER_THREADS = 2;
+    private static final int SIZE_STEP = 256; // Размер области округляется вверх, чтобы не декодировать заново при каждом изменении окна
+
+    /**
+     * Значение ширины и высоты для декодирования в исходном разрешении.
+     */
+    public static final int FULL_RESOLUTION = 0;
+
+    private final ImageCache<String> cache;
+    private final ExecutorService decoderExecutor;
+    private final Map<String, CompletableFuture<Image>> inFlight = new ConcurrentHashMap<>();
+    private volatile Set<String> wantedPrefetchKeys = Set.of();
+
+    public ImageLoaderService() {
+        // Четверть кучи под декодированные изображения, но не больше 512 МБ
+        this(Math.min(Runtime.getRuntime().maxMemory() / 4, 512L * 1024 * 1024), DEFAULT_DECODER_THREADS);
+    }
+
+    public ImageLoaderService(long cacheBytes, int decoderThreads) {
+        this.cache = new ImageCache<>(cacheBytes);
+        this.decoderExecutor = Executors.newFixedThreadPool(decoderThreads,
+                Thread.ofPlatform().name("image-decoder-", 0).daemon(true).factory());
+    }
+
+    /**
+     * Возвращает изображение из кэша без ожидания, или null, если его там нет.
+     * Подходит и уже декодированное полное разрешение.
+     *
+     * @param width Ширина области просмотра в пикселях или {@link #FULL_RESOLUTION}.
+     * @param height Высота области просмотра в пикселях или {@link #FULL_RESOLUTION}.
+     */
+    public Image getCached(TrackedFile file, int width, int height) {
+        Image cached = cache.get(keyOf(file, width, height));
+        return cached != null ? cached : cache.get(keyOf(file, FULL_RESOLUTION, FULL_RESOLUTION));
+    }
+
+    public CompletableFuture<Image> load(TrackedFile file) {
+        return load(file, FULL_RESOLUTION, FULL_RESOLUTION);
+    }
+
+    /**
+     * Загружает изображение асинхронно, уменьшенным до размера области (с сохранением пропорций).
+     * Future завершается в потоке декодера; для обновления UI результат нужно передать
+     * в FX-поток (Platform.runLater). При ошибке чтения или декодирования future завершается исключением.
+     */
+    public CompletableFuture<Image> load(TrackedFile file, int width, int height) {
+        Image cached = getCached(file, width, height);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        String key = keyOf(file, width, height);
+        CompletableFuture<Image> pending = startDecoding(key, () -> decode(file, key, width, height));
+        // Устаревшая предзагрузка могла завершиться без декодирования (null) - тогда декодируем сами
+        return pending.thenCompose(image -> image != null
+                ? CompletableFuture.completedFuture(image)
+                : CompletableFuture.supplyAsync(() -> decode(file, key, width, height), decoderExecutor));
+    }
+
+    /**
+     * Заранее декодирует соседние изображения. Новый вызов отменяет еще не начатую предзагрузку
+     * предыдущих соседей, чтобы при быстром листании не декодировать то, что уже не нужно.
+     */
+    public void prefetch(List<TrackedFile> files, int width, int height) {
+        Set<String> keys = new HashSet<>();
+        for (TrackedFile file : files) {
+            keys.add(keyOf(file, width, height));
+        }
+        wantedPrefetchKeys = keys;
+        for (TrackedFile file : files) {
+            String key = keyOf(file, width, height);
+            if (getCached(file, width, height) != null || inFlight.containsKey(key)) {
+                continue;
+            }
+            startDecoding(key, () -> wantedPrefetchKeys.contains(key) ? decode(file, key, width, height) : null);
+        }
+    }
+
+    /**
+     * Возвращает уже идущее декодирование ключа или запускает новое. Future попадает в inFlight до запуска
+     * декодера, а по завершении удаляет из карты только себя: быстро завершившаяся задача не может
+     * ни остаться в карте, ни убрать чужую.
+     */
+    private CompletableFuture<Image> startDecoding(String key, Supplier<Image> decoder) {
+        CompletableFuture<Image> future = new CompletableFuture<>();
+        CompletableFuture<Image> running = inFlight.putIfAbsent(key, future);
+        if (running != null) {
+            return running;
+        }
+        future.whenComplete((image, error) -> inFlight.remove(key, future));
+        try {
+            CompletableFuture.supplyAsync(decoder, decoderExecutor).whenComplete((image, error) -> {
+                if (error != null) {
+                    future.completeExceptionally(error);
+                } else {
+                    future.complete(image);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e); // Сервис уже закрыт
+        }
+        return future;
+    }
+
+    public void clearCache() {
+        cache.clear();
+    }
+
+    @Override
+    public void close() {
+        decoderExecutor.shutdownNow();
+        cache.clear();
+    }
+
+    private Image decode(TrackedFile file, String key, int width, int height) {
+        long start = System.nanoTime();
+        boolean scaled = width > 0 && height > 0 && !fitsInto(file, width, height);
+        Image image;
+        try (InputStream in = new FileInputStream(file.getFile())) {
+            // Декодер сразу масштабирует построчно, полноразмерный буфер пикселей не создается
+            image = scaled ? new Image(in, width, height, true, true) : new Image(in);
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+        if (image.isError()) {
+            throw new CompletionException(image.getException());
+        }
+        cache.put(key, image);
+        logger.debug("Decoded {} ({}x{}) in {} ms. Cache: {} images, {} MB.", file.getAbsolutePath(),
+                (int) image.getWidth(), (int) image.getHeight(), (System.nanoTime() - start) / 1_000_000,
+                cache.size(), cache.getCurrentBytes() / (1024 * 1024));
+        return image;
+    }
+
+    /**
+     * Проверяет по заголовку (без декодирования пикселей), помещается ли изображение в область целиком.
+     * Маленькие изображения не растягиваются при декодировании - их увеличивает ImageView.
+     */
+    private static boolean fitsInto(TrackedFile file, int width, int height) {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file.getFile())) {
+            Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : Collections.emptyIterator();
+            if (!readers.hasNext()) {
+                return false; // Формат неизвестен ImageIO (например, WebP) - просто уменьшаем
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                return reader.getWidth(0) <= width && reader.getHeight(0) <= height;
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Размер области округляется вверх до {@value #SIZE_STEP} пикселей, чтобы мелкие изменения
+     * размера окна попадали в уже декодированное изображение.
+     */
+    public static int roundUpSize(double pixels) {
+        if (pixels <= 0) {
+            return FULL_RESOLUTION;
+        }
+        return (int) Math.ceil(pixels / SIZE_STEP) * SIZE_STEP;
+    }
+
+    private static String keyOf(TrackedFile file, int width, int height) {
+        return file.getAbsolutePath() + '@' + file.getModifiedDate() + '@' + width + 'x' + height;
+    }
+}
@@ -0,0 +1,236 @@
+package com.example.imagetagger.ui.image;
+
+import com.example.imagetagger.core.model.ContentKey;
+import com.example.imagetagger.core.model.TrackedFile;
+import com.example.imagetagger.core.service.ThumbnailService;
+import javafx.application.Platform;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import javafx.collections.ObservableListBase;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.input.MouseButton;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+
+import java.nio.file.Path;
+import java.util.function.IntConsumer;
+
+/**
+ * Сетка миниатюр для {@code currentImageList}. Это ListView, элементы которого - номера строк сетки:
+ * ListView сам создает ячейки только для видимых строк и переиспользует их при прокрутке,
+ * поэтому 100 тысяч файлов не порождают 100 тысяч узлов. Список номеров строк не хранит элементов.
+ * Миниатюры берутся из {@link ThumbnailService} и загружаются асинхронно; декодированные держатся
+ * в небольшом LRU-кэше, чтобы при прокрутке назад не читать их с диска снова.
+ */
+public final class ThumbnailGridView extends ListView<Integer> {
+
+    private static final int TILE_SIZE = 160;
+    private static final int TILE_GAP = 8;
+    private static final long THUMBNAIL_CACHE_BYTES = 64L * 1024 * 1024;
+    private static final String SELECTED_TILE_STYLE = "-fx-border-color: #3d8ee0; -fx-border-width: 2;";
+    private static final String TILE_STYLE = "-fx-border-color: transparent; -fx-border-width: 2;";
+
+    private final ObservableList<TrackedFile> files;
+    private final ThumbnailService thumbnailService;
+    private final ImageCache<ContentKey> thumbnailImages = new ImageCache<>(THUMBNAIL_CACHE_BYTES);
+    private int columns = 1;
+    private int selectedIndex = -1;
+    private IntConsumer onFileSelected = index -> { };
+    private IntConsumer onFileActivated = index -> { };
+
+    public ThumbnailGridView(ObservableList<TrackedFile> files, ThumbnailService thumbnailService) {
+        this.files = files;
+        this.thumbnailService = thumbnailService;
+        setFocusTraversable(false); // Выделение рисуем сами на уровне плитки, выделение строк ListView не используется
+        setFixedCellSize(TILE_SIZE + TILE_GAP * 3);
+        setStyle("-fx-background-color: #333333;");
+        setCellFactory(view -> new RowCell());
+        files.addListener((ListChangeListener<TrackedFile>) change -> updateRows(true));
+        widthProperty().addListener((obs, oldWidth, newWidth) -> updateRows(false));
+        updateRows(true);
+    }
+
+    /**
+     * Одиночный щелчок по плитке.
+     */
+    public void setOnFileSelected(IntConsumer handler) {
+        this.onFileSelected = handler != null ? handler : index -> { };
+    }
+
+    /**
+     * Двойной щелчок по плитке (открыть изображение).
+     */
+    public void setOnFileActivated(IntConsumer handler) {
+        this.onFileActivated = handler != null ? handler : index -> { };
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * Подсвечивает файл. Сетка не прокручивается: выбор обычно сделан щелчком по видимой плитке.
+     */
+    public void setSelectedIndex(int index) {
+        if (index == selectedIndex) {
+            return;
+        }
+        selectedIndex = index;
+        refresh();
+    }
+
+    private void updateRows(boolean contentChanged) {
+        double usableWidth = getWidth() - 20; // Место под вертикальную полосу прокрутки
+        int newColumns = Math.max(1, (int) (usableWidth / (TILE_SIZE + TILE_GAP)));
+        int rows = (files.size() + newColumns - 1) / newColumns;
+        if (newColumns != columns || rows != getItems().size()) {
+            columns = newColumns;
+            setItems(new RowIndexList(rows));
+        } else if (contentChanged) {
+            refresh();
+        }
+    }
+
+    private void loadThumbnail(Tile tile, TrackedFile file) {
+        ContentKey key = file.getContentKey();
+        thumbnailService.requestThumbnail(file.getFile(), key).thenAccept(thumbnail -> Platform.runLater(() -> {
+            if (thumbnail.isEmpty() || !key.equals(tile.contentKey)) {
+                return; // Миниатюры нет или плитка уже показывает другой файл
+            }
+            showThumbnail(tile, key, thumbnail.get());
+        }));
+    }
+
+    private void showThumbnail(Tile tile, ContentKey key, Path thumbnail) {
+        // Декодирование маленького JPEG идет в фоновом потоке JavaFX (backgroundLoading)
+        Image image = new Image(thumbnail.toUri().toString(), TILE_SIZE, TILE_SIZE, true, true, true);
+        image.progressProperty().addListener((obs, oldProgress, progress) -> {
+            if (progress.doubleValue() >= 1.0 && !image.isError()) {
+                thumbnailImages.put(key, image);
+            }
+        });
+        tile.imageView.setImage(image);
+    }
+
+    /**
+     * Номера строк 0..size-1 без хранения элементов.
+     */
+    private static class RowIndexList extends ObservableListBase<Integer> {
+        private final int size;
+
+        RowIndexList(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public Integer get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            return index;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * Строка сетки. Плитки создаются один раз и переиспользуются, пересоздаются только при смене числа колонок.
+     */
+    private class RowCell extends ListCell<Integer> {
+        private final HBox row = new HBox(TILE_GAP);
+
+        RowCell() {
+            row.setPadding(new Insets(TILE_GAP / 2.0, TILE_GAP, TILE_GAP / 2.0, TILE_GAP));
+            setStyle("-fx-background-color: transparent; -fx-padding: 0;"); // Перекрывает подсветку выбранной строки
+        }
+
+        @Override
+        protected void updateItem(Integer rowIndex, boolean empty) {
+            super.updateItem(rowIndex, empty);
+            if (empty || rowIndex == null) {
+                row.getChildren().forEach(node -> ((Tile) node).clear());
+                setGraphic(null);
+                return;
+            }
+            while (row.getChildren().size() < columns) {
+                row.getChildren().add(new Tile());
+            }
+            if (row.getChildren().size() > columns) {
+                row.getChildren().remove(columns, row.getChildren().size());
+            }
+            for (int column = 0; column < columns; column++) {
+                int index = rowIndex * columns + column;
+                Tile tile = (Tile) row.getChildren().get(column);
+                if (index < files.size()) {
+                    tile.show(files.get(index), index);
+                } else {
+                    tile.clear();
+                }
+            }
+            setGraphic(row);
+        }
+    }
+
+    private class Tile extends VBox {
+        private final ImageView imageView = new ImageView();
+        private final Label nameLabel = new Label();
+        private ContentKey contentKey;
+        private int index = -1;
+
+        Tile() {
+            super(2);
+            setAlignment(Pos.CENTER);
+            setPrefSize(TILE_SIZE, TILE_SIZE + TILE_GAP);
+            imageView.setFitWidth(TILE_SIZE - 4);
+            imageView.setFitHeight(TILE_SIZE - 24);
+            imageView.setPreserveRatio(true);
+            nameLabel.setMaxWidth(TILE_SIZE - 4);
+            nameLabel.setStyle("-fx-text-fill: #dddddd;");
+            getChildren().addAll(imageView, nameLabel);
+            setOnMouseClicked(event -> {
+                if (index < 0 || event.getButton() != MouseButton.PRIMARY) {
+                    return;
+                }
+                if (event.getClickCount() == 2) {
+                    onFileActivated.accept(index);
+                } else {
+                    onFileSelected.accept(index);
+                }
+            });
+        }
+
+        void show(TrackedFile file, int index) {
+            this.index = index;
+            setStyle(index == selectedIndex ? SELECTED_TILE_STYLE : TILE_STYLE);
+            setVisible(true);
+            nameLabel.setText(file.getName());
+            ContentKey key = file.getContentKey();
+            if (key != null && key.equals(contentKey) && imageView.getImage() != null) {
+                return; // То же содержимое - миниатюру не перезагружаем
+            }
+            contentKey = key;
+            Image cached = key != null ? thumbnailImages.get(key) : null;
+            imageView.setImage(cached);
+            if (cached == null) {
+                loadThumbnail(this, file);
+            }
+        }
+
+        void clear() {
+            index = -1;
+            contentKey = null;
+            imageView.setImage(null);
+            nameLabel.setText(null);
+            setVisible(false);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.imagetagger.ui.task;
+
+import com.example.imagetagger.core.model.DuplicateCluster;
+import com.example.imagetagger.core.service.DuplicateService;
+import com.example.imagetagger.core.service.TrackedFileService;
+import javafx.concurrent.Task;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Фоновый поиск дубликатов по хэшам содержимого в БД (файлы на диске не читаются).
+ * Сначала дожидается полных хэшей, которые еще досчитываются после сканирования.
+ */
+public class FindDuplicatesTask extends Task<List<DuplicateCluster>> {
+
+    private static final Logger logger = LoggerFactory.getLogger(FindDuplicatesTask.class);
+
+    private final DuplicateService duplicateService;
+    private final TrackedFileService trackedFileService;
+
+    public FindDuplicatesTask(DuplicateService duplicateService, TrackedFileService trackedFileService) {
+        this.duplicateService = duplicateService;
+        this.trackedFileService = trackedFileService;
+    }
+
+    @Override
+    protected List<DuplicateCluster> call() throws Exception {
+        logger.info("FindDuplicatesTask started.");
+        updateMessage("Waiting for content hashes...");
+        trackedFileService.awaitPendingHashes();
+        updateMessage("Searching for duplicates...");
+        List<DuplicateCluster> clusters = duplicateService.findDuplicates();
+        updateMessage("Found " + clusters.size() + " groups of duplicates");
+        return clusters;
+    }
+}
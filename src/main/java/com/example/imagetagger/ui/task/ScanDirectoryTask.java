@@ -16,11 +16,17 @@ public class ScanDirectoryTask extends Task<List<TrackedFile>> {
 
     private final FileScannerService fileScannerService;
     private final File directory;
+    private final boolean fullRescan;
     // private final Set<Tag> activeTagFilters; // Если нужно передавать фильтры в сам таск
 
     public ScanDirectoryTask(FileScannerService fileScannerService, File directory /*, Set<Tag> activeTagFilters */) {
+        this(fileScannerService, directory, false);
+    }
+
+    public ScanDirectoryTask(FileScannerService fileScannerService, File directory, boolean fullRescan) {
         this.fileScannerService = fileScannerService;
         this.directory = directory;
+        this.fullRescan = fullRescan;
         // this.activeTagFilters = activeTagFilters;
     }
 
@@ -30,7 +36,10 @@ public class ScanDirectoryTask extends Task<List<TrackedFile>> {
         updateMessage("Scanning directory: " + directory.getName() + "..."); // Обновляем сообщение для UI
 
         // Здесь происходит основная работа
-        List<TrackedFile> allFilesInDirectory = fileScannerService.scanDirectoryForImages(directory);
+        int[] failedFiles = {0};
+        boolean rescanAll = fullRescan || !fileScannerService.getOptions().isIncremental();
+        List<TrackedFile> allFilesInDirectory =
+                fileScannerService.scanDirectoryForImages(directory, rescanAll, failed -> failedFiles[0] += failed);
         
         // Фильтрация может происходить здесь или после получения результата в MainViewController
         // Если фильтровать здесь:
@@ -52,8 +61,13 @@ public class ScanDirectoryTask extends Task<List<TrackedFile>> {
             return filteredList;
         }
         */
-        updateMessage("Found " + allFilesInDirectory.size() + " images in " + directory.getName());
-        logger.info("ScanDirectoryTask finished. Found {} images.", allFilesInDirectory.size());
+        if (failedFiles[0] > 0) {
+            updateMessage("Found " + allFilesInDirectory.size() + " images in " + directory.getName()
+                    + ", " + failedFiles[0] + " could not be saved");
+        } else {
+            updateMessage("Found " + allFilesInDirectory.size() + " images in " + directory.getName());
+        }
+        logger.info("ScanDirectoryTask finished. Found {} images, {} failed to save.", allFilesInDirectory.size(), failedFiles[0]);
         return allFilesInDirectory; // Пока возвращаем все, фильтрация в MainViewController
     }
 }
\ No newline at end of file
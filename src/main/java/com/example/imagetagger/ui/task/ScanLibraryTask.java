@@ -0,0 +1,40 @@
+package com.example.imagetagger.ui.task;
+
+import com.example.imagetagger.core.model.TrackedFile;
+import com.example.imagetagger.core.service.LibraryService;
+import javafx.concurrent.Task;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Фоновая индексация всех папок библиотеки.
+ */
+public class ScanLibraryTask extends Task<List<TrackedFile>> {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScanLibraryTask.class);
+
+    private final LibraryService libraryService;
+    private final boolean fullRescan;
+
+    public ScanLibraryTask(LibraryService libraryService, boolean fullRescan) {
+        this.libraryService = libraryService;
+        this.fullRescan = fullRescan;
+    }
+
+    @Override
+    protected List<TrackedFile> call() throws Exception {
+        logger.info("ScanLibraryTask started (fullRescan={}).", fullRescan);
+        updateMessage("Indexing library...");
+        int[] failedFiles = {0};
+        List<TrackedFile> files = libraryService.scanAll(fullRescan, failed -> failedFiles[0] += failed);
+        if (failedFiles[0] > 0) {
+            updateMessage("Library indexed: " + files.size() + " images, " + failedFiles[0] + " could not be saved");
+        } else {
+            updateMessage("Library indexed: " + files.size() + " images");
+        }
+        logger.info("ScanLibraryTask finished. Indexed {} images, {} failed to save.", files.size(), failedFiles[0]);
+        return files;
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.imagetagger.ui.task;
+
+import com.example.imagetagger.core.model.TrackedFile;
+import com.example.imagetagger.core.query.TagQuery;
+import com.example.imagetagger.core.service.TrackedFileService;
+import javafx.concurrent.Task;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Отбирает файлы папки по тегам запросом к БД, без повторного сканирования папки.
+ */
+public class TagFilterTask extends Task<List<TrackedFile>> {
+
+    private static final Logger logger = LoggerFactory.getLogger(TagFilterTask.class);
+
+    private final TrackedFileService trackedFileService;
+    private final TagQuery query;
+    private final File directory;
+
+    public TagFilterTask(TrackedFileService trackedFileService, TagQuery query, File directory) {
+        this.trackedFileService = trackedFileService;
+        this.query = query;
+        this.directory = directory;
+    }
+
+    @Override
+    protected List<TrackedFile> call() throws Exception {
+        updateMessage("Filtering images by tags...");
+        List<TrackedFile> matches = trackedFileService.findFilesByQuery(query, directory);
+        // В БД остаются записи перемещенных и удаленных файлов (ради тегов) - показываем только существующие
+        List<TrackedFile> existing = matches.stream()
+                .filter(file -> file.getFile().isFile())
+                .sorted((f1, f2) -> f1.getName().compareToIgnoreCase(f2.getName())) // Сортировка по имени
+                .collect(Collectors.toList());
+        logger.info("TagFilterTask finished. {} of {} matching files exist on disk.", existing.size(), matches.size());
+        updateMessage("Found " + existing.size() + " images matching filter.");
+        return existing;
+    }
+}
@@ -1,60 +1,126 @@
 package com.example.imagetagger.util;
 
+import com.example.imagetagger.core.model.ContentHash;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.security.DigestInputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.Optional;
 
 public class FileHasher {
 
     private static final Logger logger = LoggerFactory.getLogger(FileHasher.class);
-    private static final String HASH_ALGORITHM = "SHA-256";
 
-    public static Optional<String> calculateSHA256(File file) {
+    // Сколько байт читается с начала и с конца файла для отпечатка
+    public static final int FINGERPRINT_SAMPLE_SIZE = 64 * 1024;
+
+    // Движок по умолчанию (алгоритм из системного свойства); можно заменить через setEngine
+    private static volatile HashEngine engine = new HashEngine(HashAlgorithm.fromSystemProperties());
+    // Движки для всех алгоритмов с настройками текущего; пересоздаются в setEngine
+    private static volatile Map<HashAlgorithm, HashEngine> engines = enginesLike(engine);
+
+    public static HashEngine getEngine() {
+        return engine;
+    }
+
+    public static void setEngine(HashEngine newEngine) {
+        if (newEngine == null) {
+            throw new IllegalArgumentException("Hash engine must not be null");
+        }
+        engines = enginesLike(newEngine);
+        engine = newEngine;
+        logger.info("File hashing engine set: algorithm={}, bufferSize={}, directBuffers={}, mmapThreshold={}",
+                newEngine.getAlgorithm(), newEngine.getBufferSize(), newEngine.isDirectBuffers(), newEngine.getMmapThreshold());
+    }
+
+    /**
+     * Сам движок для его алгоритма и по движку с теми же настройками для остальных (нужны, чтобы сравнить файл
+     * с записью, посчитанной другим алгоритмом). Буферы движков выделяются только при первом чтении.
+     */
+    private static Map<HashAlgorithm, HashEngine> enginesLike(HashEngine current) {
+        Map<HashAlgorithm, HashEngine> result = new EnumMap<>(HashAlgorithm.class);
+        for (HashAlgorithm algorithm : HashAlgorithm.values()) {
+            result.put(algorithm, algorithm == current.getAlgorithm() ? current
+                    : new HashEngine(algorithm, current.getBufferSize(), current.isDirectBuffers(), current.getMmapThreshold()));
+        }
+        return result;
+    }
+
+    private static HashEngine engineFor(HashAlgorithm algorithm) {
+        return engines.get(algorithm);
+    }
+
+    /**
+     * Считает хэш файла текущим движком (алгоритм задается через {@link #setEngine(HashEngine)}).
+     *
+     * @param file Файл на диске.
+     * @return Optional с хэшем, или Optional.empty() если файл не удалось прочитать.
+     */
+    public static Optional<ContentHash> calculateHash(File file) {
+        return calculateHash(file, engine.getAlgorithm());
+    }
+
+    /**
+     * Считает хэш файла заданным алгоритмом.
+     */
+    public static Optional<ContentHash> calculateHash(File file, HashAlgorithm algorithm) {
         if (file == null || !file.exists() || !file.isFile()) {
             logger.warn("Cannot calculate hash for non-existent or non-file: {}", file);
             return Optional.empty();
         }
 
         try {
-            MessageDigest md = MessageDigest.getInstance(HASH_ALGORITHM);
-            try (InputStream is = new FileInputStream(file);
-                 DigestInputStream dis = new DigestInputStream(is, md)) {
-                // Читаем файл, чтобы DigestInputStream мог вычислить хэш
-                //noinspection StatementWithEmptyBody
-                while (dis.read() != -1) ; // Пустое тело цикла, просто читаем
-                // Для больших файлов лучше читать буфером:
-                // byte[] buffer = new byte[8192];
-                // while (dis.read(buffer) != -1) ;
-            }
-            byte[] digest = md.digest();
-            return Optional.of(bytesToHex(digest));
-        } catch (NoSuchAlgorithmException e) {
-            logger.error("Hash algorithm {} not found.", HASH_ALGORITHM, e);
-            // Это не должно произойти для SHA-256
-            return Optional.empty();
+            byte[] digest = engineFor(algorithm).hash(file.toPath());
+            return Optional.of(ContentHash.of(digest));
         } catch (IOException e) {
             logger.error("Error reading file to calculate hash: {}", file.getAbsolutePath(), e);
             return Optional.empty();
         }
     }
 
-    private static String bytesToHex(byte[] hash) {
-        StringBuilder hexString = new StringBuilder(2 * hash.length);
-        for (byte b : hash) {
-            String hex = Integer.toHexString(0xff & b);
-            if (hex.length() == 1) {
-                hexString.append('0');
-            }
-            hexString.append(hex);
+    /**
+     * Дешевый отпечаток файла и формат по заголовку.
+     *
+     * @param algorithm Алгоритм, которым посчитаны отпечаток и хэш.
+     * @param fingerprint Хэш размера, первых и последних {@value #FINGERPRINT_SAMPLE_SIZE} байт файла.
+     * @param contentHash Полный хэш содержимого, если файл короткий и был прочитан целиком, иначе null.
+     * @param detectedFormat Формат по заголовку, или null, если заголовок не похож на изображение.
+     */
+    public record Fingerprint(HashAlgorithm algorithm, ContentHash fingerprint, ContentHash contentHash,
+                              ImageFormat detectedFormat) {
+    }
+
+    /**
+     * Считает отпечаток файла: читается только начало и конец, поэтому это намного быстрее полного хэша
+     * для файлов больше нескольких сотен килобайт. Разные отпечатки гарантируют разное содержимое,
+     * а одинаковые нужно подтверждать полным хэшем ({@link #calculateHash(File)}).
+     *
+     * @return Optional с результатом, или Optional.empty() если файл не удалось прочитать.
+     */
+    public static Optional<Fingerprint> calculateFingerprint(File file) {
+        return calculateFingerprint(file, engine.getAlgorithm());
+    }
+
+    /**
+     * Считает отпечаток файла заданным алгоритмом.
+     */
+    public static Optional<Fingerprint> calculateFingerprint(File file, HashAlgorithm algorithm) {
+        if (file == null || !file.exists() || !file.isFile()) {
+            logger.warn("Cannot calculate fingerprint for non-existent or non-file: {}", file);
+            return Optional.empty();
+        }
+
+        try {
+            HashEngine.HashResult result = engineFor(algorithm).hashSample(file.toPath(), FINGERPRINT_SAMPLE_SIZE, ImageFormat.HEADER_LENGTH);
+            ImageFormat format = ImageFormat.detect(result.header(), result.headerLength()).orElse(null);
+            ContentHash fingerprint = ContentHash.of(result.digest());
+            return Optional.of(new Fingerprint(algorithm, fingerprint, result.wholeFile() ? fingerprint : null, format));
+        } catch (IOException e) {
+            logger.error("Error reading file to calculate fingerprint: {}", file.getAbsolutePath(), e);
+            return Optional.empty();
         }
-        return hexString.toString();
     }
-}
\ No newline at end of file
+}
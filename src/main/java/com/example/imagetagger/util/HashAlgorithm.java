@@ -0,0 +1,91 @@
+package com.example.imagetagger.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Алгоритмы, которыми {@link HashEngine} умеет считать хэш содержимого файла.
+ * Для каждого файла в БД хранится {@link #getId()} алгоритма, которым посчитаны его хэши,
+ * поэтому смена алгоритма не ломает уже проиндексированные файлы. ID уже выпущенных алгоритмов не меняются.
+ */
+public enum HashAlgorithm {
+    SHA_256(1, "SHA-256"),
+    SHA_1(2, "SHA-1"),
+    MD5(3, "MD5"),
+    /**
+     * Некриптографический 128-битный хэш на чистой Java; упирается в скорость памяти, а не процессора.
+     */
+    MURMUR3_128(4, Murmur3Digest.NAME) {
+        @Override
+        public MessageDigest newDigest() {
+            return new Murmur3Digest();
+        }
+    };
+
+    public static final String ALGORITHM_PROPERTY = "imagetagger.hash.algorithm";
+    public static final HashAlgorithm DEFAULT = MURMUR3_128;
+    private static final Logger logger = LoggerFactory.getLogger(HashAlgorithm.class);
+
+    private final int id;
+    private final String jcaName;
+
+    HashAlgorithm(int id, String jcaName) {
+        this.id = id;
+        this.jcaName = jcaName;
+    }
+
+    /**
+     * Постоянный номер алгоритма для колонки tracked_files.hash_algorithm.
+     */
+    public int getId() {
+        return id;
+    }
+
+    public String getJcaName() {
+        return jcaName;
+    }
+
+    public MessageDigest newDigest() throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance(jcaName);
+    }
+
+    /**
+     * Ищет алгоритм по имени константы или JCA-имени (например, "SHA_256" или "SHA-256").
+     */
+    public static HashAlgorithm fromName(String name) {
+        for (HashAlgorithm algorithm : values()) {
+            if (algorithm.name().equalsIgnoreCase(name) || algorithm.jcaName.equalsIgnoreCase(name)) {
+                return algorithm;
+            }
+        }
+        throw new IllegalArgumentException("Unknown hash algorithm: " + name);
+    }
+
+    public static HashAlgorithm fromId(int id) {
+        for (HashAlgorithm algorithm : values()) {
+            if (algorithm.id == id) {
+                return algorithm;
+            }
+        }
+        throw new IllegalArgumentException("Unknown hash algorithm id: " + id);
+    }
+
+    /**
+     * Алгоритм из системного свойства {@value #ALGORITHM_PROPERTY}; без свойства или при неизвестном имени - {@link #DEFAULT}.
+     */
+    public static HashAlgorithm fromSystemProperties() {
+        String name = System.getProperty(ALGORITHM_PROPERTY);
+        if (name == null || name.isBlank()) {
+            return DEFAULT;
+        }
+        try {
+            return fromName(name.trim());
+        } catch (IllegalArgumentException e) {
+            logger.warn("Unknown hash algorithm '{}' in {}, using {}.", name.trim(), ALGORITHM_PROPERTY, DEFAULT);
+            return DEFAULT;
+        }
+    }
+}
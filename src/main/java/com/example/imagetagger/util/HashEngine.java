@@ -0,0 +1,251 @@
+package com.example.imagetagger.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Потоковый расчет хэша файла через {@link FileChannel}.
+ * Файл читается крупными блоками в переиспользуемые буферы (по желанию - direct),
+ * поэтому хэширование упирается в скорость диска, а не в вызовы read() на каждый байт.
+ * Файлы от {@link #getMmapThreshold()} байт целиком хэшируются через отображение в память
+ * (FileChannel.map окнами по {@value #MMAP_WINDOW_SIZE} байт): страницы файла идут в дайджест
+ * прямо из page cache, без копирования в буфер и системного вызова на каждый блок.
+ * Если отобразить файл не удалось или он укоротился во время чтения отображения, он читается обычным способом.
+ * Окна не освобождаются явно (в Java 21 у FileChannel.map нет Arena) и остаются отображенными до сборки мусора.
+ * Это адресное пространство, а не память кучи: страницы принадлежат page cache, и ОС вытесняет их как обычно.
+ * В худшем случае отображен суммарный размер больших файлов, захэшированных с последней сборки мусора.
+ * Экземпляр потокобезопасен: буферы берутся из общего пула и возвращаются после чтения.
+ */
+public class HashEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(HashEngine.class);
+
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024; // 1 MiB на одно чтение
+    public static final long DEFAULT_MMAP_THRESHOLD = 256L * 1024 * 1024;
+    public static final long MMAP_DISABLED = Long.MAX_VALUE;
+    static final int MMAP_WINDOW_SIZE = 16 * 1024 * 1024; // Окно отображения; старые окна освобождает GC
+    private static final int MIN_BUFFER_SIZE = 4096;
+
+    private final HashAlgorithm algorithm;
+    private final int bufferSize;
+    private final boolean directBuffers;
+    private final long mmapThreshold;
+    private final BlockingQueue<ByteBuffer> bufferPool;
+
+    public HashEngine(HashAlgorithm algorithm) {
+        this(algorithm, DEFAULT_BUFFER_SIZE, true);
+    }
+
+    public HashEngine(HashAlgorithm algorithm, int bufferSize, boolean directBuffers) {
+        this(algorithm, bufferSize, directBuffers, DEFAULT_MMAP_THRESHOLD);
+    }
+
+    /**
+     * @param mmapThreshold Размер файла, начиная с которого он хэшируется через отображение в память;
+     *                      {@link #MMAP_DISABLED} - всегда читать в буферы.
+     */
+    public HashEngine(HashAlgorithm algorithm, int bufferSize, boolean directBuffers, long mmapThreshold) {
+        if (algorithm == null) {
+            throw new IllegalArgumentException("Hash algorithm must not be null");
+        }
+        if (mmapThreshold <= 0) {
+            throw new IllegalArgumentException("mmapThreshold must be positive: " + mmapThreshold);
+        }
+        this.algorithm = algorithm;
+        this.bufferSize = Math.max(bufferSize, MIN_BUFFER_SIZE);
+        this.directBuffers = directBuffers;
+        this.mmapThreshold = mmapThreshold;
+        // Больше буферов, чем потоков хэширования, держать смысла нет
+        this.bufferPool = new ArrayBlockingQueue<>(Math.max(2, Runtime.getRuntime().availableProcessors() * 2));
+    }
+
+    public HashAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public boolean isDirectBuffers() {
+        return directBuffers;
+    }
+
+    public long getMmapThreshold() {
+        return mmapThreshold;
+    }
+
+    /**
+     * Результат хэширования вместе с первыми байтами файла.
+     *
+     * @param digest Дайджест в сыром (бинарном) виде.
+     * @param header Первые байты файла; действительны только первые headerLength байт.
+     * @param headerLength Сколько байт заголовка удалось прочитать (меньше запрошенного, если файл короче).
+     * @param wholeFile true - дайджест посчитан по всему содержимому, false - только по выборке (см. {@link #hashSample}).
+     */
+    public record HashResult(byte[] digest, byte[] header, int headerLength, boolean wholeFile) {
+    }
+
+    /**
+     * Считает хэш всего содержимого файла.
+     *
+     * @param path Путь к файлу.
+     * @return Дайджест в сыром (бинарном) виде.
+     * @throws IOException если файл не удалось прочитать.
+     */
+    public byte[] hash(Path path) throws IOException {
+        return hash(path, 0).digest();
+    }
+
+    /**
+     * Считает хэш и заодно сохраняет первые headerLength байт файла, например, для распознавания формата.
+     * Заголовок копируется из тех же буферов, что идут в дайджест, - файл читается один раз.
+     */
+    public HashResult hash(Path path, int headerLength) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return hashWhole(channel, headerLength);
+        }
+    }
+
+    /**
+     * Считает хэш выборки: размер файла, первые и последние sampleLength байт. Середина файла не читается,
+     * поэтому время не зависит от размера файла. Файл не длиннее двух выборок хэшируется целиком,
+     * и результат совпадает с {@link #hash(Path, int)}.
+     */
+    public HashResult hashSample(Path path, int sampleLength, int headerLength) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size <= 2L * sampleLength) {
+                return hashWhole(channel, headerLength);
+            }
+            MessageDigest digest = newDigest();
+            digest.update(ByteBuffer.allocate(Long.BYTES).putLong(0, size)); // Размер входит в выборку
+            byte[] header = new byte[headerLength];
+            ByteBuffer buffer = acquireBuffer();
+            try {
+                int headerRead = updateRange(channel, 0, sampleLength, digest, buffer, header);
+                updateRange(channel, size - sampleLength, sampleLength, digest, buffer, null);
+                return new HashResult(digest.digest(), header, headerRead, false);
+            } finally {
+                releaseBuffer(buffer);
+            }
+        }
+    }
+
+    private HashResult hashWhole(FileChannel channel, int headerLength) throws IOException {
+        long size = channel.size();
+        if (size >= mmapThreshold) {
+            try {
+                return hashMapped(channel, size, headerLength);
+            } catch (IOException | InternalError e) {
+                // Например, файловая система не поддерживает mmap или не хватило адресного пространства.
+                // InternalError (SIGBUS) - файл укоротился, пока был отображен: читаем то, что в нем осталось
+                logger.debug("Memory-mapped hashing failed ({}), falling back to buffered reads.", e.toString());
+                channel.position(0);
+            }
+        }
+        MessageDigest digest = newDigest();
+        byte[] header = new byte[headerLength];
+        int headerRead = 0;
+        ByteBuffer buffer = acquireBuffer();
+        try {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                if (headerRead < headerLength) {
+                    int count = Math.min(headerLength - headerRead, buffer.remaining());
+                    buffer.get(buffer.position(), header, headerRead, count); // Абсолютное чтение, позиция не меняется
+                    headerRead += count;
+                }
+                digest.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            releaseBuffer(buffer);
+        }
+        return new HashResult(digest.digest(), header, headerRead, true);
+    }
+
+    /**
+     * Хэширует файл окнами, отображенными в память. Direct-буфер окна передается в дайджест целиком;
+     * алгоритмы, читающие его напрямую (см. {@link Murmur3Digest}), не копируют ни байта.
+     */
+    private HashResult hashMapped(FileChannel channel, long size, int headerLength) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] header = new byte[headerLength];
+        int headerRead = 0;
+        for (long position = 0; position < size; position += MMAP_WINDOW_SIZE) {
+            long windowSize = Math.min(MMAP_WINDOW_SIZE, size - position);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+            if (headerRead < headerLength) {
+                int count = (int) Math.min(headerLength - headerRead, windowSize);
+                window.get(0, header, headerRead, count);
+                headerRead += count;
+            }
+            digest.update(window);
+        }
+        return new HashResult(digest.digest(), header, headerRead, true);
+    }
+
+    /**
+     * Добавляет в дайджест length байт файла, начиная с position (позиционное чтение, позиция канала не меняется).
+     *
+     * @param header Куда скопировать первые байты диапазона, или null.
+     * @return Сколько байт скопировано в header.
+     */
+    private int updateRange(FileChannel channel, long position, long length, MessageDigest digest,
+                            ByteBuffer buffer, byte[] header) throws IOException {
+        int headerRead = 0;
+        long end = position + length;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break; // Файл укоротился во время чтения
+            }
+            position += read;
+            buffer.flip();
+            if (header != null && headerRead < header.length) {
+                int count = Math.min(header.length - headerRead, buffer.remaining());
+                buffer.get(buffer.position(), header, headerRead, count);
+                headerRead += count;
+            }
+            digest.update(buffer);
+        }
+        return headerRead;
+    }
+
+    private MessageDigest newDigest() {
+        try {
+            return algorithm.newDigest();
+        } catch (NoSuchAlgorithmException e) {
+            // Все алгоритмы из HashAlgorithm обязаны присутствовать в любой JRE
+            throw new IllegalStateException("Hash algorithm " + algorithm.getJcaName() + " is not available", e);
+        }
+    }
+
+    private ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = bufferPool.poll();
+        if (buffer == null) {
+            buffer = directBuffers ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    private void releaseBuffer(ByteBuffer buffer) {
+        // Если пул уже полон, лишний буфер просто уйдет сборщику мусора
+        bufferPool.offer(buffer);
+    }
+}
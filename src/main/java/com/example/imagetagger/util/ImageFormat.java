@@ -0,0 +1,110 @@
+package com.example.imagetagger.util;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Форматы изображений, которые умеет индексировать сканер.
+ * Формат определяется по расширению (поиск в HashMap, без перебора) и, при необходимости,
+ * подтверждается по первым байтам файла ("магическим числам").
+ */
+public enum ImageFormat {
+    PNG("image/png", "png"),
+    JPEG("image/jpeg", "jpg", "jpeg", "jpe", "jfif"),
+    WEBP("image/webp", "webp"),
+    GIF("image/gif", "gif"),
+    TIFF("image/tiff", "tif", "tiff"),
+    BMP("image/bmp", "bmp", "dib");
+
+    /**
+     * Сколько первых байт файла нужно для распознавания любого из форматов (WebP - самый длинный заголовок).
+     */
+    public static final int HEADER_LENGTH = 12;
+
+    private static final Map<String, ImageFormat> BY_EXTENSION = new HashMap<>();
+
+    static {
+        for (ImageFormat format : values()) {
+            for (String extension : format.extensions) {
+                BY_EXTENSION.put(extension, format);
+            }
+        }
+    }
+
+    private final String mimeType;
+    private final String[] extensions;
+
+    ImageFormat(String mimeType, String... extensions) {
+        this.mimeType = mimeType;
+        this.extensions = extensions;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public String[] getExtensions() {
+        return extensions.clone();
+    }
+
+    /**
+     * Формат по расширению имени файла (без учета регистра).
+     */
+    public static Optional<ImageFormat> fromPath(Path path) {
+        Path fileName = path.getFileName();
+        return fileName != null ? fromFileName(fileName.toString()) : Optional.empty();
+    }
+
+    public static Optional<ImageFormat> fromFileName(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        if (dot < 0 || dot == fileName.length() - 1) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(BY_EXTENSION.get(fileName.substring(dot + 1).toLowerCase(Locale.ROOT)));
+    }
+
+    /**
+     * Распознает формат по первым байтам файла.
+     *
+     * @param header Начало файла.
+     * @param length Сколько байт в header действительно прочитано (файл может быть короче {@link #HEADER_LENGTH}).
+     * @return Формат или Optional.empty(), если заголовок не похож ни на один из известных форматов.
+     */
+    public static Optional<ImageFormat> detect(byte[] header, int length) {
+        for (ImageFormat format : values()) {
+            if (format.matchesHeader(header, length)) {
+                return Optional.of(format);
+            }
+        }
+        return Optional.empty();
+    }
+
+    public boolean matchesHeader(byte[] header, int length) {
+        return switch (this) {
+            case PNG -> startsWith(header, length, 0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A);
+            case JPEG -> startsWith(header, length, 0, 0xFF, 0xD8, 0xFF);
+            case WEBP -> startsWith(header, length, 0, 'R', 'I', 'F', 'F')
+                         && startsWith(header, length, 8, 'W', 'E', 'B', 'P');
+            case GIF -> startsWith(header, length, 0, 'G', 'I', 'F', '8')
+                        && (startsWith(header, length, 4, '7', 'a') || startsWith(header, length, 4, '9', 'a'));
+            case TIFF -> startsWith(header, length, 0, 'I', 'I', 0x2A, 0x00)
+                         || startsWith(header, length, 0, 'M', 'M', 0x00, 0x2A);
+            case BMP -> startsWith(header, length, 0, 'B', 'M');
+        };
+    }
+
+    private static boolean startsWith(byte[] header, int length, int offset, int... expected) {
+        if (length < offset + expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if ((header[offset + i] & 0xFF) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
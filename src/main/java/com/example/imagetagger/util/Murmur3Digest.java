@@ -0,0 +1,161 @@
+package com.example.imagetagger.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+
+/**
+ * MurmurHash3 x64 128 (seed 0) в виде {@link MessageDigest}, чтобы {@link HashEngine} работал с ним так же,
+ * как с алгоритмами JCA. Некриптографический: защищает от случайных совпадений, но не от подобранных,
+ * чего для распознавания файлов в локальной библиотеке достаточно. Блоки по 16 байт читаются прямо
+ * из буфера (в том числе direct) двумя long без копирования в массив.
+ * Результат совпадает с Hashing.murmur3_128() из Guava: h1, затем h2, оба little-endian.
+ */
+final class Murmur3Digest extends MessageDigest {
+
+    static final String NAME = "MurmurHash3-x64-128";
+    private static final int BLOCK_SIZE = 16;
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private final long seed;
+    private long h1;
+    private long h2;
+    private long length;
+    // Байты, не набравшие целого блока между вызовами update
+    private final ByteBuffer pending = ByteBuffer.allocate(BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    Murmur3Digest() {
+        this(0);
+    }
+
+    /**
+     * Хэш с другим начальным значением; файлы всегда хэшируются с seed 0, остальные нужны для проверки
+     * по эталонам SMHasher.
+     */
+    Murmur3Digest(int seed) {
+        super(NAME);
+        this.seed = seed & 0xffffffffL; // В эталонной реализации seed - uint32_t
+        this.h1 = this.seed;
+        this.h2 = this.seed;
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return BLOCK_SIZE;
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+        pending.put(input);
+        length++;
+        if (!pending.hasRemaining()) {
+            processPending();
+        }
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int len) {
+        engineUpdate(ByteBuffer.wrap(input, offset, len));
+    }
+
+    @Override
+    protected void engineUpdate(ByteBuffer input) {
+        length += input.remaining();
+        if (pending.position() > 0) {
+            while (pending.hasRemaining() && input.hasRemaining()) {
+                pending.put(input.get());
+            }
+            if (pending.hasRemaining()) {
+                return;
+            }
+            processPending();
+        }
+        // Порядок байт меняем у копии, чтобы не трогать буфер вызывающего
+        ByteBuffer blocks = input.slice().order(ByteOrder.LITTLE_ENDIAN);
+        int end = blocks.remaining() - blocks.remaining() % BLOCK_SIZE;
+        for (int position = 0; position < end; position += BLOCK_SIZE) {
+            mixBlock(blocks.getLong(position), blocks.getLong(position + 8));
+        }
+        input.position(input.position() + end);
+        pending.put(input); // Остаток (меньше блока)
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        int tailLength = pending.position();
+        long k1 = 0;
+        long k2 = 0;
+        for (int i = tailLength - 1; i >= 8; i--) {
+            k2 = (k2 << 8) | (pending.get(i) & 0xffL);
+        }
+        for (int i = Math.min(tailLength, 8) - 1; i >= 0; i--) {
+            k1 = (k1 << 8) | (pending.get(i) & 0xffL);
+        }
+        if (tailLength > 8) {
+            h2 ^= mixK2(k2);
+        }
+        if (tailLength > 0) {
+            h1 ^= mixK1(k1);
+        }
+
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        h1 += h2;
+        h2 += h1;
+
+        byte[] digest = ByteBuffer.allocate(BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN).putLong(h1).putLong(h2).array();
+        engineReset();
+        return digest;
+    }
+
+    @Override
+    protected void engineReset() {
+        h1 = seed;
+        h2 = seed;
+        length = 0;
+        pending.clear();
+    }
+
+    private void processPending() {
+        mixBlock(pending.getLong(0), pending.getLong(8));
+        pending.clear();
+    }
+
+    private void mixBlock(long k1, long k2) {
+        h1 ^= mixK1(k1);
+        h1 = Long.rotateLeft(h1, 27);
+        h1 += h2;
+        h1 = h1 * 5 + 0x52dce729;
+
+        h2 ^= mixK2(k2);
+        h2 = Long.rotateLeft(h2, 31);
+        h2 += h1;
+        h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        return k1 * C2;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        return k2 * C1;
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.imagetagger.core.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileIdBitmapTest {
+
+    private static final int CONTAINER = 1 << 16;
+
+    /**
+     * Случайные ID в нескольких контейнерах: в одних - разреженный массив, в других - плотная битовая карта.
+     */
+    private static TreeSet<Integer> randomIds(Random random, int... countsPerContainer) {
+        TreeSet<Integer> ids = new TreeSet<>();
+        for (int key = 0; key < countsPerContainer.length; key++) {
+            int base = key == countsPerContainer.length - 1 ? Integer.MAX_VALUE - CONTAINER + 1 : key * CONTAINER;
+            int added = 0;
+            while (added < countsPerContainer[key]) {
+                if (ids.add(base + random.nextInt(CONTAINER))) {
+                    added++;
+                }
+            }
+        }
+        return ids;
+    }
+
+    private static FileIdBitmap bitmapOf(TreeSet<Integer> ids) {
+        FileIdBitmap bitmap = new FileIdBitmap();
+        for (int id : ids) {
+            bitmap.add(id);
+        }
+        return bitmap;
+    }
+
+    private static void assertSameIds(TreeSet<Integer> expected, FileIdBitmap actual) {
+        assertEquals(expected.size(), actual.getCardinality());
+        assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(), actual.toArray());
+        assertEquals(expected.isEmpty(), actual.isEmpty());
+    }
+
+    @Test
+    void addRemoveAndContainsAcrossContainerBoundaries() {
+        FileIdBitmap bitmap = new FileIdBitmap();
+        int[] ids = {1, CONTAINER - 1, CONTAINER, CONTAINER + 1, 5 * CONTAINER, Integer.MAX_VALUE};
+        for (int id : ids) {
+            assertTrue(bitmap.add(id));
+            assertFalse(bitmap.add(id));
+        }
+        assertArrayEquals(ids, bitmap.toArray());
+        assertTrue(bitmap.contains((long) Integer.MAX_VALUE));
+        assertFalse(bitmap.contains(2L * CONTAINER));
+        assertFalse(bitmap.contains(0L));
+        assertFalse(bitmap.contains((long) Integer.MAX_VALUE + 1));
+
+        assertTrue(bitmap.remove(CONTAINER));
+        assertFalse(bitmap.remove(CONTAINER));
+        assertFalse(bitmap.remove(3 * CONTAINER));
+        assertTrue(bitmap.remove(5 * CONTAINER)); // Контейнер опустел и удаляется
+        assertArrayEquals(new int[]{1, CONTAINER - 1, CONTAINER + 1, Integer.MAX_VALUE}, bitmap.toArray());
+    }
+
+    @Test
+    void containerSwitchesBetweenArrayAndBitmap() {
+        Random random = new Random(17);
+        TreeSet<Integer> expected = randomIds(random, FileIdBitmap.ARRAY_LIMIT + 100);
+        FileIdBitmap bitmap = bitmapOf(expected);
+        assertSameIds(expected, bitmap);
+
+        // Удаляем до границы и ниже: битовая карта должна вернуться к массиву без потери значений
+        while (expected.size() > FileIdBitmap.ARRAY_LIMIT - 100) {
+            int id = expected.pollFirst();
+            assertTrue(bitmap.remove(id));
+            assertFalse(bitmap.contains(id));
+        }
+        assertSameIds(expected, bitmap);
+        for (int id : expected) {
+            assertTrue(bitmap.contains(id));
+        }
+    }
+
+    @Test
+    void setOperationsMatchReferenceSets() {
+        Random random = new Random(42);
+        int dense = FileIdBitmap.ARRAY_LIMIT * 3;
+        int[][] shapes = {
+                {10, 0, 3000, 50},
+                {dense, 2000, 0, 1},
+                {5000, dense, FileIdBitmap.ARRAY_LIMIT, 0},
+                {0, 1500, dense, 40_000},
+        };
+        for (int[] left : shapes) {
+            for (int[] right : shapes) {
+                TreeSet<Integer> a = randomIds(random, left);
+                TreeSet<Integer> b = randomIds(random, right);
+                FileIdBitmap bitmapA = bitmapOf(a);
+                FileIdBitmap bitmapB = bitmapOf(b);
+
+                TreeSet<Integer> and = new TreeSet<>(a);
+                and.retainAll(b);
+                TreeSet<Integer> or = new TreeSet<>(a);
+                or.addAll(b);
+                TreeSet<Integer> andNot = new TreeSet<>(a);
+                andNot.removeAll(b);
+
+                assertSameIds(and, bitmapA.and(bitmapB));
+                assertSameIds(or, bitmapA.or(bitmapB));
+                assertSameIds(or, FileIdBitmap.union(List.of(bitmapA, bitmapB)));
+                assertSameIds(andNot, bitmapA.andNot(bitmapB));
+                // Операции не меняют аргументы
+                assertSameIds(a, bitmapA);
+                assertSameIds(b, bitmapB);
+            }
+        }
+    }
+
+    @Test
+    void unionOfManyBitmapsOverflowsIntoBitmapContainer() {
+        Random random = new Random(7);
+        TreeSet<Integer> expected = new TreeSet<>();
+        List<FileIdBitmap> bitmaps = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            TreeSet<Integer> ids = randomIds(random, 1000, 10, 0, 5);
+            expected.addAll(ids);
+            bitmaps.add(bitmapOf(ids));
+        }
+        bitmaps.add(new FileIdBitmap());
+        assertSameIds(expected, FileIdBitmap.union(bitmaps));
+        assertTrue(FileIdBitmap.union(List.of()).isEmpty());
+    }
+
+    @Test
+    void copyIsIndependent() {
+        FileIdBitmap original = FileIdBitmap.of(1, 2, CONTAINER * 3);
+        FileIdBitmap copy = original.copy();
+        copy.add(4);
+        copy.remove(1);
+        assertArrayEquals(new int[]{1, 2, CONTAINER * 3}, original.toArray());
+        assertArrayEquals(new int[]{2, 4, CONTAINER * 3}, copy.toArray());
+    }
+}
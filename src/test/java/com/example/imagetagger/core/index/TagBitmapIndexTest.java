@@ -0,0 +1,126 @@
+package com.example.imagetagger.core.index;
+
+import com.example.imagetagger.core.model.ContentHash;
+import com.example.imagetagger.core.model.Tag;
+import com.example.imagetagger.core.model.TrackedFile;
+import com.example.imagetagger.core.query.TagQuery;
+import com.example.imagetagger.persistence.DatabaseManager;
+import com.example.imagetagger.persistence.dao.FileTagLinkDAO;
+import com.example.imagetagger.persistence.dao.TagDAO;
+import com.example.imagetagger.persistence.dao.TrackedFileDAO;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Индекс в памяти и SQL-план (FileTagLinkDAO.getFilesMatching) должны находить одни и те же файлы.
+ */
+class TagBitmapIndexTest {
+
+    // "Кот" и "кот" - разные теги с одним именем без учета регистра: фильтр "кот" находит файлы с любым из них
+    private static final String[] TAG_NAMES = {"cat", "dog", "Кот", "кот", "outdoor", "bw", "rare", "unused"};
+    private static final double[] TAG_DENSITY = {0.5, 0.3, 0.2, 0.15, 0.7, 0.05, 0.005, 0};
+    private static final List<String> QUERIES = List.of(
+            "cat", "CAT", "кот", "КОТ", "unused", "ghost",
+            "cat dog", "cat AND dog AND outdoor", "rare dog", "cat OR dog", "bw OR rare OR ghost",
+            "NOT cat", "NOT ghost", "NOT unused", "-cat -dog", "cat -dog", "outdoor -bw -rare",
+            "(cat OR dog) AND NOT (bw OR rare)", "NOT (cat AND dog)", "NOT (cat OR dog OR outdoor)",
+            "cat OR -ghost", "ghost -cat", "NOT NOT dog", "(кот OR bw) (outdoor OR -cat)",
+            "unused OR (rare AND NOT outdoor)", "кот -cat", "NOT КОТ", "кот AND NOT (dog OR outdoor)");
+
+    @TempDir
+    static Path home;
+    private static String previousHome;
+
+    private static final TrackedFileDAO trackedFileDAO = new TrackedFileDAO();
+    private static final TagDAO tagDAO = new TagDAO();
+    private static final FileTagLinkDAO fileTagLinkDAO = new FileTagLinkDAO(tagDAO);
+    private static final List<Tag> tags = new ArrayList<>();
+    private static final List<TrackedFile> files = new ArrayList<>();
+
+    @BeforeAll
+    static void createLibrary() {
+        DatabaseManager.shutdown(); // Соединения, открытые с другой домашней папкой
+        previousHome = System.getProperty("user.home");
+        System.setProperty("user.home", home.toString());
+        DatabaseManager.initializeDatabase();
+
+        for (String name : TAG_NAMES) {
+            tags.add(tagDAO.create(name).orElseThrow());
+        }
+        List<TrackedFile> newFiles = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            byte[] hash = ByteBuffer.allocate(16).putInt(i).array();
+            String path = home.resolve("library").resolve("folder" + i % 7).resolve("img" + i + ".jpg").toString();
+            newFiles.add(new TrackedFile(path, ContentHash.of(hash), i, i));
+        }
+        files.addAll(trackedFileDAO.upsertAll(newFiles));
+
+        Random random = new Random(2024);
+        for (TrackedFile file : files) {
+            for (int t = 0; t < tags.size(); t++) {
+                if (random.nextDouble() < TAG_DENSITY[t]) {
+                    fileTagLinkDAO.linkTagToFile(file.getId(), tags.get(t).getId());
+                }
+            }
+        }
+    }
+
+    @AfterAll
+    static void restoreHome() {
+        DatabaseManager.shutdown();
+        System.setProperty("user.home", previousHome);
+    }
+
+    private static void assertIndexMatchesSql(TagBitmapIndex index) {
+        for (String text : QUERIES) {
+            TagQuery query = TagQuery.parse(text);
+            int[] fromSql = fileTagLinkDAO.getFilesMatching(query, null).stream()
+                    .mapToLong(TrackedFile::getId).mapToInt(Math::toIntExact).sorted().toArray();
+            int[] fromIndex = index.evaluate(query).orElseThrow().toArray();
+            assertArrayEquals(fromSql, fromIndex, text);
+        }
+    }
+
+    @Test
+    void indexMatchesSqlForQueries() {
+        TagBitmapIndex index = new TagBitmapIndex(trackedFileDAO, fileTagLinkDAO, tagDAO);
+        assertTrue(index.load());
+        assertTrue(index.evaluate(TagQuery.parse("cat")).orElseThrow().getCardinality() > 100); // Данные действительно есть
+        assertIndexMatchesSql(index);
+    }
+
+    @Test
+    void indexStaysInSyncWithTagChanges() {
+        TagBitmapIndex index = new TagBitmapIndex(trackedFileDAO, fileTagLinkDAO, tagDAO);
+        assertTrue(index.load());
+        Random random = new Random(99);
+        for (int i = 0; i < 60; i++) {
+            TrackedFile file = files.get(random.nextInt(files.size()));
+            Tag tag = tags.get(random.nextInt(tags.size()));
+            if (random.nextBoolean()) {
+                fileTagLinkDAO.linkTagToFile(file.getId(), tag.getId());
+                index.onTagLinked(file.getId(), tag);
+            } else {
+                fileTagLinkDAO.unlinkTagFromFile(file.getId(), tag.getId());
+                index.onTagUnlinked(file.getId(), tag.getId());
+            }
+        }
+        assertIndexMatchesSql(index);
+
+        // Свежая загрузка видит то же, что и индекс, обновленный по событиям
+        TagBitmapIndex reloaded = new TagBitmapIndex(trackedFileDAO, fileTagLinkDAO, tagDAO);
+        assertTrue(reloaded.load());
+        assertIndexMatchesSql(reloaded);
+    }
+}
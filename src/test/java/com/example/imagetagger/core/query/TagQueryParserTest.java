@@ -0,0 +1,118 @@
+package com.example.imagetagger.core.query;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TagQueryParserTest {
+
+    private static TagQuery.TagTerm tag(String name) {
+        return new TagQuery.TagTerm(name);
+    }
+
+    private static TagQuerySyntaxException syntaxError(String text) {
+        return assertThrows(TagQuerySyntaxException.class, () -> TagQuery.parse(text));
+    }
+
+    @Test
+    void andBindsTighterThanOr() {
+        assertEquals(new TagQuery.Or(List.of(tag("a"), new TagQuery.And(List.of(tag("b"), tag("c"))))),
+                TagQuery.parse("a OR b AND c"));
+        assertEquals(new TagQuery.Or(List.of(new TagQuery.And(List.of(tag("a"), tag("b"))), tag("c"))),
+                TagQuery.parse("a & b | c"));
+    }
+
+    @Test
+    void notBindsTighterThanAnd() {
+        assertEquals(new TagQuery.And(List.of(new TagQuery.Not(tag("a")), tag("b"))), TagQuery.parse("NOT a b"));
+        assertEquals(new TagQuery.Not(new TagQuery.Or(List.of(tag("a"), tag("b")))), TagQuery.parse("!(a || b)"));
+    }
+
+    @Test
+    void adjacentTermsMeanAnd() {
+        assertEquals(TagQuery.parse("cat AND dog AND NOT bird"), TagQuery.parse("cat dog -bird"));
+    }
+
+    @Test
+    void operatorsAreCaseInsensitive() {
+        assertEquals(TagQuery.parse("a AND b OR NOT c"), TagQuery.parse("a and b or not c"));
+    }
+
+    @Test
+    void dashInsideWordIsPartOfTagName() {
+        assertEquals(tag("black-and-white"), TagQuery.parse("black-and-white"));
+        assertEquals(new TagQuery.Not(tag("foo")), TagQuery.parse("-foo"));
+    }
+
+    @Test
+    void quotedNamesKeepSpacesOperatorsAndLeadingDash() {
+        assertEquals(new TagQuery.And(List.of(tag("new york"), tag("OR"))), TagQuery.parse("\"new york\" \"OR\""));
+        assertEquals(tag("-foo"), TagQuery.parse("\"-foo\""));
+        assertEquals(tag("a (b)"), TagQuery.parse("\" a (b) \""));
+    }
+
+    @Test
+    void toStringQuotesNamesThatNeedIt() {
+        TagQuery query = new TagQuery.And(List.of(tag("-foo"), tag("new york"), tag("not"),
+                new TagQuery.Or(List.of(tag("a"), tag("b")))));
+        assertEquals("\"-foo\" AND \"new york\" AND \"not\" AND (a OR b)", query.toString());
+        assertEquals(query, TagQuery.parse(query.toString()));
+    }
+
+    @Test
+    void emptyQuery() {
+        assertEquals(0, syntaxError("   ").getPosition());
+    }
+
+    @Test
+    void missingClosingParenthesisPointsAtEnd() {
+        assertEquals(7, syntaxError("(a OR b").getPosition());
+    }
+
+    @Test
+    void unexpectedClosingParenthesis() {
+        TagQuerySyntaxException e = syntaxError("a )");
+        assertEquals(2, e.getPosition());
+        assertTrue(e.getMessage().contains("(at position 3)"), e.getMessage());
+    }
+
+    @Test
+    void danglingOperatorPointsAtEnd() {
+        assertEquals(6, syntaxError("cat OR").getPosition());
+        assertEquals(5, syntaxError("cat &").getPosition());
+    }
+
+    @Test
+    void operatorInsteadOfTagName() {
+        assertEquals(8, syntaxError("cat AND OR dog").getPosition());
+    }
+
+    @Test
+    void unterminatedQuotePointsAtQuote() {
+        assertEquals(4, syntaxError("cat \"new york").getPosition());
+        assertEquals(0, syntaxError("\"  \"").getPosition());
+    }
+
+    @Test
+    void loneDashExplainsNotAndSuggestsQuotes() {
+        TagQuerySyntaxException e = syntaxError("cat -");
+        assertEquals(4, e.getPosition());
+        assertTrue(e.getMessage().contains("means NOT"), e.getMessage());
+        assertTrue(e.getMessage().contains("\"-name\""), e.getMessage());
+
+        TagQuerySyntaxException bang = syntaxError("! )");
+        assertEquals(0, bang.getPosition());
+        assertTrue(bang.getMessage().contains("\"!name\""), bang.getMessage());
+    }
+
+    @Test
+    void notKeywordWithoutOperand() {
+        TagQuerySyntaxException e = syntaxError("cat AND NOT");
+        assertEquals(8, e.getPosition());
+        assertTrue(e.getMessage().startsWith("NOT must be followed"), e.getMessage());
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.imagetagger.persistence.dao;
+
+import com.example.imagetagger.core.query.TagQuery;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class TagQueryPlannerTest {
+
+    private static final String ALL_FILES = "SELECT id AS file_id FROM tracked_files";
+
+    // В БД есть только cat (10 файлов), dog (500), unused (без файлов) и два тега "Кот" и "кот" (20 связей вместе)
+    private final TagQueryPlanner planner = new TagQueryPlanner(Map.of(
+            "cat", new TagQueryPlanner.TagStatistics(1, 10),
+            "dog", new TagQueryPlanner.TagStatistics(2, 500),
+            "unused", new TagQueryPlanner.TagStatistics(3, 0),
+            "кот", new TagQueryPlanner.TagStatistics(List.of(4L, 5L), 20)), 1000);
+
+    @Test
+    void unknownTagIsEmpty() {
+        assertNull(planner.compile(TagQuery.parse("ghost")));
+        assertNull(planner.compile(TagQuery.parse("unused")));
+    }
+
+    @Test
+    void notUnknownTagIsAllFiles() {
+        TagQueryPlanner.CompiledQuery compiled = planner.compile(TagQuery.parse("NOT ghost"));
+        assertNotNull(compiled);
+        assertEquals(ALL_FILES, compiled.sql());
+        assertEquals(List.of(), compiled.parameters());
+    }
+
+    @Test
+    void orOfUnknownTagsIsEmpty() {
+        assertNull(planner.compile(TagQuery.parse("ghost OR unused OR phantom")));
+    }
+
+    @Test
+    void orWithNotUnknownTagIsAllFiles() {
+        assertEquals(ALL_FILES, planner.compile(TagQuery.parse("cat OR -ghost")).sql());
+    }
+
+    @Test
+    void notOfOrOverUnknownTagsIsAllFiles() {
+        assertEquals(ALL_FILES, planner.compile(TagQuery.parse("NOT (ghost OR unused)")).sql());
+    }
+
+    @Test
+    void doubleNotOfUnknownTagIsEmpty() {
+        assertNull(planner.compile(TagQuery.parse("NOT NOT ghost")));
+    }
+
+    @Test
+    void unknownTagsDropOutOfOrAndAnd() {
+        TagQueryPlanner.CompiledQuery or = planner.compile(TagQuery.parse("ghost OR cat"));
+        assertEquals("SELECT file_id FROM file_tag_links WHERE tag_id = ?", or.sql());
+        assertEquals(List.of(1L), or.parameters());
+
+        TagQueryPlanner.CompiledQuery and = planner.compile(TagQuery.parse("cat AND NOT ghost"));
+        assertEquals(or.sql(), and.sql());
+        assertEquals(List.of(1L), and.parameters());
+
+        assertNull(planner.compile(TagQuery.parse("cat AND ghost")));
+    }
+
+    @Test
+    void intersectionStartsWithRarestTag() {
+        TagQueryPlanner.CompiledQuery compiled = planner.compile(TagQuery.parse("dog cat"));
+        // Ведущий - cat (10 связей), dog проверяется через EXISTS
+        assertEquals(List.of(1L, 2L), compiled.parameters());
+    }
+
+    @Test
+    void caseVariantsOfTagAreUnited() {
+        TagQueryPlanner.CompiledQuery compiled = planner.compile(TagQuery.parse("КОТ"));
+        assertEquals("SELECT file_id FROM file_tag_links WHERE tag_id IN (?, ?)", compiled.sql());
+        assertEquals(List.of(4L, 5L), compiled.parameters());
+
+        // Ведущий - cat (10 связей), оба варианта "кот" проверяются одним EXISTS
+        assertEquals(List.of(1L, 4L, 5L), planner.compile(TagQuery.parse("кот cat")).parameters());
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.imagetagger.persistence.migration;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Миграция БД, созданной версиями без schema_version (версия 0), до последней схемы.
+ */
+class SchemaMigratorTest {
+
+    private static final String SHA_CAT = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+    private static final String SHA_DOG = "60303AE22B998861BCE3B28F33EEC1BE758A213C86C93C076DBE9F558C11C752";
+
+    @TempDir
+    Path tempDir;
+
+    private Connection conn;
+    private String catPath;
+    private String dogPath;
+    private String brokenPath;
+
+    @BeforeEach
+    void createVersionZeroDatabase() throws SQLException {
+        conn = DriverManager.getConnection("jdbc:sqlite:" + tempDir.resolve("v0.sqlite"));
+        catPath = tempDir.resolve("photos").resolve("cat.jpg").toString();
+        dogPath = tempDir.resolve("photos").resolve("pets").resolve("dog.png").toString();
+        brokenPath = tempDir.resolve("other").resolve("broken.gif").toString();
+        try (Statement stmt = conn.createStatement()) {
+            // Схема из DatabaseManager до появления миграций; внешние ключи тогда не включались
+            stmt.execute("CREATE TABLE tags (id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT UNIQUE NOT NULL);");
+            stmt.execute("CREATE TABLE tracked_files (id INTEGER PRIMARY KEY AUTOINCREMENT, absolute_path TEXT UNIQUE NOT NULL, "
+                    + "content_hash TEXT NOT NULL, size_bytes INTEGER NOT NULL, modified_date INTEGER NOT NULL, "
+                    + "last_seen_date INTEGER NOT NULL);");
+            stmt.execute("CREATE TABLE file_tag_links (file_id INTEGER NOT NULL, tag_id INTEGER NOT NULL, "
+                    + "PRIMARY KEY (file_id, tag_id), "
+                    + "FOREIGN KEY (file_id) REFERENCES tracked_files(id) ON DELETE CASCADE, "
+                    + "FOREIGN KEY (tag_id) REFERENCES tags(id) ON DELETE CASCADE);");
+            stmt.execute("CREATE INDEX idx_tracked_files_path ON tracked_files (absolute_path);");
+            stmt.execute("CREATE INDEX idx_tracked_files_hash ON tracked_files (content_hash);");
+            stmt.execute("CREATE INDEX idx_tags_name ON tags (name);");
+            stmt.execute("INSERT INTO tags(id, name) VALUES (1, 'cat'), (2, 'pet'), (5, 'Черно-белое');");
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement("INSERT INTO tracked_files(id, absolute_path, content_hash, "
+                + "size_bytes, modified_date, last_seen_date) VALUES (?, ?, ?, ?, ?, ?)")) {
+            insertFile(pstmt, 3, catPath, SHA_CAT, 100);
+            insertFile(pstmt, 7, dogPath, SHA_DOG, 200);
+            insertFile(pstmt, 8, brokenPath, "not-a-hash", 300);
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("INSERT INTO file_tag_links(file_id, tag_id) VALUES (3, 1), (3, 2), (7, 2), (7, 5), (8, 5), "
+                    + "(42, 1), (3, 99);"); // Две последние - без файла и без тега
+            stmt.execute("PRAGMA foreign_keys = ON");
+        }
+    }
+
+    private static void insertFile(PreparedStatement pstmt, long id, String path, String hash, long size) throws SQLException {
+        pstmt.setLong(1, id);
+        pstmt.setString(2, path);
+        pstmt.setString(3, hash);
+        pstmt.setLong(4, size);
+        pstmt.setLong(5, size * 10);
+        pstmt.setLong(6, size * 20);
+        pstmt.executeUpdate();
+    }
+
+    @AfterEach
+    void close() throws SQLException {
+        conn.close();
+    }
+
+    @Test
+    void migratesToLatestVersion() throws SQLException {
+        SchemaMigrator migrator = new SchemaMigrator(Migrations.all());
+        assertEquals(migrator.getLatestVersion(), migrator.migrate(conn));
+        assertEquals(migrator.getLatestVersion(), migrator.getCurrentVersion(conn));
+        // Повторный запуск ничего не меняет
+        assertEquals(migrator.getLatestVersion(), migrator.migrate(conn));
+    }
+
+    @Test
+    void preservesFilesTagsAndLinks() throws SQLException {
+        new SchemaMigrator(Migrations.all()).migrate(conn);
+
+        Map<Long, String> paths = new TreeMap<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT tf.id, d.path, tf.file_name, tf.size_bytes, tf.modified_date, "
+                     + "tf.last_seen_date FROM tracked_files tf JOIN directories d ON d.id = tf.directory_id")) {
+            while (rs.next()) {
+                paths.put(rs.getLong(1), Path.of(rs.getString(2), rs.getString(3)).toString());
+                long size = rs.getLong(4);
+                assertEquals(size * 10, rs.getLong(5));
+                assertEquals(size * 20, rs.getLong(6));
+            }
+        }
+        assertEquals(Map.of(3L, catPath, 7L, dogPath, 8L, brokenPath), paths);
+
+        Map<Long, String> tags = new TreeMap<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT id, name FROM tags")) {
+            while (rs.next()) {
+                tags.put(rs.getLong(1), rs.getString(2));
+            }
+        }
+        assertEquals(Map.of(1L, "cat", 2L, "pet", 5L, "Черно-белое"), tags);
+
+        Set<String> links = new TreeSet<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT file_id, tag_id FROM file_tag_links")) {
+            while (rs.next()) {
+                links.add(rs.getLong(1) + ":" + rs.getLong(2));
+            }
+        }
+        // Связи без файла или тега удаляются, остальные сохраняются с прежними ID
+        assertEquals(Set.of("3:1", "3:2", "7:2", "7:5", "8:5"), links);
+    }
+
+    @Test
+    void convertsHexHashesToBinaryAndKeepsUnparsableOnes() throws SQLException {
+        new SchemaMigrator(Migrations.all()).migrate(conn);
+
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT id, content_hash, fingerprint, hash_algorithm FROM tracked_files ORDER BY id")) {
+            rs.next();
+            assertArrayEquals(HexFormat.of().parseHex(SHA_CAT), rs.getBytes(2));
+            assertNull(rs.getBytes(3));
+            assertEquals(1, rs.getInt(4)); // HashAlgorithm.SHA_256
+            rs.next();
+            assertArrayEquals(HexFormat.of().parseHex(SHA_DOG.toLowerCase()), rs.getBytes(2));
+            rs.next();
+            assertArrayEquals("not-a-hash".getBytes(StandardCharsets.UTF_8), rs.getBytes(2));
+        }
+    }
+
+    @Test
+    void linksCascadeAfterMigration() throws SQLException {
+        new SchemaMigrator(Migrations.all()).migrate(conn);
+
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("DELETE FROM tracked_files WHERE id = 3");
+            try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM file_tag_links WHERE file_id = 3")) {
+                rs.next();
+                assertEquals(0, rs.getInt(1));
+            }
+            try (ResultSet rs = stmt.executeQuery("PRAGMA foreign_keys")) {
+                rs.next();
+                assertEquals(1, rs.getInt(1)); // Миграция возвращает внешние ключи в прежнее состояние
+            }
+        }
+    }
+
+    @Test
+    void maintainsTagKeysAndLinkCounts() throws SQLException {
+        new SchemaMigrator(Migrations.all()).migrate(conn);
+        assertEquals(Map.of("cat", 1L, "pet", 2L, "черно-белое", 2L), tagCounts());
+
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("DELETE FROM tracked_files WHERE id = 3"); // Каскадное удаление связей тоже уменьшает счетчики
+            stmt.execute("INSERT INTO file_tag_links(file_id, tag_id) VALUES (7, 1)");
+            stmt.execute("INSERT OR IGNORE INTO file_tag_links(file_id, tag_id) VALUES (7, 2)"); // Уже есть
+        }
+        assertEquals(Map.of("cat", 1L, "pet", 1L, "черно-белое", 2L), tagCounts());
+    }
+
+    private Map<String, Long> tagCounts() throws SQLException {
+        Map<String, Long> counts = new TreeMap<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT name_key, link_count FROM tags")) {
+            while (rs.next()) {
+                counts.put(rs.getString(1), rs.getLong(2));
+            }
+        }
+        return counts;
+    }
+
+    @Test
+    void refusesNewerSchema() throws SQLException {
+        SchemaMigrator migrator = new SchemaMigrator(Migrations.all());
+        migrator.migrate(conn);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("INSERT INTO schema_version(version, description, applied_date) VALUES ("
+                    + (migrator.getLatestVersion() + 1) + ", 'future', 0)");
+        }
+        assertThrows(SQLException.class, () -> migrator.migrate(conn));
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.imagetagger.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class HashAlgorithmTest {
+
+    @AfterEach
+    void clearProperty() {
+        System.clearProperty(HashAlgorithm.ALGORITHM_PROPERTY);
+    }
+
+    @Test
+    void acceptsConstantAndJcaNames() {
+        System.setProperty(HashAlgorithm.ALGORITHM_PROPERTY, " sha-256 ");
+        assertEquals(HashAlgorithm.SHA_256, HashAlgorithm.fromSystemProperties());
+        System.setProperty(HashAlgorithm.ALGORITHM_PROPERTY, "murmur3_128");
+        assertEquals(HashAlgorithm.MURMUR3_128, HashAlgorithm.fromSystemProperties());
+    }
+
+    @Test
+    void unknownNameFallsBackToDefault() {
+        System.setProperty(HashAlgorithm.ALGORITHM_PROPERTY, "crc32");
+        assertEquals(HashAlgorithm.DEFAULT, HashAlgorithm.fromSystemProperties());
+        System.setProperty(HashAlgorithm.ALGORITHM_PROPERTY, "  ");
+        assertEquals(HashAlgorithm.DEFAULT, HashAlgorithm.fromSystemProperties());
+    }
+}
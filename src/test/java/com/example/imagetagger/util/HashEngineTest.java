@@ -0,0 +1,75 @@
+package com.example.imagetagger.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HashEngineTest {
+
+    private static final int SAMPLE = 4096;
+    private static final int HEADER = 16;
+
+    @TempDir
+    Path tempDir;
+
+    private Path file(String name, int size) throws IOException {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return Files.write(tempDir.resolve(name), data);
+    }
+
+    @Test
+    void sampleOfSmallFileEqualsWholeFileHash() throws IOException {
+        for (HashAlgorithm algorithm : HashAlgorithm.values()) {
+            HashEngine engine = new HashEngine(algorithm, 4096, false);
+            for (int size : new int[]{0, 1, HEADER - 1, SAMPLE, 2 * SAMPLE - 1, 2 * SAMPLE}) {
+                Path path = file(algorithm + "-" + size, size);
+                HashEngine.HashResult sample = engine.hashSample(path, SAMPLE, HEADER);
+                HashEngine.HashResult whole = engine.hash(path, HEADER);
+                assertTrue(sample.wholeFile(), algorithm + " " + size);
+                assertArrayEquals(whole.digest(), sample.digest(), algorithm + " " + size);
+                assertArrayEquals(engine.hash(path), sample.digest(), algorithm + " " + size);
+                assertEquals(Math.min(size, HEADER), sample.headerLength());
+                assertArrayEquals(whole.header(), sample.header());
+            }
+        }
+    }
+
+    @Test
+    void sampleOfLargeFileIsNotWholeFileHash() throws IOException {
+        HashEngine engine = new HashEngine(HashAlgorithm.MURMUR3_128);
+        Path path = file("large", 2 * SAMPLE + 1);
+        HashEngine.HashResult sample = engine.hashSample(path, SAMPLE, HEADER);
+        assertFalse(sample.wholeFile());
+        assertFalse(Arrays.equals(engine.hash(path), sample.digest()));
+        assertArrayEquals(engine.hash(path, HEADER).header(), sample.header());
+    }
+
+    @Test
+    void mappedHashEqualsBufferedHash() throws IOException {
+        // Больше двух окон отображения и не кратно ни окну, ни буферу, ни блоку Murmur3
+        Path path = file("mapped", 2 * HashEngine.MMAP_WINDOW_SIZE + 12_345);
+        for (HashAlgorithm algorithm : new HashAlgorithm[]{HashAlgorithm.MURMUR3_128, HashAlgorithm.SHA_256}) {
+            HashEngine mapped = new HashEngine(algorithm, HashEngine.DEFAULT_BUFFER_SIZE, true, 1);
+            HashEngine direct = new HashEngine(algorithm, HashEngine.DEFAULT_BUFFER_SIZE, true, HashEngine.MMAP_DISABLED);
+            HashEngine heap = new HashEngine(algorithm, 10_000, false, HashEngine.MMAP_DISABLED);
+            HashEngine.HashResult expected = heap.hash(path, HEADER);
+            for (HashEngine engine : new HashEngine[]{mapped, direct}) {
+                HashEngine.HashResult actual = engine.hash(path, HEADER);
+                assertArrayEquals(expected.digest(), actual.digest(), algorithm.name());
+                assertArrayEquals(expected.header(), actual.header(), algorithm.name());
+                assertEquals(HEADER, actual.headerLength());
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.imagetagger.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class Murmur3DigestTest {
+
+    private static String hex(String text) {
+        return HexFormat.of().formatHex(new Murmur3Digest().digest(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static byte[] sequence(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + 7);
+        }
+        return data;
+    }
+
+    @Test
+    void matchesKnownVectors() {
+        // Эталоны - Hashing.murmur3_128() из Guava
+        assertEquals("00000000000000000000000000000000", hex(""));
+        assertEquals("897859f6655555855a890e51483ab5e6", hex("a"));
+        assertEquals("029bbd41b3a7d8cb191dae486a901e5b", hex("hello"));
+        assertEquals("6c1b07bc7bbc4be347939ac4a93c437a", hex("The quick brown fox jumps over the lazy dog"));
+        assertEquals("a7d14acf946de04bda08a7635c5bc387", hex("0123456789abcdef"));
+        assertEquals("75c0a58587ae24ebca283131b368fb73", hex("0123456789abcdef0"));
+        assertEquals("45c99d896b9dfe1729ce34cea6aaa7d3", HexFormat.of().formatHex(new Murmur3Digest().digest(sequence(1000))));
+    }
+
+    @Test
+    void passesSmhasherVerification() {
+        // Проверка из SMHasher: хэши префиксов 0..255 с seed 256 - i, затем хэш их конкатенации с seed 0
+        byte[] key = new byte[256];
+        byte[] hashes = new byte[256 * 16];
+        for (int i = 0; i < 256; i++) {
+            key[i] = (byte) i;
+            Murmur3Digest digest = new Murmur3Digest(256 - i);
+            digest.update(key, 0, i);
+            System.arraycopy(digest.digest(), 0, hashes, i * 16, 16);
+        }
+        byte[] result = new Murmur3Digest().digest(hashes);
+        int verification = ByteBuffer.wrap(result, 0, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+        assertEquals(0x6384BA69, verification);
+    }
+
+    @Test
+    void splitUpdatesMatchOneUpdate() {
+        byte[] data = sequence(1000);
+        byte[] expected = new Murmur3Digest().digest(data);
+        for (int chunk : new int[]{1, 3, 15, 16, 17, 100}) {
+            MessageDigest digest = new Murmur3Digest();
+            for (int offset = 0; offset < data.length; offset += chunk) {
+                int length = Math.min(chunk, data.length - offset);
+                if (chunk == 1) {
+                    digest.update(data[offset]);
+                } else {
+                    ByteBuffer direct = ByteBuffer.allocateDirect(length).put(data, offset, length).flip();
+                    digest.update(direct);
+                }
+            }
+            assertArrayEquals(expected, digest.digest(), "chunk " + chunk);
+        }
+    }
+
+    @Test
+    void digestResetsState() {
+        MessageDigest digest = new Murmur3Digest(42);
+        byte[] first = digest.digest(sequence(33));
+        assertArrayEquals(first, digest.digest(sequence(33)));
+    }
+}